@@ -32,6 +32,7 @@ import java.util.Date;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import org.kopi.ebics.interfaces.Configuration;
 import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.interfaces.PasswordCallback;
 
@@ -48,12 +49,35 @@ public class CertificateManager {
   private static final int DEFAULT_CERTIFICATE_VALIDITY_YEARS = X509Constants.DEFAULT_DURATION / 365;
 
   public CertificateManager(EbicsUser user) {
+    this(user, null);
+  }
+
+  /**
+   * Constructs a new <code>CertificateManager</code> taking the key pairs
+   * of new certificates from a pool.
+   * @param user the ebics user
+   * @param keyPairPool the key pair pool, <code>null</code> to generate the key pairs
+   */
+  public CertificateManager(EbicsUser user, KeyPairPool keyPairPool) {
     this.user = user;
+    this.keyPairPool = keyPairPool;
     generator = new X509Generator();
   }
 
   /**
-   * Creates the certificates for the user
+   * Creates the key pair pool of a client for the configured key length.
+   * @param conf the client configuration
+   * @return the pool, <code>null</code> if no pool is configured
+   * @see KeyPairPool#create(Configuration, int)
+   */
+  public static KeyPairPool createKeyPairPool(Configuration conf) {
+    return KeyPairPool.create(conf, resolveKeyLength());
+  }
+
+  /**
+   * Creates the certificates for the user.
+   * The three key pairs are taken from the key pair pool when one
+   * is given, and are otherwise generated in parallel.
    * @throws GeneralSecurityException
    * @throws IOException
    */
@@ -61,12 +85,23 @@ public class CertificateManager {
       Calendar calendar = Calendar.getInstance();
       calendar.add(Calendar.YEAR, resolveCertificateValidityYears());
 
-      createA005Certificate(new Date(calendar.getTimeInMillis()));
-      createX002Certificate(new Date(calendar.getTimeInMillis()));
-      createE002Certificate(new Date(calendar.getTimeInMillis()));
+      KeyPair[] keyPairs = makeKeyPairs(3);
+      createA005Certificate(new Date(calendar.getTimeInMillis()), keyPairs[0]);
+      createX002Certificate(new Date(calendar.getTimeInMillis()), keyPairs[1]);
+      createE002Certificate(new Date(calendar.getTimeInMillis()), keyPairs[2]);
       setUserCertificates();
   }
 
+  private KeyPair[] makeKeyPairs(int count) throws GeneralSecurityException {
+    int				keyLength;
+
+    keyLength = resolveKeyLength();
+    if (keyPairPool != null && keyPairPool.getKeyLength() == keyLength) {
+      return keyPairPool.take(count);
+    }
+    return KeyUtil.makeKeyPairs(keyLength, count);
+  }
+
   /**
    * Sets the user certificates
    */
@@ -87,7 +122,12 @@ public class CertificateManager {
    * @throws IOException
    */
   public void createA005Certificate(Date end) throws GeneralSecurityException, IOException {
-      KeyPair keypair = KeyUtil.makeKeyPair(resolveKeyLength());
+      createA005Certificate(end, KeyUtil.makeKeyPair(resolveKeyLength()));
+  }
+
+  private void createA005Certificate(Date end, KeyPair keypair)
+    throws GeneralSecurityException, IOException
+  {
       a005Certificate = generator.generateA005Certificate(keypair, user.getDN(), new Date(), end);
       a005PrivateKey = keypair.getPrivate();
   }
@@ -103,9 +143,12 @@ public class CertificateManager {
    * @throws IOException
    */
   public void createX002Certificate(Date end) throws GeneralSecurityException, IOException {
-    KeyPair			keypair;
+    createX002Certificate(end, KeyUtil.makeKeyPair(resolveKeyLength()));
+  }
 
-    keypair = KeyUtil.makeKeyPair(resolveKeyLength());
+  private void createX002Certificate(Date end, KeyPair keypair)
+    throws GeneralSecurityException, IOException
+  {
     x002Certificate = generator.generateX002Certificate(keypair,
 	                                                user.getDN(),
 	                                                new Date(),
@@ -120,9 +163,12 @@ public class CertificateManager {
    * @throws IOException
    */
   public void createE002Certificate(Date end) throws GeneralSecurityException, IOException {
-    KeyPair			keypair;
+    createE002Certificate(end, KeyUtil.makeKeyPair(resolveKeyLength()));
+  }
 
-    keypair = KeyUtil.makeKeyPair(resolveKeyLength());
+  private void createE002Certificate(Date end, KeyPair keypair)
+    throws GeneralSecurityException, IOException
+  {
     e002Certificate = generator.generateE002Certificate(keypair,
 	                                                user.getDN(),
 	                                                new Date(),
@@ -217,6 +263,7 @@ public class CertificateManager {
 
   private final X509Generator					generator;
   private final EbicsUser					user;
+  private final KeyPairPool					keyPairPool;
 
   private X509Certificate				a005Certificate;
   private X509Certificate				e002Certificate;
@@ -226,7 +273,7 @@ public class CertificateManager {
   private PrivateKey					x002PrivateKey;
   private PrivateKey					e002PrivateKey;
 
-  private int resolveKeyLength() {
+  private static int resolveKeyLength() {
       Integer configuredKeyLength = Integer.getInteger(KEY_LENGTH_PROPERTY);
       if (configuredKeyLength == null || configuredKeyLength <= 0) {
           return DEFAULT_KEY_LENGTH;
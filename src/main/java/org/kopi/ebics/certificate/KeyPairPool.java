@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.certificate;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.kopi.ebics.interfaces.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of RSA key pairs generated ahead of time.
+ *
+ * <p>Background threads of low priority keep the pool filled up to its
+ * capacity, so that creating the certificates of a new user only takes
+ * key pairs that are already there. When the pool runs dry, the missing
+ * key pairs are generated on demand.
+ *
+ * <p>A client creates its pool with {@link #create(Configuration, int)}
+ * from the <code>key.pool.size</code> property of its configuration and
+ * closes it when it quits.
+ *
+ */
+public class KeyPairPool implements AutoCloseable {
+
+  /**
+   * Constructs a new <code>KeyPairPool</code> and starts filling it.
+   * @param keyLength the length of the pooled keys
+   * @param capacity the number of pooled key pairs
+   * @param threads the number of threads filling the pool
+   */
+  public KeyPairPool(int keyLength, int capacity, int threads) {
+    this.keyLength = keyLength;
+    this.pool = new ArrayBlockingQueue<>(capacity);
+    this.fillers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      fillers[i] = new Thread(this::fill, "ebics-key-pool-" + i);
+      fillers[i].setDaemon(true);
+      fillers[i].setPriority(Thread.MIN_PRIORITY);
+      fillers[i].start();
+    }
+  }
+
+  private void fill() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        pool.put(KeyUtil.makeKeyPair(keyLength));
+      }
+    } catch (InterruptedException e) {
+      // the pool is closed
+    } catch (NoSuchAlgorithmException e) {
+      log.warn("Cannot pre-generate key pairs", e);
+      failure = e;
+    }
+  }
+
+  /**
+   * Takes key pairs from the pool. The key pairs missing from the pool
+   * are generated in parallel.
+   * @param count the number of key pairs
+   * @return the key pairs
+   * @throws NoSuchAlgorithmException the key pairs cannot be generated,
+   *         which is also reported when the pool failed to fill up
+   */
+  public KeyPair[] take(int count) throws NoSuchAlgorithmException {
+    KeyPair[]			keyPairs;
+    int				taken;
+
+    if (failure != null) {
+      throw new NoSuchAlgorithmException(failure.getMessage(), failure);
+    }
+    keyPairs = new KeyPair[count];
+    taken = 0;
+    while (taken < count && (keyPairs[taken] = pool.poll()) != null) {
+      taken++;
+    }
+    if (taken < count) {
+      KeyPair[] generated = KeyUtil.makeKeyPairs(keyLength, count - taken);
+      System.arraycopy(generated, 0, keyPairs, taken, generated.length);
+    }
+    return keyPairs;
+  }
+
+  /**
+   * Returns the length of the pooled keys.
+   * @return the key length
+   */
+  public int getKeyLength() {
+    return keyLength;
+  }
+
+  /**
+   * Returns the number of key pairs ready in the pool.
+   * @return the number of pooled key pairs
+   */
+  public int size() {
+    return pool.size();
+  }
+
+  /**
+   * Stops filling the pool.
+   */
+  @Override
+  public void close() {
+    for (Thread filler : fillers) {
+      filler.interrupt();
+    }
+    pool.clear();
+  }
+
+  /**
+   * Creates and starts the key pair pool of a client.
+   * @param conf the client configuration
+   * @param keyLength the length of the pooled keys
+   * @return the pool, <code>null</code> if no pool is configured
+   */
+  public static KeyPairPool create(Configuration conf, int keyLength) {
+    int				capacity;
+
+    capacity = Configuration.getInt(conf, POOL_SIZE_PROPERTY, 0);
+    if (capacity == 0) {
+      return null;
+    }
+    return new KeyPairPool(keyLength,
+                           capacity,
+                           Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				keyLength;
+  private final BlockingQueue<KeyPair>		pool;
+  private final Thread[]			fillers;
+  private volatile NoSuchAlgorithmException	failure;
+
+  private static final String			POOL_SIZE_PROPERTY = "key.pool.size";
+  private static final Logger			log = LoggerFactory.getLogger(KeyPairPool.class);
+}
@@ -22,10 +22,15 @@ import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Hex;
 import org.kopi.ebics.exception.EbicsException;
@@ -58,6 +63,45 @@ public final class KeyUtil {
 
   }
 
+  /**
+   * Generates several <code>KeyPair</code>s in RSA format in parallel.
+   * Each RSA key generation is a long CPU bound search for primes, so the
+   * pairs are generated on distinct processors when available.
+   *
+   * @param keyLen - key size
+   * @param count - the number of key pairs
+   * @return the key pairs
+   * @throws NoSuchAlgorithmException
+   */
+  public static KeyPair[] makeKeyPairs(int keyLen, int count) throws NoSuchAlgorithmException {
+    List<Future<KeyPair>>	futures;
+    KeyPair[]			keyPairs;
+
+    futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      futures.add(GENERATORS.submit(() -> makeKeyPair(keyLen)));
+    }
+    keyPairs = new KeyPair[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        keyPairs[i] = futures.get(i).get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof NoSuchAlgorithmException) {
+        throw (NoSuchAlgorithmException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      for (Future<KeyPair> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return keyPairs;
+  }
+
   /**
    * Returns the digest value of a given public key.
    *
@@ -89,8 +133,7 @@ public final class KeyUtil {
     }
 
     try {
-      digest = MessageDigest.getInstance("SHA-256", "BC").digest(hash.getBytes(
-          StandardCharsets.US_ASCII));
+      digest = Utils.getCryptoEngine().digest(hash.getBytes(StandardCharsets.US_ASCII));
     } catch (GeneralSecurityException e) {
       throw new EbicsException(e.getMessage());
     }
@@ -108,4 +151,12 @@ public final class KeyUtil {
       System.arraycopy(byteArray, 1, b, 0, b.length);
       return b;
   }
+
+  private static final ExecutorService		GENERATORS = Executors.newFixedThreadPool(
+    Runtime.getRuntime().availableProcessors(),
+    runnable -> {
+      Thread thread = new Thread(runnable, "ebics-key-generator");
+      thread.setDaemon(true);
+      return thread;
+    });
 }
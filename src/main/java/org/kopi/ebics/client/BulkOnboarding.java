@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.kopi.ebics.interfaces.PasswordCallback;
+import org.kopi.ebics.session.Product;
+
+/**
+ * Onboards many subscribers at once: for each subscriber of a manifest
+ * the keys and certificates are generated, the key store and the
+ * initialization letters are written and the INI and HIA requests are
+ * sent to the bank.
+ *
+ * <p>Subscribers are onboarded concurrently. Key generation only depends
+ * on the available processors, while the requests sent to a bank are
+ * limited to a number of subscribers at a time for each bank host by an
+ * {@link EbicsExecutor}. The subscribers waiting for their bank are queued
+ * there and do not hold a thread, so the keys of the other subscribers
+ * keep being generated.
+ *
+ * <p>The manifest is a text file whose first line names the columns,
+ * separated by commas or semicolons, using the keys of the client
+ * configuration file: <code>hostId</code>, <code>partnerId</code>,
+ * <code>userId</code>, <code>bank.url</code>, <code>bank.name</code>,
+ * <code>user.name</code>, <code>user.email</code>, <code>user.country</code>
+ * and <code>user.org</code>. Values cannot contain the separator.
+ *
+ */
+public class BulkOnboarding {
+
+  /**
+   * A subscriber of the manifest.
+   */
+  public record Subscriber(URL bankUrl,
+                           String bankName,
+                           String hostId,
+                           String partnerId,
+                           String userId,
+                           String name,
+                           String email,
+                           String country,
+                           String organization)
+  {}
+
+  /**
+   * The onboarding steps, in order.
+   */
+  public enum Step {
+    /** Nothing was done. */
+    NONE,
+    /** The keys, key store and letters are created. */
+    CREATED,
+    /** The INI request is accepted. */
+    INI,
+    /** The HIA request is accepted. */
+    HIA
+  }
+
+  /**
+   * The outcome of the onboarding of a subscriber.
+   * @param subscriber the subscriber
+   * @param step the last completed step
+   * @param error the error that stopped the onboarding, <code>null</code> on success
+   * @param elapsed the onboarding time in milliseconds
+   */
+  public record Result(Subscriber subscriber, Step step, String error, long elapsed) {
+
+    /**
+     * Was the subscriber fully onboarded?
+     * @return True if the INI and HIA requests were accepted.
+     */
+    public boolean isSuccess() {
+      return step == Step.HIA;
+    }
+  }
+
+  /**
+   * Constructs a new <code>BulkOnboarding</code>.
+   * @param client the client creating the users
+   * @param product the application product
+   * @param passwordCallback the password of the created key stores
+   * @param threads the number of subscribers onboarded at a time
+   * @param bankConcurrency the number of subscribers sending requests to a bank at a time
+   */
+  public BulkOnboarding(EbicsClient client,
+                        Product product,
+                        PasswordCallback passwordCallback,
+                        int threads,
+                        int bankConcurrency)
+  {
+    this.client = client;
+    this.product = product;
+    this.passwordCallback = passwordCallback;
+    this.threads = Math.max(1, threads);
+    this.bankConcurrency = Math.max(1, bankConcurrency);
+  }
+
+  /**
+   * Onboards the given subscribers. A failure only stops the onboarding
+   * of the concerned subscriber.
+   * @param subscribers the subscribers
+   * @return the results, in the order of the subscribers
+   */
+  public List<Result> run(List<Subscriber> subscribers) {
+    ExecutorService		executor;
+    EbicsExecutor		requests;
+    List<Future<Result>>	futures;
+    List<Result>		results;
+
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "ebics-onboarding");
+      thread.setDaemon(true);
+      return thread;
+    });
+    requests = new EbicsExecutor(threads, bankConcurrency);
+    try {
+      futures = new ArrayList<>(subscribers.size());
+      for (Subscriber subscriber : subscribers) {
+        futures.add(CompletableFuture.supplyAsync(() -> onboard(subscriber, requests), executor)
+                                     .thenCompose(result -> result));
+      }
+      results = new ArrayList<>(subscribers.size());
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          results.add(new Result(subscribers.get(i), Step.NONE, "interrupted", 0));
+        } catch (ExecutionException e) {
+          results.add(new Result(subscribers.get(i), Step.NONE, String.valueOf(e.getCause()), 0));
+        }
+      }
+      return results;
+    } finally {
+      requests.close();
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Creates the user of a subscriber and queues its INI and HIA requests
+   * with its bank.
+   * @param subscriber the subscriber
+   * @param requests the executor sending the requests
+   * @return the future result of the onboarding
+   */
+  private CompletableFuture<Result> onboard(Subscriber subscriber, EbicsExecutor requests) {
+    long			start;
+    User			user;
+
+    start = System.currentTimeMillis();
+    try {
+      user = client.createUser(subscriber.bankUrl(),
+                                    subscriber.bankName(),
+                                    subscriber.hostId(),
+                                    subscriber.partnerId(),
+                                    subscriber.userId(),
+                                    subscriber.name(),
+                                    subscriber.email(),
+                                    subscriber.country(),
+                                    subscriber.organization(),
+                                    false,
+                                    true,
+                                    passwordCallback);
+    } catch (Exception e) {
+      return CompletableFuture.completedFuture(
+        new Result(subscriber, Step.NONE, String.valueOf(e.getMessage()), System.currentTimeMillis() - start));
+    }
+    return requests.submit(user.getPartner().getBank(), () -> initialize(subscriber, user, start));
+  }
+
+  /**
+   * Sends the INI and HIA requests of a created user.
+   * @param subscriber the subscriber
+   * @param user the created user
+   * @param start when the onboarding of the subscriber started
+   * @return the result of the onboarding
+   */
+  private Result initialize(Subscriber subscriber, User user, long start) {
+    Step			step;
+
+    step = Step.CREATED;
+    try {
+      client.sendINIRequest(user, product);
+      step = Step.INI;
+      client.sendHIARequest(user, product);
+      step = Step.HIA;
+      return new Result(subscriber, step, null, System.currentTimeMillis() - start);
+    } catch (Exception e) {
+      return new Result(subscriber, step, String.valueOf(e.getMessage()), System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Reads the subscribers of a manifest.
+   * @param manifest the manifest file
+   * @return the subscribers, in the order of the manifest
+   * @throws IOException the manifest cannot be read or misses a column
+   */
+  public static List<Subscriber> readManifest(File manifest) throws IOException {
+    List<String>		lines;
+    List<String>		columns;
+    String			separator;
+    List<Subscriber>		subscribers;
+
+    lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+    if (lines.isEmpty()) {
+      return List.of();
+    }
+    separator = lines.get(0).contains(";") ? ";" : ",";
+    columns = Arrays.asList(lines.get(0).trim().split(separator));
+    for (String column : COLUMNS) {
+      if (!columns.contains(column)) {
+        throw new IOException("Missing manifest column " + column);
+      }
+    }
+    subscribers = new ArrayList<>();
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.isBlank()) {
+        continue;
+      }
+      String[] values = line.split(separator, -1);
+      if (values.length != columns.size()) {
+        throw new IOException("Invalid manifest line: " + line);
+      }
+      subscribers.add(new Subscriber(new URL(value(values, columns, "bank.url")),
+                                     value(values, columns, "bank.name"),
+                                     value(values, columns, "hostId"),
+                                     value(values, columns, "partnerId"),
+                                     value(values, columns, "userId"),
+                                     value(values, columns, "user.name"),
+                                     value(values, columns, "user.email"),
+                                     value(values, columns, "user.country"),
+                                     value(values, columns, "user.org")));
+    }
+    return subscribers;
+  }
+
+  private static String value(String[] values, List<String> columns, String column) {
+    return values[columns.indexOf(column)].trim();
+  }
+
+  /**
+   * Writes the report of an onboarding, one line per subscriber.
+   * @param results the onboarding results
+   * @param report the report file
+   * @throws IOException the report cannot be written
+   */
+  public static void writeReport(List<Result> results, File report) throws IOException {
+    try (PrintWriter out = new PrintWriter(report, StandardCharsets.UTF_8)) {
+      out.println("hostId;partnerId;userId;status;step;elapsed;error");
+      for (Result result : results) {
+        out.println(String.join(";",
+                                result.subscriber().hostId(),
+                                result.subscriber().partnerId(),
+                                result.subscriber().userId(),
+                                result.isSuccess() ? "OK" : "FAILED",
+                                result.step().name(),
+                                String.valueOf(result.elapsed()),
+                                result.error() == null ? "" : result.error().replace(';', ',').replace('\n', ' ')));
+      }
+    }
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final EbicsClient			client;
+  private final Product				product;
+  private final PasswordCallback		passwordCallback;
+  private final int				threads;
+  private final int				bankConcurrency;
+
+  private static final List<String>		COLUMNS = List.of("hostId",
+                                                                  "partnerId",
+                                                                  "userId",
+                                                                  "bank.url",
+                                                                  "bank.name",
+                                                                  "user.name",
+                                                                  "user.email",
+                                                                  "user.country",
+                                                                  "user.org");
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.kopi.ebics.exception.CircuitOpenException;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops sending requests to a bank endpoint that keeps failing, so that
+ * the callers fail at once instead of waiting for the network timeouts.
+ *
+ * <p>Each bank URL has its own circuit. A closed circuit lets the requests
+ * through and records their outcome over a window of the last requests:
+ * communication errors, HTTP 408, 429 and 5xx answers and answers slower
+ * than the slow call threshold count as failures. The other 4xx answers
+ * tell that the bank is up, and count as successes. When the failure rate of the window
+ * reaches the threshold, the circuit opens and the requests are refused
+ * with a {@link CircuitOpenException}. Once the open duration has elapsed,
+ * the circuit is half-open: the next request first probes the bank with a
+ * light request, such as an HEV request, while the other requests are
+ * still refused. The circuit closes if the probe succeeds and opens again
+ * otherwise.
+ *
+ * <p>The circuits are tuned with the following optional configuration properties:
+ * <ul>
+ *   <li><code>circuit.window</code> number of requests of the window (default 20)
+ *   <li><code>circuit.min.calls</code> requests recorded before the circuit may open (default 10)
+ *   <li><code>circuit.failure.rate</code> failure rate opening the circuit in percent (default 50)
+ *   <li><code>circuit.slow.call</code> seconds after which an answer counts as a failure (default 60)
+ *   <li><code>circuit.open.duration</code> seconds before an open circuit is probed (default 30)
+ *   <li><code>circuit.probe.timeout</code> seconds the HEV probe waits for the bank (default 10)
+ * </ul>
+ *
+ */
+public class CircuitBreaker {
+
+  /**
+   * The state of a circuit.
+   */
+  public enum State {
+    /** The requests are sent. */
+    CLOSED,
+    /** The requests are refused. */
+    OPEN,
+    /** The bank is being probed, the other requests are refused. */
+    HALF_OPEN
+  }
+
+  /**
+   * A light request telling whether a bank answers again.
+   */
+  public interface Probe {
+
+    /**
+     * Sends the probe request.
+     * @return <code>true</code> if the bank answered properly
+     * @throws IOException communication error
+     */
+    boolean run() throws IOException;
+  }
+
+  /**
+   * Constructs a new <code>CircuitBreaker</code>.
+   * @param window the number of requests of the window
+   * @param minimumCalls the number of requests recorded before a circuit may open
+   * @param failureRate the failure rate opening a circuit, from 0 to 1
+   * @param slowCall the milliseconds after which an answer counts as a failure, 0 for none
+   * @param openDuration the milliseconds before an open circuit is probed
+   */
+  public CircuitBreaker(int window, int minimumCalls, double failureRate, long slowCall, long openDuration) {
+    this.window = Math.max(1, window);
+    this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.window));
+    this.failureRate = failureRate;
+    this.slowCall = slowCall > 0 ? TimeUnit.MILLISECONDS.toNanos(slowCall) : Long.MAX_VALUE;
+    this.openDuration = TimeUnit.MILLISECONDS.toNanos(openDuration);
+    this.circuits = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Constructs a new <code>CircuitBreaker</code> from the properties
+   * of a configuration.
+   * @param conf the client configuration
+   * @return the circuit breaker
+   */
+  public static CircuitBreaker create(Configuration conf) {
+    return new CircuitBreaker(Configuration.getInt(conf, "circuit.window", WINDOW),
+                              Configuration.getInt(conf, "circuit.min.calls", MINIMUM_CALLS),
+                              Configuration.getInt(conf, "circuit.failure.rate", FAILURE_PERCENT) / 100.0,
+                              TimeUnit.SECONDS.toMillis(Configuration.getInt(conf, "circuit.slow.call", SLOW_CALL)),
+                              TimeUnit.SECONDS.toMillis(Configuration.getInt(conf, "circuit.open.duration", OPEN_DURATION)));
+  }
+
+  /**
+   * Returns the process wide circuit breaker used by sessions that were
+   * not given a circuit breaker explicitly.
+   * @return the default circuit breaker
+   */
+  public static CircuitBreaker getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Lets a request to a bank through, probing the bank first when its
+   * circuit is half-open.
+   * @param bank the bank the request is sent to
+   * @param probe the probe of the bank
+   * @throws CircuitOpenException the circuit of the bank is open
+   */
+  public void acquire(EbicsBank bank, Probe probe) throws CircuitOpenException {
+    getCircuit(bank).acquire(probe);
+  }
+
+  /**
+   * Records a request answered by a bank.
+   * @param bank the bank
+   * @param elapsed the time the bank took to answer in nanoseconds,
+   *        from the end of the request
+   */
+  public void success(EbicsBank bank, long elapsed) {
+    getCircuit(bank).record(elapsed >= slowCall);
+  }
+
+  /**
+   * Records a request that failed, was answered with a server error or
+   * was refused because the bank is overloaded.
+   * @param bank the bank
+   */
+  public void failure(EbicsBank bank) {
+    getCircuit(bank).record(true);
+  }
+
+  /**
+   * Returns the state of the circuit of a bank.
+   * @param bank the bank
+   * @return the state of its circuit
+   */
+  public State getState(EbicsBank bank) {
+    Circuit			circuit;
+
+    circuit = circuits.get(getKey(bank));
+    return circuit == null ? State.CLOSED : circuit.getState();
+  }
+
+  /**
+   * Returns the state of the circuits of the banks used so far.
+   * @return the state of the circuits by bank URL
+   */
+  public Map<String, State> getStates() {
+    Map<String, State>		states;
+
+    states = new TreeMap<>();
+    circuits.forEach((key, circuit) -> states.put(key, circuit.getState()));
+    return states;
+  }
+
+  private Circuit getCircuit(EbicsBank bank) {
+    return circuits.computeIfAbsent(getKey(bank), Circuit::new);
+  }
+
+  private static String getKey(EbicsBank bank) {
+    return String.valueOf(bank.getURL());
+  }
+
+  /**
+   * The circuit of a bank URL and the outcomes of its last requests.
+   */
+  private class Circuit {
+
+    Circuit(String key) {
+      this.key = key;
+      this.outcomes = new boolean[window];
+      this.state = State.CLOSED;
+    }
+
+    void acquire(Probe probe) throws CircuitOpenException {
+      boolean			healthy;
+
+      synchronized (this) {
+        if (state == State.CLOSED) {
+          return;
+        }
+        if (state == State.HALF_OPEN || System.nanoTime() - openUntil < 0) {
+          throw new CircuitOpenException("Circuit open for " + key);
+        }
+        state = State.HALF_OPEN;
+      }
+      healthy = false;
+      try {
+        healthy = probe.run();
+      } catch (IOException e) {
+        log.debug("Probe of {} failed", key, e);
+      } finally {
+        synchronized (this) {
+          if (healthy) {
+            close();
+          } else {
+            open();
+          }
+        }
+      }
+      if (!healthy) {
+        throw new CircuitOpenException("Circuit open for " + key);
+      }
+    }
+
+    synchronized void record(boolean failed) {
+      if (state != State.CLOSED) {
+        return;
+      }
+      if (count == outcomes.length) {
+        if (outcomes[index]) {
+          failures--;
+        }
+      } else {
+        count++;
+      }
+      outcomes[index] = failed;
+      if (failed) {
+        failures++;
+      }
+      index = (index + 1) % outcomes.length;
+      if (count >= minimumCalls && failures >= failureRate * count) {
+        log.warn("Circuit of {} opened after {} failures in {} requests", key, failures, count);
+        open();
+      }
+    }
+
+    synchronized State getState() {
+      return state;
+    }
+
+    private void open() {
+      state = State.OPEN;
+      openUntil = System.nanoTime() + openDuration;
+      reset();
+    }
+
+    private void close() {
+      log.info("Circuit of {} closed", key);
+      state = State.CLOSED;
+      reset();
+    }
+
+    private void reset() {
+      count = 0;
+      index = 0;
+      failures = 0;
+    }
+
+    private final String			key;
+    private final boolean[]			outcomes;
+    private State				state;
+    private long				openUntil;
+    private int					count;
+    private int					index;
+    private int					failures;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				window;
+  private final int				minimumCalls;
+  private final double				failureRate;
+  private final long				slowCall;
+  private final long				openDuration;
+  private final Map<String, Circuit>		circuits;
+
+  private static final int			WINDOW = 20;
+  private static final int			MINIMUM_CALLS = 10;
+  private static final int			FAILURE_PERCENT = 50;
+  private static final int			SLOW_CALL = 60;
+  private static final int			OPEN_DURATION = 30;
+  private static final CircuitBreaker		DEFAULT = new CircuitBreaker(WINDOW, MINIMUM_CALLS,
+                                                                             FAILURE_PERCENT / 100.0,
+                                                                             TimeUnit.SECONDS.toMillis(SLOW_CALL),
+                                                                             TimeUnit.SECONDS.toMillis(OPEN_DURATION));
+  private static final Logger			log = LoggerFactory.getLogger(CircuitBreaker.class);
+}
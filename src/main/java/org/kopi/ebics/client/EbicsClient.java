@@ -27,11 +27,12 @@ import java.net.URL;
 import java.security.GeneralSecurityException;
 import java.security.Security;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -42,6 +43,8 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.help.HelpFormatter;
 import org.apache.xml.security.Init;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.kopi.ebics.certificate.CertificateManager;
+import org.kopi.ebics.certificate.KeyPairPool;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.exception.NoDownloadDataAvailableException;
 import org.kopi.ebics.interfaces.Configuration;
@@ -51,6 +54,7 @@ import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.interfaces.InitLetter;
 import org.kopi.ebics.interfaces.LetterManager;
 import org.kopi.ebics.interfaces.PasswordCallback;
+import org.kopi.ebics.io.FileContentFactory;
 import org.kopi.ebics.io.IOUtils;
 import org.kopi.ebics.messages.Messages;
 import org.kopi.ebics.session.DefaultConfiguration;
@@ -66,6 +70,10 @@ import org.slf4j.LoggerFactory;
  * bank server like sending the INI, HIA and HPB requests for keys retrieval and
  * also performs the files transfer including uploads and downloads.
  *
+ * <p>The client may be shared by threads working for different users: the
+ * users, partners and banks are kept in concurrent maps, and each operation
+ * runs in its own session that traces into the directory of its user.
+ *
  */
 public class EbicsClient {
     private static File getRootDir() {
@@ -75,11 +83,17 @@ public class EbicsClient {
     private static final Logger log = LoggerFactory.getLogger(EbicsClient.class);
 
     private final Configuration configuration;
-    private final Map<String, User> users = new HashMap<>();
-    private final Map<String, Partner> partners = new HashMap<>();
-    private final Map<String, Bank> banks = new HashMap<>();
+    /** The users, partners and banks to save on {@link #quit()}, by host, partner and user ID. */
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, Partner> partners = new ConcurrentHashMap<>();
+    private final Map<String, Bank> banks = new ConcurrentHashMap<>();
     private final ConfigProperties properties;
     private final Messages messages;
+    private final HttpClientPool httpClientPool = new HttpClientPool();
+    private final TransactionGovernor transactionGovernor;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final KeyPairPool keyPairPool;
     private Product defaultProduct;
     private User defaultUser;
 
@@ -102,11 +116,20 @@ public class EbicsClient {
         this.messages = new Messages(Constants.APPLICATION_BUNDLE_NAME, configuration.getLocale());
         log.info(messages.getString("init.configuration"));
         configuration.init();
+        this.transactionGovernor = TransactionGovernor.create(configuration);
+        this.retryPolicy = RetryPolicy.create(configuration);
+        this.circuitBreaker = CircuitBreaker.create(configuration);
+        this.keyPairPool = CertificateManager.createKeyPairPool(configuration);
     }
 
     private EbicsSession createSession(User user, Product product) {
         EbicsSession session = new EbicsSession(user, configuration);
         session.setProduct(product);
+        session.setHttpClientPool(httpClientPool);
+        session.setTransactionGovernor(transactionGovernor);
+        session.setRetryPolicy(retryPolicy);
+        session.setCircuitBreaker(circuitBreaker);
+        session.setTraceDirectory(configuration.getTransferTraceDirectory(user));
         return session;
     }
 
@@ -121,6 +144,9 @@ public class EbicsClient {
             messages.getString("user.create.directories", user.getUserId()));
         IOUtils.createDirectories(configuration.getUserDirectory(user));
         IOUtils.createDirectories(configuration.getTransferTraceDirectory(user));
+        if (configuration.getTransferJournalDirectory(user) != null) {
+            IOUtils.createDirectories(configuration.getTransferJournalDirectory(user));
+        }
         IOUtils.createDirectories(configuration.getKeystoreDirectory(user));
         IOUtils.createDirectories(configuration.getLettersDirectory(user));
     }
@@ -155,7 +181,7 @@ public class EbicsClient {
      */
     private Partner createPartner(EbicsBank bank, String partnerId) {
         Partner partner = new Partner(bank, partnerId);
-        partners.put(partnerId, partner);
+        partners.put(bank.getHostId() + '/' + partnerId, partner);
         return partner;
     }
 
@@ -200,7 +226,7 @@ public class EbicsClient {
         Partner partner = createPartner(bank, partnerId);
         try {
             User user = new User(partner, userId, name, email, country, organization,
-                passwordCallback);
+                passwordCallback, keyPairPool);
             createUserDirectories(user);
             if (saveCertificates) {
                 user.saveUserCertificates(configuration.getKeystoreDirectory(user));
@@ -209,8 +235,8 @@ public class EbicsClient {
             configuration.getSerializationManager().serialize(partner);
             configuration.getSerializationManager().serialize(user);
             createLetters(user, useCertificates);
-            users.put(userId, user);
-            partners.put(partner.getPartnerId(), partner);
+            users.put(bank.getHostId() + '/' + partner.getPartnerId() + '/' + userId, user);
+            partners.put(bank.getHostId() + '/' + partner.getPartnerId(), partner);
             banks.put(bank.getHostId(), bank);
 
             log.info(messages.getString("user.create.success", userId));
@@ -259,8 +285,8 @@ public class EbicsClient {
                 "user-" + userId)) {
                 user = new User(partner, input, passwordCallback);
             }
-            users.put(userId, user);
-            partners.put(partner.getPartnerId(), partner);
+            users.put(bank.getHostId() + '/' + partner.getPartnerId() + '/' + userId, user);
+            partners.put(bank.getHostId() + '/' + partner.getPartnerId(), partner);
             banks.put(bank.getHostId(), bank);
             log.info(messages.getString("user.load.success", userId));
             return user;
@@ -285,8 +311,6 @@ public class EbicsClient {
 //        }
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
-        configuration.getTraceManager().setTraceDirectory(
-            configuration.getTransferTraceDirectory(user));
         try {
             keyManager.sendINI(null);
             user.setInitialized(true);
@@ -315,8 +339,6 @@ public class EbicsClient {
 //        }
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
-        configuration.getTraceManager().setTraceDirectory(
-            configuration.getTransferTraceDirectory(user));
         try {
             keyManager.sendHIA(null);
             user.setInitializedHIA(true);
@@ -337,8 +359,6 @@ public class EbicsClient {
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
 
-        configuration.getTraceManager().setTraceDirectory(
-            configuration.getTransferTraceDirectory(user));
 
         try {
             keyManager.sendHPB();
@@ -366,8 +386,6 @@ public class EbicsClient {
         EbicsSession session = createSession(user, product);
         KeyManagement keyManager = new KeyManagement(session);
 
-        configuration.getTraceManager().setTraceDirectory(
-            configuration.getTransferTraceDirectory(user));
 
         try {
             keyManager.lockAccess();
@@ -387,12 +405,10 @@ public class EbicsClient {
         EbicsSession session = createSession(user, product);
 
         FileTransfer transferManager = new FileTransfer(session);
-
-        configuration.getTraceManager().setTraceDirectory(
-            configuration.getTransferTraceDirectory(user));
+        transferManager.setWorkingDirectory(configuration.getTransferJournalDirectory(user));
 
         try {
-            transferManager.sendFile(IOUtils.getFileContent(file), orderType, params);
+            transferManager.sendFile(new FileContentFactory(file), orderType, params);
         } catch (IOException | EbicsException e) {
             log
                 .error(messages.getString("upload.file.error", file.getAbsolutePath()));
@@ -418,16 +434,7 @@ public class EbicsClient {
 
     public void fetchFile(File file, User user, Product product, EbicsOrderType orderType,
         boolean isTest) throws IOException, EbicsException {
-        FileTransfer transferManager;
-        EbicsSession session = createSession(user, product);
-        session.addSessionParam("FORMAT", "pain.xxx.cfonb160.dct");
-        if (isTest) {
-            session.addSessionParam("TEST", "true");
-        }
-        transferManager = new FileTransfer(session);
-
-        configuration.getTraceManager().setTraceDirectory(
-            configuration.getTransferTraceDirectory(user));
+        FileTransfer transferManager = createFetchTransfer(user, product, isTest);
 
         try {
             transferManager.fetchFile(orderType, file);
@@ -440,13 +447,79 @@ public class EbicsClient {
         }
     }
 
+    /**
+     * Fetches a file on an executor, so that the files of many users can
+     * be fetched concurrently.
+     *
+     * @param file the output file
+     * @param user the user
+     * @param product the application product
+     * @param orderType the order type
+     * @param isTest is it a test download?
+     * @param executor the executor running the transaction
+     * @return the future result of the download
+     */
+    public CompletableFuture<TransferResult> fetchFileAsync(File file, User user, Product product,
+        EbicsOrderType orderType, boolean isTest, EbicsExecutor executor) {
+        return createFetchTransfer(user, product, isTest).fetchFileAsync(orderType, file, executor)
+            .whenComplete((result, e) -> {
+                if (e != null && !(e instanceof NoDownloadDataAvailableException)) {
+                    log.error("{} {}", messages.getString("download.file.error"), e.getMessage(), e);
+                }
+            });
+    }
+
+    private FileTransfer createFetchTransfer(User user, Product product, boolean isTest) {
+        EbicsSession session = createSession(user, product);
+        session.addSessionParam("FORMAT", "pain.xxx.cfonb160.dct");
+        if (isTest) {
+            session.addSessionParam("TEST", "true");
+        }
+        FileTransfer transferManager = new FileTransfer(session);
+        transferManager.setWorkingDirectory(configuration.getTransferJournalDirectory(user));
+        return transferManager;
+    }
+
+    /**
+     * Resumes the transfers of a user that were interrupted, for instance
+     * by a restart of the client.
+     *
+     * @param user the user
+     * @param product the application product
+     * @throws IOException communication error
+     * @throws EbicsException server generated error
+     */
+    public void resumeTransfers(User user, Product product) throws IOException, EbicsException {
+        EbicsSession session = createSession(user, product);
+        FileTransfer transferManager = new FileTransfer(session);
+        transferManager.setWorkingDirectory(configuration.getTransferJournalDirectory(user));
+
+        for (TransferJournal journal : transferManager.getPendingTransfers()) {
+            String direction = journal.isUpload() ? "upload" : "download";
+            log.info(messages.getString(direction + ".resume", journal.getOrderType().getCode(),
+                journal.getState().getSegmentNumber(), journal.getState().getNumSegments()));
+            try {
+                if (journal.isUpload()) {
+                    transferManager.resumeSend(journal);
+                } else {
+                    transferManager.resumeFetch(journal);
+                }
+            } catch (IOException | EbicsException e) {
+                log.error("{} {}", messages.getString(direction + ".resume.error",
+                    journal.getOrderType().getCode()), e.getMessage(), e);
+                throw e;
+            }
+        }
+    }
+
     public void fetchFile(File file, EbicsOrderType orderType, Date start, Date end) throws IOException,
         EbicsException {
         fetchFile(file, defaultUser, defaultProduct, orderType, false);
     }
 
     /**
-     * Performs buffers save before quitting the client application.
+     * Performs buffers save before quitting the client application
+     * and closes the pooled bank connections.
      */
     public void quit() {
         try {
@@ -478,6 +551,11 @@ public class EbicsClient {
         }
 
         clearTraces();
+        configuration.getTraceManager().close();
+        httpClientPool.close();
+        if (keyPairPool != null) {
+            keyPairPool.close();
+        }
     }
 
     public void clearTraces() {
@@ -570,6 +648,19 @@ public class EbicsClient {
         defaultUser = loadUser(hostId, partnerId, userId, createPasswordCallback());
     }
 
+    private void onboard(CommandLine cmd) throws Exception {
+        int bankConcurrency = Integer.parseInt(cmd.getOptionValue("bank-concurrency", "4"));
+        BulkOnboarding onboarding = new BulkOnboarding(this, defaultProduct, createPasswordCallback(),
+            Math.max(Runtime.getRuntime().availableProcessors(), bankConcurrency), bankConcurrency);
+        List<BulkOnboarding.Result> results = onboarding.run(
+            BulkOnboarding.readManifest(new File(cmd.getOptionValue("onboard"))));
+        long failed = results.stream().filter(result -> !result.isSuccess()).count();
+        if (cmd.hasOption("report")) {
+            BulkOnboarding.writeReport(results, new File(cmd.getOptionValue("report")));
+        }
+        log.info("Onboarded {} users, {} failed", results.size() - failed, failed);
+    }
+
     private PasswordCallback createPasswordCallback() {
         final String password = properties.get("password");
         return new PasswordCallback() {
@@ -589,6 +680,16 @@ public class EbicsClient {
         return defaultUser;
     }
 
+    /**
+     * Returns the circuit breaker of the sessions of this client, whose
+     * state by bank may be monitored.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
     private static void addOption(Options options, EbicsOrderType type, String description) {
         options.addOption(null, type.getCode().toLowerCase(), false, description);
     }
@@ -622,10 +723,15 @@ public class EbicsClient {
         addOption(options, OrderType.CCT, "Send CCT file (any format)");
 
         options.addOption(null, "skip_order", true, "Skip a number of order ids");
+        options.addOption(null, "resume", false, "Resume interrupted transfers");
 
         options.addOption("o", "output", true, "output file");
         options.addOption("i", "input", true, "input file");
 
+        options.addOption(null, "onboard", true, "Create and initialize the EBICS users of a manifest file");
+        options.addOption(null, "report", true, "onboarding report file");
+        options.addOption(null, "bank-concurrency", true, "Onboarded users sending requests to a bank at a time");
+
 
         CommandLine cmd = parseArguments(options, args);
 
@@ -633,6 +739,15 @@ public class EbicsClient {
         File ebicsClientProperties = new File(defaultRootDir, "ebics.txt");
         EbicsClient client = createEbicsClient(defaultRootDir, ebicsClientProperties);
 
+        if (cmd.hasOption("onboard")) {
+            try {
+                client.onboard(cmd);
+            } finally {
+                client.quit();
+            }
+            return;
+        }
+
         if (cmd.hasOption("create")) {
             client.createDefaultUser();
         } else {
@@ -653,6 +768,10 @@ public class EbicsClient {
             client.sendHPBRequest(client.defaultUser, client.defaultProduct);
         }
 
+        if (cmd.hasOption("resume")) {
+            client.resumeTransfers(client.defaultUser, client.defaultProduct);
+        }
+
         String outputFileValue = cmd.getOptionValue("o");
         String inputFileValue = cmd.getOptionValue("i");
 
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.kopi.ebics.interfaces.EbicsBank;
+
+/**
+ * Runs whole EBICS transactions, from the initialization to the receipt,
+ * on a shared pool of threads, with a limit on the transactions running
+ * at a time overall and for each bank host.
+ *
+ * <p>The transfers block on the network, so the pool is sized for
+ * concurrency rather than for the processors. A transaction waiting for a
+ * bank that already runs its share of transactions is queued for that bank
+ * and does not hold a thread, so that the transactions of the other banks
+ * keep the pool busy.
+ *
+ * <p>The executor uses platform threads, since the client runs on Java 17.
+ * On a runtime with virtual threads, the pool could be replaced by one
+ * virtual thread per transaction behind the same limits.
+ *
+ */
+public class EbicsExecutor implements AutoCloseable {
+
+  /**
+   * Constructs a new <code>EbicsExecutor</code>.
+   * @param concurrency the number of transactions running at a time
+   * @param bankConcurrency the number of transactions running at a time for a bank host
+   */
+  public EbicsExecutor(int concurrency, int bankConcurrency) {
+    this.bankConcurrency = Math.max(1, bankConcurrency);
+    this.banks = new ConcurrentHashMap<>();
+    this.lock = new Object();
+    this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), runnable -> {
+      Thread thread = new Thread(runnable, "ebics-transfer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Submits a transaction with a given bank. A transaction whose future
+   * is cancelled before it starts is not run.
+   * @param bank the bank of the transaction
+   * @param transaction the transaction
+   * @return the future result of the transaction
+   * @throws RejectedExecutionException the executor is closed
+   */
+  public <T> CompletableFuture<T> submit(EbicsBank bank, Callable<T> transaction) {
+    Task<T>			task;
+
+    synchronized (lock) {
+      if (closed) {
+        throw new RejectedExecutionException("Executor closed");
+      }
+      pending++;
+    }
+    task = new Task<>(banks.computeIfAbsent(bank.getHostId(), hostId -> new Lane()), transaction);
+    try {
+      task.lane.submit(task);
+    } catch (RejectedExecutionException e) {
+      task.reject(e);
+    }
+    return task.future;
+  }
+
+  /**
+   * Returns the number of transactions submitted and not completed yet.
+   * @return the number of pending transactions
+   */
+  public int getPendingTransactions() {
+    synchronized (lock) {
+      return pending;
+    }
+  }
+
+  private void done() {
+    synchronized (lock) {
+      pending--;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Stops accepting transactions, waits for the submitted ones and
+   * stops the threads. When the calling thread is interrupted while
+   * waiting, the running transactions are interrupted and the futures
+   * of the transactions that did not start yet are cancelled.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      while (pending > 0) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    for (Runnable task : executor.shutdownNow()) {
+      ((Task<?>) task).cancel();
+    }
+  }
+
+  /**
+   * A submitted transaction and its future.
+   */
+  private class Task<T> implements Runnable {
+
+    Task(Lane lane, Callable<T> transaction) {
+      this.lane = lane;
+      this.transaction = transaction;
+      this.future = new CompletableFuture<>();
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!future.isDone()) {
+          future.complete(transaction.call());
+        }
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      } finally {
+        lane.done();
+        done();
+      }
+    }
+
+    /**
+     * Fails a transaction the pool refused to run.
+     */
+    void reject(RejectedExecutionException e) {
+      future.completeExceptionally(e);
+      done();
+    }
+
+    /**
+     * Cancels a transaction the pool dropped before it started, and hands
+     * its place to the next transaction of the lane.
+     */
+    void cancel() {
+      future.cancel(false);
+      lane.done();
+      done();
+    }
+
+    private final Lane				lane;
+    private final Callable<T>			transaction;
+    private final CompletableFuture<T>		future;
+  }
+
+  /**
+   * The transactions of a bank host: at most <code>bankConcurrency</code>
+   * of them are handed to the pool, the others wait in order.
+   */
+  private class Lane {
+
+    Lane() {
+      this.waiting = new ArrayDeque<>();
+    }
+
+    synchronized void submit(Task<?> transaction) {
+      if (running < bankConcurrency) {
+        running++;
+        try {
+          executor.execute(transaction);
+        } catch (RejectedExecutionException e) {
+          running--;
+          throw e;
+        }
+      } else {
+        waiting.add(transaction);
+      }
+    }
+
+    synchronized void done() {
+      Task<?>			next;
+
+      while ((next = waiting.poll()) != null) {
+        try {
+          executor.execute(next);
+          return;
+        } catch (RejectedExecutionException e) {
+          next.reject(e);
+        }
+      }
+      running--;
+    }
+
+    private final Queue<Task<?>>		waiting;
+    private int					running;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				bankConcurrency;
+  private final Map<String, Lane>		banks;
+  private final ExecutorService			executor;
+  private final Object				lock;
+  private int					pending;
+  private boolean				closed;
+}
@@ -21,11 +21,16 @@ package org.kopi.ebics.client;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.ReturnCode;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.interfaces.TraceManager;
 import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.io.IOUtils;
 import org.kopi.ebics.io.Joiner;
 import org.kopi.ebics.messages.Messages;
 import org.kopi.ebics.session.EbicsSession;
@@ -72,6 +77,13 @@ import org.slf4j.LoggerFactory;
  * asymmetrical encryption takes place with the public encryption key of the non-technical
  * subscriber, i.e. the submitter of the order.
  *
+ * <p>Thread safety: a <code>FileTransfer</code> performs one transfer at a
+ * time and must not be shared between threads. Transfers of different
+ * users, each with its own session and <code>FileTransfer</code>, may run
+ * concurrently on the same configuration and HTTP client pool. Two
+ * transfers of the same user may also run concurrently as long as they do
+ * not share a working directory.
+ *
  *
  */
 public class FileTransfer {
@@ -93,13 +105,79 @@ public class FileTransfer {
    */
   public void sendFile(byte[] content, EbicsOrderType orderType, EbicsUploadParams params)
     throws IOException, EbicsException
+  {
+    traced(() -> sendFile(new UploadInitializationRequestElement(session, orderType, params, content),
+                          orderType,
+                          params));
+  }
+
+  /**
+   * Initiates a streamed file transfer to the bank.
+   * The content is compressed, encrypted and split while it is read,
+   * so the memory usage does not depend on the size of the content.
+   * @param content The content you want to send.
+   * @param orderType As which order type
+   * @param params the upload parameters
+   * @throws IOException
+   * @throws EbicsException
+   */
+  public void sendFile(ContentFactory content, EbicsOrderType orderType, EbicsUploadParams params)
+    throws IOException, EbicsException
+  {
+    traced(() -> {
+      try (var initializer = new UploadInitializationRequestElement(session, orderType, params,
+                                                                    content)) {
+        sendFile(initializer, orderType, params);
+      }
+    });
+  }
+
+  /**
+   * Runs a streamed file transfer to the bank on an executor.
+   * This transfer must not be used until the returned future completes.
+   * @param content The content you want to send.
+   * @param orderType As which order type
+   * @param params the upload parameters
+   * @param executor the executor running the transaction
+   * @return the future result of the transfer, completed exceptionally
+   *         with the <code>IOException</code> or <code>EbicsException</code>
+   *         of a failed transfer
+   */
+  public CompletableFuture<TransferResult> sendFileAsync(ContentFactory content,
+                                                         EbicsOrderType orderType,
+                                                         EbicsUploadParams params,
+                                                         EbicsExecutor executor)
+  {
+    return executor.submit(session.getUser().getPartner().getBank(), () -> {
+      long start = System.currentTimeMillis();
+      sendFile(content, orderType, params);
+      return new TransferResult(session.getUser().getUserId(), orderType, null,
+                                System.currentTimeMillis() - start);
+    });
+  }
+
+  /**
+   * Performs the upload transaction of a given initialization request.
+   * With a working directory the encrypted segments are recorded in a
+   * {@link TransferJournal} once the transaction is initialized, and an
+   * interrupted upload can be continued with {@link #resumeSend(TransferJournal)}.
+   * @param initializer the upload initialization request
+   * @param orderType the order type
+   * @param params the upload parameters
+   * @throws IOException
+   * @throws EbicsException
+   */
+  private void sendFile(UploadInitializationRequestElement initializer,
+                        EbicsOrderType orderType,
+                        EbicsUploadParams params)
+    throws IOException, EbicsException
   {
     HttpRequestSender sender = new HttpRequestSender(session);
-    var initializer = new UploadInitializationRequestElement(session, orderType, params, content);
+    initializing = true;
     initializer.build();
     initializer.validate();
-    session.getConfiguration().getTraceManager().trace(initializer.getUserSignature());
-    session.getConfiguration().getTraceManager().trace(initializer);
+    session.getTraceManager().trace(initializer.getUserSignature());
+    session.getTraceManager().trace(initializer);
     int httpCode = sender.send(new ByteArrayContentFactory(initializer.prettyPrint()));
 
     Utils.checkHttpCode(httpCode);
@@ -107,64 +185,197 @@ public class FileTransfer {
 	                                         orderType,
 	                                         DefaultEbicsRootElement.generateName(orderType));
     response.build();
-    session.getConfiguration().getTraceManager().trace(response);
+    session.getTraceManager().trace(response);
+    initializing = false;
 
     TransferState state = new TransferState(initializer.getSegmentNumber(), response.getTransactionId());
+    if (workingDirectory != null) {
+      var journal = TransferJournal.createUpload(workingDirectory, orderType, state, params.orderId());
+      initializer.moveContent(journal.getContentFile());
+      journal.syncContent();
+      resumeSend(journal);
+      return;
+    }
 
-        while (state.hasNext()) {
-            int segmentNumber = state.next();
-            sendFile(initializer.getContent(segmentNumber), segmentNumber, state.isLastSegment(),
-                state.getTransactionId(), orderType);
+    sendSegments(state, orderType, initializer::getContent, null);
+  }
+
+  /**
+   * Continues a journaled upload from the segment following the last one
+   * acknowledged by the bank, then removes the journal.
+   *
+   * <p>The journaled segments are sent as they were encrypted for the
+   * initialization, so the order is neither signed nor given a new order ID.
+   * A segment the bank asks for again with <code>EBICS_TX_RECOVERY_SYNC</code>
+   * is sent again as the {@link RetryPolicy} of the session allows. Any
+   * other failure leaves the journal in place for a later resume.
+   *
+   * @param journal the upload journal
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  public void resumeSend(TransferJournal journal)
+    throws IOException, EbicsException
+  {
+    traced(() -> {
+      sendSegments(journal.getState(), journal.getOrderType(), journal::getSegment, journal);
+      journal.delete();
+    });
+  }
+
+  /**
+   * Sends the remaining segments of an upload. The transfer requests of
+   * the next segments are prepared by a {@link SegmentPipeline} while the
+   * current one is exchanged with the bank.
+   * @param state the transfer state
+   * @param orderType the order type
+   * @param segments the encrypted segments
+   * @param journal the journal acknowledging the sent segments, may be <code>null</code>
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void sendSegments(TransferState state,
+                            EbicsOrderType orderType,
+                            SegmentSource segments,
+                            TransferJournal journal)
+    throws IOException, EbicsException
+  {
+    SegmentPipeline.Stage<PreparedSegment> preparer = (segmentNumber, lastSegment) ->
+      prepareSegment(segments.getSegment(segmentNumber),
+                     segmentNumber,
+                     lastSegment,
+                     state.getTransactionId(),
+                     orderType);
+
+    try (var pipeline = new SegmentPipeline<>(preparer,
+                                           state.getSegmentNumber() + 1,
+                                           state.getNumSegments(),
+                                           SegmentPipeline.getDepth(session.getConfiguration(),
+                                                                    "upload.pipeline.depth",
+                                                                    UPLOAD_PIPELINE_DEPTH))) {
+      while (state.hasNext()) {
+        int segmentNumber = state.next();
+        try {
+          sendSegment(pipeline.next(), orderType);
+          if (journal != null) {
+            journal.acknowledge(segmentNumber);
+          }
+        } catch (IOException | EbicsException | RuntimeException e) {
+          state.setSegmentNumber(segmentNumber - 1);
+          throw e;
         }
+      }
     }
+  }
 
   /**
-   * Sends a segment to the ebics bank server.
+   * Sends a prepared segment, sending it again when the bank asks for it
+   * with <code>EBICS_TX_RECOVERY_SYNC</code>. The segment is not sent again
+   * after any other failure, as the bank may already have received it.
+   * @param segment the prepared segment
+   * @param orderType the order type
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void sendSegment(PreparedSegment segment, EbicsOrderType orderType)
+    throws IOException, EbicsException
+  {
+    session.getRetryPolicy().call(session.getUser().getPartner().getBank(),
+                                  "Segment " + segment.segmentNumber(),
+                                  () -> {
+                                    exchangeSegment(segment, orderType);
+                                    return null;
+                                  },
+                                  RetryPolicy::isUploadRecoverable);
+  }
+
+  /**
+   * Builds, validates, signs and serializes the transfer request of a segment.
    * @param factory the content factory that contain the segment data.
    * @param segmentNumber the segment number
    * @param lastSegment is it the last segment?
    * @param transactionId the transaction id
    * @param orderType the order type
-   * @throws IOException
-   * @throws EbicsException
+   * @return the prepared segment
+   * @throws EbicsException the request cannot be built
    */
-  public void sendFile(ContentFactory factory,
-                       int segmentNumber,
-                       boolean lastSegment,
-                       byte[] transactionId,
-                       EbicsOrderType orderType)
-    throws IOException, EbicsException
+  private PreparedSegment prepareSegment(ContentFactory factory,
+                                         int segmentNumber,
+                                         boolean lastSegment,
+                                         byte[] transactionId,
+                                         EbicsOrderType orderType)
+    throws EbicsException
   {
     UploadTransferRequestElement		uploader;
-    HttpRequestSender			sender;
-    TransferResponseElement		response;
-    int					httpCode;
 
-    Messages messages = new Messages(Constants.APPLICATION_BUNDLE_NAME);
-    log.info(messages.getString("upload.segment", segmentNumber));
     uploader = new UploadTransferRequestElement(session,
 	                                   orderType,
 	                                   segmentNumber,
 	                                   lastSegment,
 	                                   transactionId,
 	                                   factory);
-    sender = new HttpRequestSender(session);
     uploader.build();
     uploader.validate();
-    session.getConfiguration().getTraceManager().trace(uploader);
-    httpCode = sender.send(new ByteArrayContentFactory(uploader.prettyPrint()));
+    return new PreparedSegment(segmentNumber, uploader, uploader.toContentFactory());
+  }
+
+  /**
+   * Exchanges a prepared segment with the ebics bank server.
+   * @param segment the prepared segment
+   * @param orderType the order type
+   * @throws IOException
+   * @throws EbicsException
+   */
+  private void exchangeSegment(PreparedSegment segment, EbicsOrderType orderType)
+    throws IOException, EbicsException
+  {
+    HttpRequestSender			sender;
+    TransferResponseElement		response;
+    int					httpCode;
+
+    Messages messages = new Messages(Constants.APPLICATION_BUNDLE_NAME);
+    log.info(messages.getString("upload.segment", segment.segmentNumber()));
+    sender = new HttpRequestSender(session);
+    session.getTraceManager().trace(segment.request());
+    httpCode = sender.send(segment.content());
     Utils.checkHttpCode(httpCode);
     response = new TransferResponseElement(sender.getResponseBody(),
 	                                   DefaultEbicsRootElement.generateName(orderType));
     response.build();
-    session.getConfiguration().getTraceManager().trace(response);
+    session.getTraceManager().trace(response);
+  }
+
+  /**
+   * Sends a segment to the ebics bank server.
+   * @param factory the content factory that contain the segment data.
+   * @param segmentNumber the segment number
+   * @param lastSegment is it the last segment?
+   * @param transactionId the transaction id
+   * @param orderType the order type
+   * @throws IOException
+   * @throws EbicsException
+   */
+  public void sendFile(ContentFactory factory,
+                       int segmentNumber,
+                       boolean lastSegment,
+                       byte[] transactionId,
+                       EbicsOrderType orderType)
+    throws IOException, EbicsException
+  {
+    exchangeSegment(prepareSegment(factory, segmentNumber, lastSegment, transactionId, orderType),
+                    orderType);
   }
 
   /**
    * Fetches a file of the given order type from the bank.
    * You may give an optional start and end date.
    * This type of transfer will run until everything is processed.
-   * No transaction recovery is possible.
+   * Without a working directory no transaction recovery is possible:
+   * segments are decrypted and written to the output file as they arrive
+   * and the file is removed if the transfer fails.
+   * With a working directory every segment is recorded in a
+   * {@link TransferJournal} and an interrupted download can be continued
+   * with {@link #resumeFetch(TransferJournal)}.
    * @param orderType type of file to fetch
    * @param outputFile where to put the data
    * @throws IOException communication error
@@ -173,13 +384,50 @@ public class FileTransfer {
   public void fetchFile(EbicsOrderType orderType,
                         File outputFile)
     throws IOException, EbicsException
+  {
+    traced(() -> download(orderType, outputFile));
+  }
+
+  /**
+   * Fetches a file of the given order type from the bank on an executor.
+   * This transfer must not be used until the returned future completes.
+   * @param orderType type of file to fetch
+   * @param outputFile where to put the data
+   * @param executor the executor running the transaction
+   * @return the future result of the transfer, completed exceptionally
+   *         with the <code>IOException</code> or <code>EbicsException</code>
+   *         of a failed transfer
+   * @see #fetchFile(EbicsOrderType, File)
+   */
+  public CompletableFuture<TransferResult> fetchFileAsync(EbicsOrderType orderType,
+                                                          File outputFile,
+                                                          EbicsExecutor executor)
+  {
+    return executor.submit(session.getUser().getPartner().getBank(), () -> {
+      long start = System.currentTimeMillis();
+      fetchFile(orderType, outputFile);
+      return new TransferResult(session.getUser().getUserId(), orderType, outputFile,
+                                System.currentTimeMillis() - start);
+    });
+  }
+
+  /**
+   * Performs a download transaction.
+   * @param orderType type of file to fetch
+   * @param outputFile where to put the data
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void download(EbicsOrderType orderType, File outputFile)
+    throws IOException, EbicsException
   {
     var sender = new HttpRequestSender(session);
+    initializing = true;
       var initializer = new DownloadInitializationRequestElement(session, orderType);
     initializer.build();
     initializer.validate();
 
-    session.getConfiguration().getTraceManager().trace(initializer);
+    session.getTraceManager().trace(initializer);
     var request = initializer.prettyPrint();
     var httpCode = sender.send(new ByteArrayContentFactory(request));
     Utils.checkHttpCode(httpCode);
@@ -188,36 +436,201 @@ public class FileTransfer {
 	                                          DefaultEbicsRootElement.generateName(orderType));
 
     response.build();
-    session.getConfiguration().getTraceManager().trace(response);
+    session.getTraceManager().trace(response);
     response.report();
+    initializing = false;
     var state = new TransferState(response.getSegmentsNumber(), response.getTransactionId());
     state.setSegmentNumber(response.getSegmentNumber());
-    var joiner = new Joiner(session.getUser());
-    joiner.append(response.getOrderData());
-    while(state.hasNext()) {
-      int segmentNumber = state.next();
-      fetchFile(orderType,
-	        segmentNumber,
-	        state.isLastSegment(),
-	        state.getTransactionId(),
-	        joiner);
+    if (workingDirectory != null) {
+      var journal = TransferJournal.create(workingDirectory, orderType, state,
+                                           response.getTransactionKey(), outputFile);
+      journal.checkpoint(response.getSegmentNumber(), response.getOrderData());
+      completeDownload(journal);
+      return;
+    }
+    try (var dest = new FileOutputStream(outputFile);
+         var joiner = new Joiner(session.getUser(), response.getTransactionKey(), dest)) {
+      joiner.append(response.getOrderData());
+      fetchSegments(state, orderType, (segmentNumber, orderData) -> joiner.append(orderData));
+    } catch (IOException | EbicsException | RuntimeException e) {
+      outputFile.delete();
+      throw e;
     }
+    sendReceipt(orderType, state.getTransactionId());
+  }
 
-    try (FileOutputStream dest = new FileOutputStream(outputFile)) {
-        joiner.writeTo(dest, response.getTransactionKey());
+  /**
+   * Continues a journaled download from the segment following the last
+   * recorded one. The journaled segments are decrypted into the output
+   * file, then every fetched segment is recorded and decrypted as it
+   * arrives. Once the last segment is written, the receipt is sent to the
+   * bank and the journal is removed.
+   *
+   * <p>A segment request failing with a transient error, such as
+   * <code>EBICS_TX_RECOVERY_SYNC</code> or an HTTP 503, is sent again as
+   * the {@link RetryPolicy} of the session allows. Any other failure leaves
+   * the journal in place for a later resume, with the segments recorded so far.
+   *
+   * @param journal the download journal
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  public void resumeFetch(TransferJournal journal)
+    throws IOException, EbicsException
+  {
+    traced(() -> completeDownload(journal));
+  }
+
+  /**
+   * Fetches the remaining segments of a journaled download and completes it.
+   * @param journal the download journal
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void completeDownload(TransferJournal journal)
+    throws IOException, EbicsException
+  {
+    TransferState		state;
+    EbicsOrderType		orderType;
+    File			outputFile;
+
+    state = journal.getState();
+    orderType = journal.getOrderType();
+    outputFile = journal.getOutputFile();
+    try (var dest = new FileOutputStream(outputFile);
+         var joiner = new Joiner(session.getUser(), journal.getTransactionKey(), dest)) {
+      for (int segmentNumber = 1; segmentNumber <= state.getSegmentNumber(); segmentNumber++) {
+        joiner.append(IOUtils.getFactoryContent(journal.getSegment(segmentNumber)));
+      }
+      fetchSegments(state, orderType, (segmentNumber, orderData) -> {
+        journal.checkpoint(segmentNumber, orderData);
+        joiner.append(orderData);
+      });
+    } catch (IOException | EbicsException | RuntimeException e) {
+      outputFile.delete();
+      throw e;
+    }
+    sendReceipt(orderType, state.getTransactionId());
+    journal.delete();
+  }
+
+  /**
+   * Runs a transfer as one trace transaction, so that the trace manager
+   * knows which elements belong together and whether the transfer failed.
+   * The transfer waits for its turn with the transaction governor of the
+   * session, and is run again when the bank refuses to initialize it
+   * because it has too many transactions in flight. The transfer is only
+   * run again when the refusal answers its initialization request: the
+   * journal of a transfer is created once the bank accepted the
+   * initialization, so a refused attempt leaves no journal behind.
+   * @param transaction the transfer
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void traced(Transaction<RuntimeException> transaction) throws IOException, EbicsException {
+    TransactionGovernor		governor;
+
+    governor = session.getTransactionGovernor();
+    for (int attempt = 1; ; attempt++) {
+      try (TransactionGovernor.Permit permit = governor.acquire(session.getUser())) {
+        initializing = false;
+        try {
+          traceTransaction(session.getTraceManager(), transaction);
+          return;
+        } catch (EbicsException e) {
+          if (attempt >= MAX_GOVERNED_ATTEMPTS
+              || !initializing
+              || !ReturnCode.EBICS_MAX_TRANSACTIONS_EXCEEDED.equals(e.getReturnCode())) {
+            throw e;
+          }
+          permit.exceeded();
+          log.warn("Bank refused the transaction, attempt {} of {}", attempt, MAX_GOVERNED_ATTEMPTS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs a transaction as one trace transaction of the given trace manager.
+   * The trace transaction is marked as failed when the transaction throws.
+   * @param traceManager the trace manager
+   * @param transaction the transaction
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   * @throws E any other error of the transaction
+   */
+  static <E extends Exception> void traceTransaction(TraceManager traceManager, Transaction<E> transaction)
+    throws IOException, EbicsException, E
+  {
+    traceManager.beginTransaction();
+    try {
+      transaction.run();
+    } catch (Exception e) {
+      traceManager.failTransaction();
+      throw e;
+    } finally {
+      traceManager.endTransaction();
+    }
+  }
+
+  /**
+   * Returns the journals of the interrupted transfers of the working directory.
+   * @return the pending journals, empty if no working directory is set.
+   */
+  public List<TransferJournal> getPendingTransfers() {
+    if (workingDirectory == null) {
+      return List.of();
+    }
+    return TransferJournal.list(workingDirectory);
+  }
+
+  /**
+   * Sets the working directory where transfers are journaled.
+   * Setting it makes the transfers recoverable.
+   * @param workingDirectory the working directory, <code>null</code> to disable journaling
+   */
+  public void setWorkingDirectory(File workingDirectory) {
+    this.workingDirectory = workingDirectory;
+    if (workingDirectory != null) {
+      IOUtils.createDirectories(workingDirectory);
     }
+  }
+
+  /**
+   * Sends the receipt of a download transaction, sending it again when it
+   * fails with a transient error.
+   * @param orderType the order type
+   * @param transactionId the transaction ID
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void sendReceipt(EbicsOrderType orderType, byte[] transactionId)
+    throws IOException, EbicsException
+  {
+    session.getRetryPolicy().call(session.getUser().getPartner().getBank(),
+                                  "Receipt",
+                                  () -> {
+                                    exchangeReceipt(orderType, transactionId);
+                                    return null;
+                                  });
+  }
+
+  private void exchangeReceipt(EbicsOrderType orderType, byte[] transactionId)
+    throws IOException, EbicsException
+  {
+    var sender = new HttpRequestSender(session);
     var receipt = new ReceiptRequestElement(session,
-	                                state.getTransactionId(),
+	                                transactionId,
 	                                DefaultEbicsRootElement.generateName(orderType));
     receipt.build();
     receipt.validate();
-    session.getConfiguration().getTraceManager().trace(receipt);
-    httpCode = sender.send(new ByteArrayContentFactory(receipt.prettyPrint()));
+    session.getTraceManager().trace(receipt);
+    var httpCode = sender.send(new ByteArrayContentFactory(receipt.prettyPrint()));
     Utils.checkHttpCode(httpCode);
     var receiptResponse = new ReceiptResponseElement(sender.getResponseBody(),
 	                                         DefaultEbicsRootElement.generateName(orderType));
     receiptResponse.build();
-    session.getConfiguration().getTraceManager().trace(receiptResponse);
+    session.getTraceManager().trace(receiptResponse);
     receiptResponse.report();
   }
 
@@ -237,10 +650,134 @@ public class FileTransfer {
                         byte[] transactionId,
                         Joiner joiner)
     throws IOException, EbicsException
+  {
+    joiner.append(fetchSegment(orderType, segmentNumber, lastSegment, transactionId));
+  }
+
+  /**
+   * Fetches the remaining segments of a download. The request of the next
+   * segment is sent by a {@link SegmentPipeline} as soon as the response of
+   * the previous one is received and its header return code is ok, while
+   * the calling thread reads the order data of the responses and hands it
+   * to the sink in segment order.
+   * No request is sent ahead of a response that is not ok, so the bank
+   * sees the segments in strict order when it asks for a recovery.
+   *
+   * <p>When a segment fails with a transient error, the requests sent
+   * ahead are drained, the segment is requested again on its own as the
+   * {@link RetryPolicy} of the session allows and the pipeline restarts
+   * after it. On failure the state is left at the
+   * last segment given to the sink.
+   *
+   * @param state the transfer state
+   * @param orderType the order type
+   * @param sink the consumer of the segments order data
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private void fetchSegments(TransferState state, EbicsOrderType orderType, SegmentSink sink)
+    throws IOException, EbicsException
+  {
+    SegmentPipeline.Stage<FetchedSegment> fetcher = (segmentNumber, lastSegment) ->
+      exchangeSegment(orderType, segmentNumber, lastSegment, state.getTransactionId());
+    int depth = SegmentPipeline.getDepth(session.getConfiguration(),
+                                         "download.pipeline.depth",
+                                         DOWNLOAD_PIPELINE_DEPTH);
+
+    while (state.hasNext()) {
+      try (var pipeline = new SegmentPipeline<>(fetcher,
+                                                segment -> segment.returnCode() != null && segment.returnCode().isOk(),
+                                                state.getSegmentNumber() + 1,
+                                                state.getNumSegments(),
+                                                depth)) {
+        while (state.hasNext()) {
+          int segmentNumber = state.next();
+          try {
+            byte[] orderData;
+            try {
+              orderData = receiveSegment(orderType, pipeline.next());
+            } catch (IOException | EbicsException e) {
+              if (!RetryPolicy.isTransient(e)) {
+                throw e;
+              }
+              pipeline.close();
+              sink.accept(segmentNumber,
+                          session.getRetryPolicy().recover(session.getUser().getPartner().getBank(),
+                                                           "Segment " + segmentNumber,
+                                                           () -> requestSegment(orderType,
+                                                                                segmentNumber,
+                                                                                state.isLastSegment(),
+                                                                                state.getTransactionId()),
+                                                           e));
+              break;
+            }
+            sink.accept(segmentNumber, orderData);
+          } catch (IOException | EbicsException | RuntimeException e) {
+            state.setSegmentNumber(segmentNumber - 1);
+            throw e;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetches a segment, requesting it again when it fails with a
+   * transient error.
+   * @param orderType the order type
+   * @param segmentNumber the segment number
+   * @param lastSegment is it the last segment?
+   * @param transactionId the transaction ID
+   * @return the encrypted order data of the segment
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private byte[] fetchSegment(EbicsOrderType orderType,
+                              int segmentNumber,
+                              boolean lastSegment,
+                              byte[] transactionId)
+    throws IOException, EbicsException
+  {
+    return session.getRetryPolicy().call(session.getUser().getPartner().getBank(),
+                                         "Segment " + segmentNumber,
+                                         () -> requestSegment(orderType,
+                                                              segmentNumber,
+                                                              lastSegment,
+                                                              transactionId));
+  }
+
+  private byte[] requestSegment(EbicsOrderType orderType,
+                                int segmentNumber,
+                                boolean lastSegment,
+                                byte[] transactionId)
+    throws IOException, EbicsException
+  {
+    return receiveSegment(orderType, exchangeSegment(orderType, segmentNumber, lastSegment, transactionId));
+  }
+
+  /**
+   * Sends the transfer request of a download segment and reads the header
+   * return code of the response of the bank. The order data is left in the
+   * raw response, to be read by {@link #receiveSegment(EbicsOrderType, FetchedSegment)},
+   * and a response that is not ok is returned as is, so that the request
+   * can still be traced by the caller.
+   * @param orderType the order type
+   * @param segmentNumber the segment number
+   * @param lastSegment is it the last segment?
+   * @param transactionId the transaction ID
+   * @return the exchanged segment
+   * @throws IOException communication error
+   * @throws EbicsException server generated error
+   */
+  private FetchedSegment exchangeSegment(EbicsOrderType orderType,
+                                         int segmentNumber,
+                                         boolean lastSegment,
+                                         byte[] transactionId)
+    throws IOException, EbicsException
   {
     DownloadTransferRequestElement		downloader;
     HttpRequestSender			sender;
-    DownloadTransferResponseElement		response;
+    ReturnCode				returnCode;
     int					httpCode;
 
     sender = new HttpRequestSender(session);
@@ -251,20 +788,91 @@ public class FileTransfer {
 	                                     transactionId);
     downloader.build();
     downloader.validate();
-    session.getConfiguration().getTraceManager().trace(downloader);
     httpCode = sender.send(new ByteArrayContentFactory(downloader.prettyPrint()));
     Utils.checkHttpCode(httpCode);
-    response = new DownloadTransferResponseElement(sender.getResponseBody(),
-	                                    orderType,
-	                                    DefaultEbicsRootElement.generateName(orderType));
+    try {
+      returnCode = DownloadTransferResponseElement.readReturnCode(sender.getResponseBody());
+    } catch (EbicsException e) {
+      // the response is read again, and the error reported, by the caller
+      returnCode = null;
+    }
+    return new FetchedSegment(downloader, sender.getResponseBody(), returnCode);
+  }
+
+  /**
+   * Traces an exchanged download segment, reads the response and returns
+   * its order data.
+   * @param orderType the order type
+   * @param segment the exchanged segment
+   * @return the encrypted order data of the segment
+   * @throws EbicsException server generated error
+   */
+  private byte[] receiveSegment(EbicsOrderType orderType, FetchedSegment segment)
+    throws EbicsException
+  {
+    DownloadTransferResponseElement		response;
+
+    session.getTraceManager().trace(segment.request());
+    response = new DownloadTransferResponseElement(segment.response(),
+                                                   orderType,
+                                                   DefaultEbicsRootElement.generateName(orderType));
     response.build();
-    session.getConfiguration().getTraceManager().trace(response);
-    response.report();
-    joiner.append(response.getOrderData());
+    session.getTraceManager().trace(response);
+    return response.getOrderData();
   }
 
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
   private final EbicsSession session;
+  private File workingDirectory;
+  /**
+   * Whether the running transfer has not been initialized by the bank yet.
+   */
+  private boolean initializing;
+
+  /**
+   * A transfer traced as one transaction.
+   */
+  interface Transaction<E extends Exception> {
+    void run() throws IOException, EbicsException, E;
+  }
+
+  /**
+   * Provides the encrypted content of an upload segment.
+   */
+  private interface SegmentSource {
+    ContentFactory getSegment(int segmentNumber) throws EbicsException;
+  }
+
+  /**
+   * Consumes the order data of downloaded segments.
+   */
+  private interface SegmentSink {
+    void accept(int segmentNumber, byte[] orderData) throws IOException, EbicsException;
+  }
+
+  /**
+   * A transfer request built and serialized ahead of its exchange.
+   */
+  private record PreparedSegment(int segmentNumber,
+                                 UploadTransferRequestElement request,
+                                 ContentFactory content)
+  {
+  }
+
+  /**
+   * A download request and the raw response of the bank, not traced yet,
+   * with the header return code of the response, <code>null</code> when
+   * the header cannot be read.
+   */
+  private record FetchedSegment(DownloadTransferRequestElement request,
+                                ContentFactory response,
+                                ReturnCode returnCode)
+  {
+  }
+
+  private static final int MAX_GOVERNED_ATTEMPTS = 10;
+  private static final int UPLOAD_PIPELINE_DEPTH = 2;
+  private static final int DOWNLOAD_PIPELINE_DEPTH = 1;
 }
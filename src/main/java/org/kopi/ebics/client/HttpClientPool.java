@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.ProxyAuthenticationStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one pooled, keep-alive HTTP client per bank so that consecutive
+ * requests of a transfer (initialization, segments, receipt) reuse the
+ * same TCP and TLS connection instead of opening a new one each time.
+ *
+ * <p>Clients are keyed by the bank URL and the proxy settings of the
+ * configuration. The pool is tuned with the following optional
+ * configuration properties:
+ * <ul>
+ *   <li><code>http.pool.max.per.route</code> maximum connections per bank (default 4)
+ *   <li><code>http.pool.max.total</code> maximum connections per client (default 20)
+ *   <li><code>http.pool.idle.timeout</code> seconds before idle connections are evicted (default 60)
+ *   <li><code>http.pool.keepalive</code> seconds a connection is kept alive when the server
+ *       does not send a <code>Keep-Alive</code> header (default 30)
+ *   <li><code>http.connect.timeout</code> seconds to wait for a connection (default 300)
+ *   <li><code>http.socket.timeout</code> seconds to wait for data (default 300)
+ * </ul>
+ *
+ * <p>The pool must be closed with {@link #close()} once no more requests
+ * are sent. {@link EbicsClient#quit()} does that for the pool it owns.
+ *
+ */
+public class HttpClientPool {
+    private static final Logger log = LoggerFactory.getLogger(HttpClientPool.class);
+
+    /**
+     * Constructs a new <code>HttpClientPool</code>.
+     */
+    public HttpClientPool() {
+        clients = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the process wide pool used by sessions that were not given
+     * a pool explicitly.
+     * @return the default pool
+     */
+    public static HttpClientPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the pooled client for the given bank, creating it on first use.
+     * @param bank the ebics bank
+     * @param conf the client configuration holding the proxy and pool settings
+     * @return the shared HTTP client of the bank
+     */
+    public CloseableHttpClient getClient(EbicsBank bank, Configuration conf) {
+        if (closed) {
+            throw new IllegalStateException("HTTP client pool is closed");
+        }
+        return clients.computeIfAbsent(createKey(bank, conf), key -> createClient(conf));
+    }
+
+    /**
+     * Closes all pooled clients and their connections.
+     */
+    public void close() {
+        closed = true;
+        for (CloseableHttpClient client : clients.values()) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                log.warn("Cannot close HTTP client", e);
+            }
+        }
+        clients.clear();
+    }
+
+    private static String createKey(EbicsBank bank, Configuration conf) {
+        return bank.getURL() + "|" + conf.getProperty("http.proxy.host")
+            + "|" + conf.getProperty("http.proxy.port")
+            + "|" + conf.getProperty("http.proxy.user");
+    }
+
+    /**
+     * Creates the request configuration of the clients: the timeouts
+     * and the proxy of the configuration.
+     * @param conf the client configuration
+     * @return the request configuration builder
+     */
+    static RequestConfig.Builder createRequestConfig(Configuration conf) {
+        RequestConfig.Builder configBuilder = RequestConfig.copy(RequestConfig.DEFAULT)
+            .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(Configuration.getInt(conf, "http.socket.timeout", 300)))
+            .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(Configuration.getInt(conf, "http.connect.timeout", 300)));
+        HttpHost proxy = getProxy(conf);
+
+        if (proxy != null) {
+            configBuilder.setProxy(proxy);
+        }
+        return configBuilder;
+    }
+
+    /**
+     * Returns the proxy of the configuration.
+     * @param conf the client configuration
+     * @return the proxy, <code>null</code> if no proxy is configured
+     */
+    private static HttpHost getProxy(Configuration conf) {
+        String proxyHost = conf.getProperty("http.proxy.host");
+
+        if (proxyHost == null || proxyHost.isEmpty()) {
+            return null;
+        }
+        return new HttpHost(proxyHost.trim(), Integer.parseInt(conf.getProperty("http.proxy.port").trim()));
+    }
+
+    private static CloseableHttpClient createClient(Configuration conf) {
+        RequestConfig.Builder configBuilder = createRequestConfig(conf);
+        HttpHost proxy = getProxy(conf);
+        CredentialsProvider credsProvider = null;
+
+        if (proxy != null) {
+            String user = conf.getProperty("http.proxy.user");
+            if (user != null && !user.isEmpty()) {
+                user = user.trim();
+                String pwd = conf.getProperty("http.proxy.password").trim();
+                credsProvider = new BasicCredentialsProvider();
+                credsProvider.setCredentials(new AuthScope(proxy.getHostName(), proxy.getPort()),
+                    new UsernamePasswordCredentials(user, pwd));
+            }
+        }
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(Configuration.getInt(conf, "http.pool.max.per.route", 4));
+        connectionManager.setMaxTotal(Configuration.getInt(conf, "http.pool.max.total", 20));
+        connectionManager.setValidateAfterInactivity(2_000);
+
+        long keepAlive = TimeUnit.SECONDS.toMillis(Configuration.getInt(conf, "http.pool.keepalive", 30));
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                .getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        };
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+            .setDefaultRequestConfig(configBuilder.build())
+            .setConnectionManager(connectionManager)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(Configuration.getInt(conf, "http.pool.idle.timeout", 60), TimeUnit.SECONDS);
+        if (credsProvider != null) {
+            builder.setDefaultCredentialsProvider(credsProvider);
+            builder.setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy());
+        }
+        return builder.build();
+    }
+
+    // --------------------------------------------------------------------
+    // DATA MEMBERS
+    // --------------------------------------------------------------------
+
+    private final Map<String, CloseableHttpClient> clients;
+    private volatile boolean closed;
+
+    private static final HttpClientPool DEFAULT = new HttpClientPool();
+}
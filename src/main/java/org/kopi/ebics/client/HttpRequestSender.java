@@ -18,38 +18,49 @@
 
 package org.kopi.ebics.client;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.EntityBuilder;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.ProxyAuthenticationStrategy;
 import org.apache.http.util.EntityUtils;
+import org.apache.xmlbeans.XmlException;
 import org.kopi.ebics.interfaces.Configuration;
 import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsBank;
 import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.schema.h000.EbicsHEVRequestDocument;
+import org.kopi.ebics.schema.h000.EbicsHEVResponseDocument;
 import org.kopi.ebics.session.EbicsSession;
 
 /**
  * A simple HTTP request sender and receiver. The send returns a HTTP code that
  * should be analyzed before proceeding ebics request response parse.
+ * The underlying HTTP client is shared by all senders of the same bank
+ * through the session {@link HttpClientPool}, and the requests go through
+ * the session {@link CircuitBreaker}, which refuses them while the bank
+ * keeps failing.
+ *
+ * <p>Communication errors and the HTTP status codes 408, 429 and 5xx count
+ * as failures of the bank. Any other status code, including the other
+ * 4xx, tells that the bank is up and counts as a success. The time of a
+ * request is measured from the end of its body, so that a slow upload is
+ * not taken for a slow bank, and the compression policy is given the time
+ * spent sending the body, without the time the bank took to answer.
  *
  */
 public class HttpRequestSender {
 
     private final EbicsSession session;
     private ContentFactory response;
+    private final EbicsBank bank;
     private final CloseableHttpClient httpClient;
 
     /**
@@ -60,60 +71,79 @@ public class HttpRequestSender {
      */
     public HttpRequestSender(EbicsSession session) {
         this.session = session;
-        this.httpClient = createClient();
-    }
-
-    private CloseableHttpClient createClient() {
-        RequestConfig.Builder configBuilder = RequestConfig.copy(RequestConfig.DEFAULT)
-            .setSocketTimeout(300_000).setConnectTimeout(300_000);
-        Configuration conf = session.getConfiguration();
-        String proxyHost = conf.getProperty("http.proxy.host");
-        CredentialsProvider credsProvider = null;
-
-        if (proxyHost != null && !proxyHost.isEmpty()) {
-            int proxyPort = Integer.parseInt(conf.getProperty("http.proxy.port").trim());
-            HttpHost proxy = new HttpHost(proxyHost.trim(), proxyPort);
-            configBuilder.setProxy(proxy);
-
-            String user = conf.getProperty("http.proxy.user");
-            if (user != null && !user.isEmpty()) {
-                user = user.trim();
-                String pwd = conf.getProperty("http.proxy.password").trim();
-                credsProvider = new BasicCredentialsProvider();
-                credsProvider.setCredentials(new AuthScope(proxyHost, proxyPort),
-                    new UsernamePasswordCredentials(user, pwd));
-            }
-        }
-        HttpClientBuilder builder = HttpClientBuilder.create()
-            .setDefaultRequestConfig(configBuilder.build());
-        if (credsProvider != null) {
-            builder.setDefaultCredentialsProvider(credsProvider);
-            builder.setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy());
-        }
-        return builder.build();
+        this.bank = session.getUser().getPartner().getBank();
+        this.httpClient = session.getHttpClientPool().getClient(bank, session.getConfiguration());
     }
 
     /**
      * Sends the request contained in the <code>ContentFactory</code>. The
      * <code>ContentFactory</code> will deliver the request as an
-     * <code>InputStream</code>.
+     * <code>InputStream</code>. The request waits for its turn when the
+     * session governor limits the request rate of the bank.
      *
      * @param request the ebics request
      * @return the HTTP return code
+     * @throws org.kopi.ebics.exception.CircuitOpenException the circuit of the bank is open
      */
     public final int send(ContentFactory request) throws IOException {
-        InputStream input = request.getContent();
-        HttpPost method = new HttpPost(
-            session.getUser().getPartner().getBank().getURL().toString());
+        CircuitBreaker breaker = session.getCircuitBreaker();
+        session.getTransactionGovernor().throttle(session.getUser());
+        breaker.acquire(bank, this::probe);
+        CountingInputStream input = new CountingInputStream(request.getContent());
+        HttpPost method = new HttpPost(bank.getURL().toString());
 
         HttpEntity requestEntity = EntityBuilder.create().setStream(input).build();
         method.setEntity(requestEntity);
         method.setHeader(HttpHeaders.CONTENT_TYPE, "text/xml; charset=ISO-8859-1");
 
+        long start = System.nanoTime();
         try (CloseableHttpResponse response = httpClient.execute(method)) {
             this.response = new ByteArrayContentFactory(
                 EntityUtils.toByteArray(response.getEntity()));
-            return response.getStatusLine().getStatusCode();
+            long received = System.nanoTime();
+            long sent = input.end != 0 ? input.end : start;
+            session.getConfiguration().getCompressionPolicy().transferred(input.count, sent - start);
+            int httpCode = response.getStatusLine().getStatusCode();
+            if (httpCode >= 500 || httpCode == 408 || httpCode == 429) {
+                breaker.failure(bank);
+            } else {
+                breaker.success(bank, received - sent);
+            }
+            return httpCode;
+        } catch (IOException e) {
+            breaker.failure(bank);
+            throw e;
+        }
+    }
+
+    /**
+     * Probes the bank with an HEV request, with short timeouts, to tell
+     * whether its circuit may close.
+     *
+     * @return <code>true</code> if the bank answered with an HEV response
+     * @throws IOException communication error
+     */
+    private boolean probe() throws IOException {
+        EbicsHEVRequestDocument document = EbicsHEVRequestDocument.Factory.newInstance();
+        document.addNewEbicsHEVRequest().setHostID(bank.getHostId());
+        int timeout = (int) TimeUnit.SECONDS.toMillis(
+            Configuration.getInt(session.getConfiguration(), "circuit.probe.timeout", 10));
+        HttpPost method = new HttpPost(bank.getURL().toString());
+        method.setConfig(HttpClientPool.createRequestConfig(session.getConfiguration())
+            .setConnectTimeout(timeout).setSocketTimeout(timeout).build());
+        method.setEntity(EntityBuilder.create()
+            .setBinary(document.xmlText().getBytes(StandardCharsets.UTF_8)).build());
+        method.setHeader(HttpHeaders.CONTENT_TYPE, "text/xml; charset=UTF-8");
+
+        try (CloseableHttpResponse response = httpClient.execute(method)) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                EntityUtils.consume(response.getEntity());
+                return false;
+            }
+            EbicsHEVResponseDocument.Factory.parse(response.getEntity().getContent());
+            return true;
+        } catch (XmlException e) {
+            return false;
         }
     }
 
@@ -125,4 +155,41 @@ public class HttpRequestSender {
     public ContentFactory getResponseBody() {
         return response;
     }
+
+    /**
+     * Counts the bytes of the request and records when it was read to
+     * the end, so that the transfer speed and the answer time of the bank
+     * can be measured.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            } else if (end == 0) {
+                end = System.nanoTime();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            } else if (n == -1 && end == 0) {
+                end = System.nanoTime();
+            }
+            return n;
+        }
+
+        private long count;
+        private long end;
+    }
 }
@@ -47,6 +47,12 @@ import org.kopi.ebics.xml.SPRResponseElement;
  * Then wait until the bank activated your keys.
  * If you are migrating from FTAM. Just send HPB, your EBICS account should be usable without delay.
  *
+ * <p>Thread safety: a <code>KeyManagement</code> must not be shared between
+ * threads. Key exchanges of different users, each with its own session,
+ * may run concurrently, but the key exchanges of one user change the keys
+ * of the user and its bank and must not overlap with each other nor with
+ * the transfers of that user.
+ *
  *
  */
 public class KeyManagement {
@@ -70,17 +76,19 @@ public class KeyManagement {
      * @throws IOException    communication error
      */
     public void sendINI(String orderId) throws EbicsException, IOException {
-        var sender = new HttpRequestSender(session);
-        var request = new INIRequestElement(session, orderId);
-        request.build();
-        request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        int httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
-        Utils.checkHttpCode(httpCode);
-        var response = new KeyManagementResponseElement(sender.getResponseBody(), "INIResponse");
-        response.build();
-        session.getConfiguration().getTraceManager().trace(response);
-        response.report();
+        traced(() -> {
+            var sender = new HttpRequestSender(session);
+            var request = new INIRequestElement(session, orderId);
+            request.build();
+            request.validate();
+            session.getTraceManager().trace(request);
+            int httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+            Utils.checkHttpCode(httpCode);
+            var response = new KeyManagementResponseElement(sender.getResponseBody(), "INIResponse");
+            response.build();
+            session.getTraceManager().trace(response);
+            response.report();
+        });
     }
 
     /**
@@ -91,18 +99,20 @@ public class KeyManagement {
      * @throws EbicsException server generated error message
      */
     public void sendHIA(String orderId) throws IOException, EbicsException {
-        HttpRequestSender sender = new HttpRequestSender(session);
-        HIARequestElement request = new HIARequestElement(session, orderId);
-        request.build();
-        request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        int httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
-        Utils.checkHttpCode(httpCode);
-        KeyManagementResponseElement response = new KeyManagementResponseElement(
-            sender.getResponseBody(), "HIAResponse");
-        response.build();
-        session.getConfiguration().getTraceManager().trace(response);
-        response.report();
+        traced(() -> {
+            HttpRequestSender sender = new HttpRequestSender(session);
+            HIARequestElement request = new HIARequestElement(session, orderId);
+            request.build();
+            request.validate();
+            session.getTraceManager().trace(request);
+            int httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+            Utils.checkHttpCode(httpCode);
+            KeyManagementResponseElement response = new KeyManagementResponseElement(
+                sender.getResponseBody(), "HIAResponse");
+            response.build();
+            session.getTraceManager().trace(response);
+            response.report();
+        });
     }
 
     /**
@@ -115,41 +125,43 @@ public class KeyManagement {
      * @throws EbicsException           server generated error message
      */
     public void sendHPB() throws IOException, GeneralSecurityException, EbicsException {
-        HttpRequestSender sender = new HttpRequestSender(session);
-        HPBRequestElement request = new HPBRequestElement(session);
-        request.build();
-        request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        int httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
-        var body = sender.getResponseBody();
-        Utils.checkHttpCode(httpCode);
-        KeyManagementResponseElement response = new KeyManagementResponseElement(body,
-            "HBPResponse");
-        response.build();
-        session.getConfiguration().getTraceManager().trace(response);
-        response.report();
-        EbicsUser user = session.getUser();
-        ContentFactory factory = new ByteArrayContentFactory(
-            Utils.unzip(user.decrypt(response.getOrderData(), response.getTransactionKey())));
-        HPBResponseOrderDataElement orderData = new HPBResponseOrderDataElement(factory);
-        orderData.build();
-        session.getConfiguration().getTraceManager().trace(orderData);
-        KeyStoreManager keystoreManager = new KeyStoreManager();
-        var path = session.getConfiguration().getKeystoreDirectory(user);
-        keystoreManager.load(null, user.getPasswordCallback().getPassword());
-        EbicsBank bank = user.getPartner().getBank();
-        String bankID = session.getBankID();
-        var e002PubKey = keystoreManager.getPublicKey(
-            new ByteArrayInputStream(orderData.getBankE002Certificate()));
-        var x002PubKey = keystoreManager.getPublicKey(
-            new ByteArrayInputStream(orderData.getBankX002Certificate()));
-        bank.setBankKeys(e002PubKey, x002PubKey);
-        bank.setDigests(KeyUtil.getKeyDigest(e002PubKey), KeyUtil.getKeyDigest(x002PubKey));
-        keystoreManager.setCertificateEntry(bankID + "-E002",
-            new ByteArrayInputStream(orderData.getBankE002Certificate()));
-        keystoreManager.setCertificateEntry(bankID + "-X002",
-            new ByteArrayInputStream(orderData.getBankX002Certificate()));
-        keystoreManager.save(new FileOutputStream(new File(path, bankID + ".p12")));
+        traced(() -> {
+            HttpRequestSender sender = new HttpRequestSender(session);
+            HPBRequestElement request = new HPBRequestElement(session);
+            request.build();
+            request.validate();
+            session.getTraceManager().trace(request);
+            int httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+            var body = sender.getResponseBody();
+            Utils.checkHttpCode(httpCode);
+            KeyManagementResponseElement response = new KeyManagementResponseElement(body,
+                "HBPResponse");
+            response.build();
+            session.getTraceManager().trace(response);
+            response.report();
+            EbicsUser user = session.getUser();
+            ContentFactory factory = new ByteArrayContentFactory(
+                Utils.unzip(user.decrypt(response.getOrderData(), response.getTransactionKey())));
+            HPBResponseOrderDataElement orderData = new HPBResponseOrderDataElement(factory);
+            orderData.build();
+            session.getTraceManager().trace(orderData);
+            KeyStoreManager keystoreManager = new KeyStoreManager();
+            var path = session.getConfiguration().getKeystoreDirectory(user);
+            keystoreManager.load(null, user.getPasswordCallback().getPassword());
+            EbicsBank bank = user.getPartner().getBank();
+            String bankID = session.getBankID();
+            var e002PubKey = keystoreManager.getPublicKey(
+                new ByteArrayInputStream(orderData.getBankE002Certificate()));
+            var x002PubKey = keystoreManager.getPublicKey(
+                new ByteArrayInputStream(orderData.getBankX002Certificate()));
+            bank.setBankKeys(e002PubKey, x002PubKey);
+            bank.setDigests(KeyUtil.getKeyDigest(e002PubKey), KeyUtil.getKeyDigest(x002PubKey));
+            keystoreManager.setCertificateEntry(bankID + "-E002",
+                new ByteArrayInputStream(orderData.getBankE002Certificate()));
+            keystoreManager.setCertificateEntry(bankID + "-X002",
+                new ByteArrayInputStream(orderData.getBankX002Certificate()));
+            keystoreManager.save(new FileOutputStream(new File(path, bankID + ".p12")));
+        });
     }
 
     /**
@@ -160,22 +172,38 @@ public class KeyManagement {
      * @throws EbicsException Error message generated by the bank.
      */
     public void lockAccess() throws IOException, EbicsException {
-        HttpRequestSender sender;
-        SPRRequestElement request;
-        SPRResponseElement response;
-        int httpCode;
+        traced(() -> {
+            HttpRequestSender sender;
+            SPRRequestElement request;
+            SPRResponseElement response;
+            int httpCode;
+
+            sender = new HttpRequestSender(session);
+            request = new SPRRequestElement(session);
+            request.build();
+            request.validate();
+            session.getTraceManager().trace(request);
+            httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
+            Utils.checkHttpCode(httpCode);
+            response = new SPRResponseElement(sender.getResponseBody());
+            response.build();
+            session.getTraceManager().trace(response);
+            response.report();
+        });
+    }
 
-        sender = new HttpRequestSender(session);
-        request = new SPRRequestElement(session);
-        request.build();
-        request.validate();
-        session.getConfiguration().getTraceManager().trace(request);
-        httpCode = sender.send(new ByteArrayContentFactory(request.prettyPrint()));
-        Utils.checkHttpCode(httpCode);
-        response = new SPRResponseElement(sender.getResponseBody());
-        response.build();
-        session.getConfiguration().getTraceManager().trace(response);
-        response.report();
+    /**
+     * Runs a key management order as one trace transaction.
+     *
+     * @param transaction the order
+     * @throws IOException    communication error
+     * @throws EbicsException server generated error message
+     * @throws E              any other error of the order
+     */
+    private <E extends Exception> void traced(FileTransfer.Transaction<E> transaction)
+        throws IOException, EbicsException, E
+    {
+        FileTransfer.traceTransaction(session.getTraceManager(), transaction);
     }
 
     // --------------------------------------------------------------------
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.kopi.ebics.exception.CircuitOpenException;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.HttpStatusException;
+import org.kopi.ebics.exception.ReturnCode;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the steps of a transaction that may be sent again to the bank,
+ * such as a segment transfer or a receipt, and retries them when they
+ * fail with a transient error.
+ *
+ * <p>Transient errors are the communication errors other than an unknown
+ * host, a refused certificate or an open circuit, the HTTP status codes 408, 429 and 5xx,
+ * and the return codes <code>EBICS_INTERNAL_ERROR</code> and
+ * <code>EBICS_TX_RECOVERY_SYNC</code>. Any other error fails the step at
+ * once. Steps that must not be run twice, such as an upload segment the
+ * bank may already have received, are run with a narrower classification
+ * such as {@link #isUploadRecoverable(Exception)}.
+ *
+ * <p>The retries wait for an exponential backoff with full jitter: before
+ * the retry <i>n</i> the step waits for a random time between zero and
+ * <code>backoff * 2^(n-1)</code>, capped to the maximum backoff. The
+ * retries of each bank host also draw on a budget: every step earns a
+ * fraction of a retry, and a burst of failures may spend at most
+ * {@value #RETRY_RESERVE} retries more than earned, so that a bank that
+ * is down is not flooded with retries.
+ *
+ * <p>The attempts, retries and failed steps are counted for monitoring.
+ * The policy is tuned with the following optional configuration properties:
+ * <ul>
+ *   <li><code>retry.attempts</code> maximum attempts of a step (default 4)
+ *   <li><code>retry.backoff</code> backoff of the first retry in milliseconds (default 500)
+ *   <li><code>retry.backoff.max</code> maximum backoff in milliseconds (default 30000)
+ *   <li><code>retry.budget</code> retries earned by a step in percent (default 20)
+ * </ul>
+ *
+ */
+public class RetryPolicy {
+
+  /**
+   * A step of a transaction that may be run again.
+   */
+  public interface Step<T> {
+
+    /**
+     * Runs the step.
+     * @return the result of the step
+     * @throws IOException communication error
+     * @throws EbicsException server generated error
+     */
+    T run() throws IOException, EbicsException;
+  }
+
+  /**
+   * Constructs a new <code>RetryPolicy</code>.
+   * @param maxAttempts the maximum attempts of a step, 1 for no retry
+   * @param backoff the backoff of the first retry in milliseconds
+   * @param maxBackoff the maximum backoff in milliseconds
+   * @param budgetRatio the retries earned by a step
+   */
+  public RetryPolicy(int maxAttempts, long backoff, long maxBackoff, double budgetRatio) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoff = backoff;
+    this.maxBackoff = Math.max(backoff, maxBackoff);
+    this.budgetRatio = budgetRatio;
+    this.budgets = new ConcurrentHashMap<>();
+    this.attempts = new LongAdder();
+    this.retries = new LongAdder();
+    this.failures = new LongAdder();
+    this.exhausted = new LongAdder();
+  }
+
+  /**
+   * Constructs a new <code>RetryPolicy</code> from the properties
+   * of a configuration.
+   * @param conf the client configuration
+   * @return the retry policy
+   */
+  public static RetryPolicy create(Configuration conf) {
+    return new RetryPolicy(Configuration.getInt(conf, "retry.attempts", MAX_ATTEMPTS),
+                           Configuration.getInt(conf, "retry.backoff", BACKOFF),
+                           Configuration.getInt(conf, "retry.backoff.max", MAX_BACKOFF),
+                           Configuration.getInt(conf, "retry.budget", BUDGET_PERCENT) / 100.0);
+  }
+
+  /**
+   * Returns the process wide policy used by sessions that were not given
+   * a policy explicitly.
+   * @return the default policy
+   */
+  public static RetryPolicy getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Runs a step with a bank, retrying it while it fails with a transient
+   * error, within the attempts and the retry budget.
+   * @param bank the bank the step is sent to
+   * @param name the name of the step, for the logs
+   * @param step the step
+   * @return the result of the step
+   * @throws IOException communication error of the last attempt
+   * @throws EbicsException server generated error of the last attempt
+   */
+  public <T> T call(EbicsBank bank, String name, Step<T> step)
+    throws IOException, EbicsException
+  {
+    return call(bank, name, step, RetryPolicy::isTransient);
+  }
+
+  /**
+   * Runs a step with a bank, retrying it while it fails with an error
+   * the given classification accepts, within the attempts and the retry
+   * budget.
+   * @param bank the bank the step is sent to
+   * @param name the name of the step, for the logs
+   * @param step the step
+   * @param retryable tells whether a failure of the step may be retried
+   * @return the result of the step
+   * @throws IOException communication error of the last attempt
+   * @throws EbicsException server generated error of the last attempt
+   */
+  public <T> T call(EbicsBank bank, String name, Step<T> step, Predicate<Exception> retryable)
+    throws IOException, EbicsException
+  {
+    return run(getBudget(bank), name, step, retryable, 0, null);
+  }
+
+  /**
+   * Retries a step whose first attempt was run elsewhere and failed,
+   * as {@link #call(EbicsBank, String, Step)} would have done.
+   * @param bank the bank the step is sent to
+   * @param name the name of the step, for the logs
+   * @param step the step
+   * @param failure the failure of the first attempt, an
+   *        <code>IOException</code> or an <code>EbicsException</code>
+   * @return the result of the step
+   * @throws IOException communication error of the last attempt
+   * @throws EbicsException server generated error of the last attempt
+   */
+  <T> T recover(EbicsBank bank, String name, Step<T> step, Exception failure)
+    throws IOException, EbicsException
+  {
+    Budget			budget;
+
+    budget = getBudget(bank);
+    attempts.increment();
+    budget.deposit();
+    return run(budget, name, step, RetryPolicy::isTransient, 1, failure);
+  }
+
+  private <T> T run(Budget budget,
+                    String name,
+                    Step<T> step,
+                    Predicate<Exception> retryable,
+                    int attempt,
+                    Exception failure)
+    throws IOException, EbicsException
+  {
+    while (failure == null || retry(budget, name, retryable, attempt, failure)) {
+      attempts.increment();
+      if (attempt++ == 0) {
+        budget.deposit();
+      }
+      try {
+        return step.run();
+      } catch (IOException | EbicsException e) {
+        failure = e;
+      }
+    }
+    failures.increment();
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    throw (EbicsException) failure;
+  }
+
+  private boolean retry(Budget budget,
+                        String name,
+                        Predicate<Exception> retryable,
+                        int attempt,
+                        Exception failure)
+    throws InterruptedIOException
+  {
+    long			delay;
+
+    if (attempt >= maxAttempts || !retryable.test(failure)) {
+      return false;
+    }
+    if (!budget.withdraw()) {
+      exhausted.increment();
+      log.warn("{} failed with {}, retry budget exhausted", name, failure.getMessage());
+      return false;
+    }
+    retries.increment();
+    delay = getBackoff(attempt);
+    log.warn("{} failed with {}, retry {} of {} in {} ms",
+             name, failure.getMessage(), attempt, maxAttempts - 1, delay);
+    try {
+      TimeUnit.MILLISECONDS.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry " + name);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the random backoff before a retry.
+   * @param retry the retry number, from 1
+   * @return the backoff in milliseconds
+   */
+  long getBackoff(int retry) {
+    long			cap;
+
+    cap = Math.min(maxBackoff, backoff << Math.min(retry - 1, 30));
+    return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  /**
+   * Tells whether a failure is transient, that is whether the failed
+   * step may succeed when it is run again.
+   * @param failure the failure
+   * @return <code>true</code> if the failure is transient
+   */
+  public static boolean isTransient(Exception failure) {
+    if (failure instanceof HttpStatusException) {
+      int status = ((HttpStatusException) failure).getStatusCode();
+      return status >= 500 || status == 408 || status == 429;
+    }
+    if (failure instanceof EbicsException) {
+      ReturnCode returnCode = ((EbicsException) failure).getReturnCode();
+      return ReturnCode.EBICS_INTERNAL_ERROR.equals(returnCode)
+        || ReturnCode.EBICS_TX_RECOVERY_SYNC.equals(returnCode);
+    }
+    if (failure instanceof InterruptedIOException) {
+      return failure instanceof SocketTimeoutException || failure instanceof ConnectTimeoutException;
+    }
+    return failure instanceof IOException
+      && !(failure instanceof CircuitOpenException
+           || failure instanceof UnknownHostException
+           || failure instanceof SSLHandshakeException
+           || failure instanceof SSLPeerUnverifiedException);
+  }
+
+  /**
+   * Tells whether an upload segment may be sent again after a failure.
+   * The bank may have received a segment whose exchange failed with a
+   * communication error or an HTTP status, so the segment is only sent
+   * again when the bank asks for it with <code>EBICS_TX_RECOVERY_SYNC</code>.
+   * @param failure the failure
+   * @return <code>true</code> if the segment may be sent again
+   */
+  public static boolean isUploadRecoverable(Exception failure) {
+    return failure instanceof EbicsException
+      && ReturnCode.EBICS_TX_RECOVERY_SYNC.equals(((EbicsException) failure).getReturnCode());
+  }
+
+  /**
+   * Returns the number of attempts of the steps run so far.
+   * @return the number of attempts
+   */
+  public long getAttempts() {
+    return attempts.sum();
+  }
+
+  /**
+   * Returns the number of retries of the steps run so far.
+   * @return the number of retries
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * Returns the number of steps that failed after their last attempt.
+   * @return the number of failed steps
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * Returns the number of retries refused because the budget of the bank
+   * was exhausted.
+   * @return the number of refused retries
+   */
+  public long getExhaustedRetries() {
+    return exhausted.sum();
+  }
+
+  private Budget getBudget(EbicsBank bank) {
+    return budgets.computeIfAbsent(bank.getHostId(), hostId -> new Budget());
+  }
+
+  /**
+   * The retries a bank host may still be sent.
+   */
+  private class Budget {
+
+    Budget() {
+      this.balance = RETRY_RESERVE;
+    }
+
+    synchronized void deposit() {
+      balance = Math.min(RETRY_RESERVE, balance + budgetRatio);
+    }
+
+    synchronized boolean withdraw() {
+      if (balance < 1) {
+        return false;
+      }
+      balance--;
+      return true;
+    }
+
+    private double				balance;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				maxAttempts;
+  private final long				backoff;
+  private final long				maxBackoff;
+  private final double				budgetRatio;
+  private final Map<String, Budget>		budgets;
+  private final LongAdder			attempts;
+  private final LongAdder			retries;
+  private final LongAdder			failures;
+  private final LongAdder			exhausted;
+
+  /**
+   * The number of retries a bank host may be sent beyond the earned ones.
+   */
+  public static final int			RETRY_RESERVE = 10;
+
+  private static final int			MAX_ATTEMPTS = 4;
+  private static final int			BACKOFF = 500;
+  private static final int			MAX_BACKOFF = 30_000;
+  private static final int			BUDGET_PERCENT = 20;
+  private static final RetryPolicy		DEFAULT = new RetryPolicy(MAX_ATTEMPTS, BACKOFF, MAX_BACKOFF,
+                                                                          BUDGET_PERCENT / 100.0);
+  private static final Logger			log = LoggerFactory.getLogger(RetryPolicy.class);
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.Configuration;
+
+/**
+ * Runs one stage of a segmented transfer ahead of the calling thread.
+ *
+ * <p>For uploads the worker builds, canonicalizes and signs the transfer
+ * requests of the next segments while the current segment is exchanged
+ * with the bank. For downloads the worker requests the next segment as
+ * soon as the response of the previous one is received, while the calling
+ * thread parses, decodes and decrypts that response. Either way the CPU
+ * cost of a segment is hidden behind the network latency of another one.
+ *
+ * <p>Segments are handled one after the other by a single worker, so the
+ * bank still sees them in order, and at most <code>depth</code> segments
+ * are handled ahead of the caller. Once a segment fails, or once the
+ * worker handles a segment that does not let the transfer proceed, such
+ * as a download response that is not ok, the following ones are not
+ * attempted. A depth of <code>0</code> handles every segment on the
+ * calling thread when it is needed.
+ *
+ * @param <T> the type of the handled segments
+ */
+class SegmentPipeline<T> implements AutoCloseable {
+
+  /**
+   * Handles a single segment on the worker.
+   * @param <T> the type of the handled segments
+   */
+  interface Stage<T> {
+
+    /**
+     * Handles a segment.
+     * @param segmentNumber the segment number
+     * @param lastSegment is it the last segment?
+     * @return the handled segment
+     * @throws IOException communication error
+     * @throws EbicsException the segment cannot be handled
+     */
+    T process(int segmentNumber, boolean lastSegment) throws IOException, EbicsException;
+  }
+
+  /**
+   * Constructs a new <code>SegmentPipeline</code>.
+   * @param stage the stage run ahead
+   * @param firstSegment the first segment to handle
+   * @param numSegments the total number of segments
+   * @param depth the number of segments handled ahead
+   */
+  SegmentPipeline(Stage<T> stage, int firstSegment, int numSegments, int depth) {
+    this(stage, segment -> true, firstSegment, numSegments, depth);
+  }
+
+  /**
+   * Constructs a new <code>SegmentPipeline</code> that stops handling
+   * segments ahead after a segment the given predicate refuses.
+   * @param stage the stage run ahead
+   * @param proceed tells whether the segments following a handled one may be handled
+   * @param firstSegment the first segment to handle
+   * @param numSegments the total number of segments
+   * @param depth the number of segments handled ahead
+   */
+  SegmentPipeline(Stage<T> stage, Predicate<T> proceed, int firstSegment, int numSegments, int depth) {
+    this.stage = stage;
+    this.proceed = proceed;
+    this.nextSegment = firstSegment;
+    this.numSegments = numSegments;
+    this.depth = depth;
+    this.pending = new ArrayDeque<>();
+    if (depth > 0 && numSegments > firstSegment) {
+      executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ebics-segment-pipeline");
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else {
+      executor = null;
+    }
+  }
+
+  /**
+   * Returns the next segment and schedules the following ones.
+   * @return the next handled segment
+   * @throws IOException communication error
+   * @throws EbicsException the segment cannot be handled
+   */
+  T next() throws IOException, EbicsException {
+    if (executor == null) {
+      int segmentNumber = nextSegment++;
+      return stage.process(segmentNumber, segmentNumber == numSegments);
+    }
+
+    while (pending.size() <= depth && nextSegment <= numSegments) {
+      int segmentNumber = nextSegment++;
+      pending.add(executor.submit(() -> process(segmentNumber)));
+    }
+    try {
+      return pending.remove().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EbicsException(e.getMessage());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof EbicsException) {
+        throw (EbicsException) e.getCause();
+      } else if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new EbicsException(e.getCause().getMessage());
+    }
+  }
+
+  private T process(int segmentNumber) throws IOException, EbicsException {
+    if (failed) {
+      throw new EbicsException("Segment " + segmentNumber + " skipped after a previous failure");
+    }
+    try {
+      T segment = stage.process(segmentNumber, segmentNumber == numSegments);
+      if (!proceed.test(segment)) {
+        failed = true;
+      }
+      return segment;
+    } catch (IOException | EbicsException | RuntimeException e) {
+      failed = true;
+      throw e;
+    }
+  }
+
+  /**
+   * Discards the segments handled ahead and waits for the worker to stop,
+   * so that no request of the pipeline is in flight once it returns.
+   */
+  @Override
+  public void close() {
+    if (executor != null) {
+      failed = true;
+      for (Future<T> future : pending) {
+        future.cancel(false);
+      }
+      pending.clear();
+      executor.shutdown();
+      try {
+        executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Reads the pipeline depth of the configuration.
+   * @param conf the client configuration
+   * @param key the property key
+   * @param defaultValue the depth used when the property is not set
+   * @return the number of segments handled ahead
+   */
+  static int getDepth(Configuration conf, String key, int defaultValue) {
+    String value = conf.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Math.max(0, Integer.parseInt(value.trim()));
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final Stage<T>					stage;
+  private final Predicate<T>					proceed;
+  private final int						numSegments;
+  private final int						depth;
+  private final Deque<Future<T>>				pending;
+  private final ExecutorService				executor;
+  private int							nextSegment;
+  private volatile boolean					failed;
+
+  private static final long					SHUTDOWN_TIMEOUT = 300;
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the transactions sent to each bank within the limits of the bank:
+ * a number of transactions in flight and a number of requests per second.
+ *
+ * <p>Callers over the limit wait for their turn instead of failing. When
+ * the bank answers <code>EBICS_MAX_TRANSACTIONS_EXCEEDED</code>, the limit
+ * is lowered below the number of transactions that were in flight and new
+ * transactions wait for a pause growing with the consecutive rejections.
+ * The limit is raised again by one after {@link #RECOVERY_TRANSACTIONS}
+ * accepted transactions, up to the configured maximum, so that the
+ * throughput stays close to the actual limit of the bank.
+ *
+ * <p>The limits apply by bank host, by partner or by user, and are tuned
+ * with the following optional configuration properties:
+ * <ul>
+ *   <li><code>transactions.max</code> maximum transactions in flight (default unlimited)
+ *   <li><code>transactions.rate</code> maximum requests per second (default unlimited)
+ *   <li><code>transactions.scope</code> <code>bank</code>, <code>partner</code>
+ *       or <code>user</code> (default <code>bank</code>)
+ * </ul>
+ *
+ */
+public class TransactionGovernor {
+
+  /**
+   * What the limits apply to.
+   */
+  public enum Scope {
+    /** All the users of a bank host. */
+    BANK,
+    /** All the users of a partner. */
+    PARTNER,
+    /** Each user. */
+    USER
+  }
+
+  /**
+   * Constructs a new <code>TransactionGovernor</code>.
+   * @param maxTransactions the maximum transactions in flight, 0 for no limit
+   * @param requestsPerSecond the maximum requests per second, 0 for no limit
+   * @param scope what the limits apply to
+   */
+  public TransactionGovernor(int maxTransactions, double requestsPerSecond, Scope scope) {
+    this.maxTransactions = maxTransactions > 0 ? maxTransactions : Integer.MAX_VALUE;
+    this.requestInterval = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+    this.scope = scope;
+    this.limits = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Constructs a new <code>TransactionGovernor</code> from the properties
+   * of a configuration.
+   * @param conf the client configuration
+   * @return the governor
+   */
+  public static TransactionGovernor create(Configuration conf) {
+    String			rate;
+    String			scope;
+
+    rate = conf.getProperty("transactions.rate");
+    scope = conf.getProperty("transactions.scope");
+    return new TransactionGovernor(Configuration.getInt(conf, "transactions.max", 0),
+                                   rate == null || rate.isBlank() ? 0 : Double.parseDouble(rate.trim()),
+                                   getScope(scope));
+  }
+
+  /**
+   * Parses the scope property of a configuration.
+   * @param value the property value
+   * @return the scope, {@link Scope#BANK} when the value is not set or invalid
+   */
+  private static Scope getScope(String value) {
+    if (value == null || value.isBlank()) {
+      return Scope.BANK;
+    }
+    try {
+      return Scope.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      log.warn("Invalid transactions.scope {}, using {}", value, Scope.BANK);
+      return Scope.BANK;
+    }
+  }
+
+  /**
+   * Returns the process wide governor used by sessions that were not given
+   * a governor explicitly. It sets no limit but adapts to the banks.
+   * @return the default governor
+   */
+  public static TransactionGovernor getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Waits until a transaction of the user may start.
+   * @param user the user of the transaction
+   * @return the permit of the transaction, to be closed when it ends
+   * @throws InterruptedIOException the thread is interrupted while waiting
+   */
+  public Permit acquire(EbicsUser user) throws InterruptedIOException {
+    Limit			limit;
+
+    limit = getLimit(user);
+    try {
+      limit.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a transaction slot");
+    }
+    return new Permit(limit);
+  }
+
+  /**
+   * Waits until a request of the user may be sent.
+   * @param user the user of the request
+   * @throws InterruptedIOException the thread is interrupted while waiting
+   */
+  public void throttle(EbicsUser user) throws InterruptedIOException {
+    if (requestInterval == 0) {
+      return;
+    }
+    try {
+      getLimit(user).throttle();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to send a request");
+    }
+  }
+
+  /**
+   * Returns the current limit of transactions in flight of a user.
+   * @param user the user
+   * @return the current limit, <code>Integer.MAX_VALUE</code> for no limit
+   */
+  public int getTransactionLimit(EbicsUser user) {
+    Limit			limit;
+
+    limit = getLimit(user);
+    synchronized (limit) {
+      return limit.limit;
+    }
+  }
+
+  private Limit getLimit(EbicsUser user) {
+    String			key;
+
+    key = user.getPartner().getBank().getHostId();
+    if (scope != Scope.BANK) {
+      key += '/' + user.getPartner().getPartnerId();
+    }
+    if (scope == Scope.USER) {
+      key += '/' + user.getUserId();
+    }
+    return limits.computeIfAbsent(key, Limit::new);
+  }
+
+  /**
+   * The permit of a running transaction.
+   */
+  public static class Permit implements AutoCloseable {
+
+    Permit(Limit limit) {
+      this.limit = limit;
+    }
+
+    /**
+     * Reports that the bank refused the transaction because too many
+     * transactions were in flight.
+     */
+    public void exceeded() {
+      if (!released) {
+        released = true;
+        limit.release(true);
+      }
+    }
+
+    /**
+     * Ends the transaction.
+     */
+    @Override
+    public void close() {
+      if (!released) {
+        released = true;
+        limit.release(false);
+      }
+    }
+
+    private final Limit				limit;
+    private boolean				released;
+  }
+
+  /**
+   * The limits and the transactions in flight of a bank, partner or user.
+   */
+  private class Limit {
+
+    Limit(String key) {
+      this.key = key;
+      this.limit = maxTransactions;
+      this.pausedUntil = System.nanoTime();
+      this.nextRequest = pausedUntil;
+    }
+
+    synchronized void acquire() throws InterruptedException {
+      for (;;) {
+        long pause = pausedUntil - System.nanoTime();
+        if (pause > 0) {
+          TimeUnit.NANOSECONDS.timedWait(this, pause);
+        } else if (inFlight >= limit) {
+          wait();
+        } else {
+          break;
+        }
+      }
+      inFlight++;
+    }
+
+    synchronized void release(boolean exceeded) {
+      if (exceeded) {
+        rejections++;
+        accepted = 0;
+        limit = Math.max(1, Math.min(limit, inFlight - 1));
+        pausedUntil = System.nanoTime() + Math.min(MAX_PAUSE, PAUSE * rejections);
+        log.warn("Too many transactions for {}, limited to {}", key, limit);
+      } else {
+        rejections = 0;
+        if (limit < maxTransactions && ++accepted >= RECOVERY_TRANSACTIONS) {
+          accepted = 0;
+          limit++;
+        }
+      }
+      inFlight--;
+      notifyAll();
+    }
+
+    void throttle() throws InterruptedException {
+      long			slot;
+
+      synchronized (this) {
+        slot = Math.max(System.nanoTime(), nextRequest);
+        nextRequest = slot + requestInterval;
+      }
+      long delay = slot - System.nanoTime();
+      if (delay > 0) {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      }
+    }
+
+    private final String			key;
+    private int					limit;
+    private int					inFlight;
+    private int					accepted;
+    private int					rejections;
+    private long				pausedUntil;
+    private long				nextRequest;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				maxTransactions;
+  private final long				requestInterval;
+  private final Scope				scope;
+  private final Map<String, Limit>		limits;
+
+  /**
+   * The number of accepted transactions after which a lowered limit is raised by one.
+   */
+  public static final int			RECOVERY_TRANSACTIONS = 20;
+
+  private static final long			PAUSE = TimeUnit.SECONDS.toNanos(1);
+  private static final long			MAX_PAUSE = TimeUnit.SECONDS.toNanos(30);
+  private static final TransactionGovernor	DEFAULT = new TransactionGovernor(0, 0, Scope.BANK);
+  private static final Logger			log = LoggerFactory.getLogger(TransactionGovernor.class);
+}
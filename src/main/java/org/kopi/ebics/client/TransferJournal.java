@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.io.FileContentFactory;
+import org.kopi.ebics.io.IOUtils;
+import org.kopi.ebics.io.Splitter;
+
+/**
+ * A durable journal of a file transfer. It keeps the {@link TransferState},
+ * the transaction key and the transferred segments in a directory so that
+ * an interrupted transfer can be continued after a restart.
+ *
+ * <p>A download journal records every received segment before its state
+ * advances to it. An upload journal takes over the encrypted order data
+ * and stores the order ID right after the transaction is initialized, and
+ * its state advances as the bank acknowledges the segments, so a resumed
+ * upload neither signs nor encrypts the order again nor consumes a new
+ * order ID.
+ *
+ * <p>Every file is written to a temporary file that is synced and then
+ * renamed, so a crash never leaves a half written segment or state behind.
+ *
+ */
+public class TransferJournal {
+
+  /**
+   * Constructs a new <code>TransferJournal</code>.
+   * @param directory the journal directory
+   * @param orderType the order type of the transfer
+   * @param state the transfer state
+   * @param transactionKey the encrypted transaction key of a download
+   * @param outputFile the destination file of a download
+   * @param orderId the order ID of an upload
+   */
+  private TransferJournal(File directory,
+                          EbicsOrderType orderType,
+                          TransferState state,
+                          byte[] transactionKey,
+                          File outputFile,
+                          String orderId)
+  {
+    this.directory = directory;
+    this.orderType = orderType;
+    this.state = state;
+    this.transactionKey = transactionKey;
+    this.outputFile = outputFile;
+    this.orderId = orderId;
+  }
+
+  /**
+   * Creates the journal of a new download transaction.
+   * @param workingDirectory the directory holding the journals
+   * @param orderType the order type
+   * @param state the transfer state
+   * @param transactionKey the encrypted transaction key
+   * @param outputFile the destination file
+   * @return the created journal
+   * @throws EbicsException the journal cannot be written
+   */
+  public static TransferJournal create(File workingDirectory,
+                                       EbicsOrderType orderType,
+                                       TransferState state,
+                                       byte[] transactionKey,
+                                       File outputFile)
+    throws EbicsException
+  {
+    TransferJournal		journal;
+
+    journal = new TransferJournal(createDirectory(workingDirectory, orderType, state),
+                                  orderType,
+                                  state,
+                                  transactionKey,
+                                  outputFile,
+                                  null);
+    journal.save();
+    return journal;
+  }
+
+  /**
+   * Creates the journal of a new upload transaction. The encrypted order
+   * data must be moved to {@link #getContentFile()} and synced with
+   * {@link #syncContent()} before the upload starts.
+   * @param workingDirectory the directory holding the journals
+   * @param orderType the order type
+   * @param state the transfer state
+   * @param orderId the order ID sent in the initialization, may be <code>null</code>
+   * @return the created journal
+   * @throws EbicsException the journal cannot be written
+   */
+  public static TransferJournal createUpload(File workingDirectory,
+                                             EbicsOrderType orderType,
+                                             TransferState state,
+                                             String orderId)
+    throws EbicsException
+  {
+    TransferJournal		journal;
+
+    journal = new TransferJournal(createDirectory(workingDirectory, orderType, state),
+                                  orderType,
+                                  state,
+                                  null,
+                                  null,
+                                  orderId);
+    journal.save();
+    return journal;
+  }
+
+  private static File createDirectory(File workingDirectory,
+                                      EbicsOrderType orderType,
+                                      TransferState state)
+  {
+    File			directory;
+
+    directory = new File(workingDirectory,
+                         orderType.getCode() + "-" + Hex.encodeHexString(state.getTransactionId()));
+    IOUtils.createDirectories(directory);
+    return directory;
+  }
+
+  /**
+   * Loads a journal from its directory.
+   * @param directory the journal directory
+   * @return the loaded journal
+   * @throws EbicsException the journal cannot be read
+   */
+  public static TransferJournal load(File directory) throws EbicsException {
+    try (ObjectInputStream input = new ObjectInputStream(
+           new FileInputStream(new File(directory, STATE_FILE))))
+    {
+      EbicsOrderType		orderType;
+      TransferState		state;
+      byte[]			transactionKey;
+      String			output;
+      String			orderId;
+      int			version;
+
+      version = input.readInt();
+      if (version != VERSION) {
+        throw new EbicsException("Unsupported journal version " + version);
+      }
+      orderType = (EbicsOrderType) input.readObject();
+      state = (TransferState) input.readObject();
+      transactionKey = (byte[]) input.readObject();
+      output = (String) input.readObject();
+      orderId = (String) input.readObject();
+      return new TransferJournal(directory,
+                                 orderType,
+                                 state,
+                                 transactionKey,
+                                 output == null ? null : new File(output),
+                                 orderId);
+    } catch (IOException | ClassNotFoundException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the journals of all unfinished transfers in a working directory.
+   * Journals that cannot be read are skipped.
+   * @param workingDirectory the directory holding the journals
+   * @return the pending journals
+   */
+  public static List<TransferJournal> list(File workingDirectory) {
+    List<TransferJournal>	journals;
+    File[]			directories;
+
+    journals = new ArrayList<>();
+    directories = workingDirectory.listFiles(file -> new File(file, STATE_FILE).isFile());
+    if (directories != null) {
+      for (File directory : directories) {
+        try {
+          journals.add(load(directory));
+        } catch (EbicsException e) {
+          // an unreadable journal cannot be resumed
+        }
+      }
+    }
+
+    return journals;
+  }
+
+  /**
+   * Records a received segment and advances the persisted state to it.
+   * @param segmentNumber the segment number
+   * @param orderData the segment data as exchanged with the bank
+   * @throws EbicsException the segment cannot be written
+   */
+  public void checkpoint(int segmentNumber, byte[] orderData) throws EbicsException {
+    store(segmentNumber, orderData);
+    acknowledge(segmentNumber);
+  }
+
+  /**
+   * Stores a segment without advancing the persisted state.
+   * @param segmentNumber the segment number
+   * @param orderData the segment data as exchanged with the bank
+   * @throws EbicsException the segment cannot be written
+   */
+  private void store(int segmentNumber, byte[] orderData) throws EbicsException {
+    write(segmentFile(segmentNumber), orderData);
+  }
+
+  /**
+   * Returns the file holding the compressed and encrypted order data of
+   * an upload.
+   * @return the content file
+   */
+  File getContentFile() {
+    return new File(directory, CONTENT_FILE);
+  }
+
+  /**
+   * Makes the order data of an upload durable once it is moved to
+   * {@link #getContentFile()}.
+   * @throws EbicsException the order data cannot be synced
+   */
+  void syncContent() throws EbicsException {
+    try (FileChannel channel = FileChannel.open(getContentFile().toPath(), StandardOpenOption.WRITE)) {
+      channel.force(true);
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Advances the persisted state to a transferred segment.
+   * @param segmentNumber the segment number
+   * @throws EbicsException the state cannot be written
+   */
+  public void acknowledge(int segmentNumber) throws EbicsException {
+    state.setSegmentNumber(segmentNumber);
+    save();
+  }
+
+  /**
+   * Returns the content of a journaled segment. The segments of an upload
+   * are read from its order data.
+   * @param segmentNumber the segment number
+   * @return the segment content
+   * @throws EbicsException the segment cannot be read
+   */
+  public ContentFactory getSegment(int segmentNumber) throws EbicsException {
+    if (isUpload()) {
+      if (content == null) {
+        content = Splitter.open(getContentFile());
+      }
+      return content.getContent(segmentNumber);
+    }
+    return new FileContentFactory(segmentFile(segmentNumber));
+  }
+
+  /**
+   * Removes the journal once the transfer is complete.
+   */
+  public void delete() {
+    File[]			files;
+
+    files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  /**
+   * Persists the journal state.
+   * @throws EbicsException the state cannot be written
+   */
+  private void save() throws EbicsException {
+    File			temp;
+
+    temp = new File(directory, STATE_FILE + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(temp);
+         ObjectOutputStream output = new ObjectOutputStream(fos))
+    {
+      output.writeInt(VERSION);
+      output.writeObject(orderType);
+      output.writeObject(state);
+      output.writeObject(transactionKey);
+      output.writeObject(outputFile == null ? null : outputFile.getAbsolutePath());
+      output.writeObject(orderId);
+      output.flush();
+      fos.getFD().sync();
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+    move(temp, new File(directory, STATE_FILE));
+  }
+
+  /**
+   * Writes a file durably.
+   * @param file the file to write
+   * @param data the file content
+   * @throws EbicsException the file cannot be written
+   */
+  private static void write(File file, byte[] data) throws EbicsException {
+    File			temp;
+
+    temp = new File(file.getParentFile(), file.getName() + ".tmp");
+    try (FileOutputStream output = new FileOutputStream(temp)) {
+      output.write(data);
+      output.getFD().sync();
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+    move(temp, file);
+  }
+
+  private static void move(File source, File target) throws EbicsException {
+    try {
+      try {
+        Files.move(source.toPath(), target.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  private File segmentFile(int segmentNumber) {
+    return new File(directory, "segment-" + segmentNumber);
+  }
+
+  /**
+   * Returns the journal directory.
+   * @return the journal directory.
+   */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns the order type of the transfer.
+   * @return the order type.
+   */
+  public EbicsOrderType getOrderType() {
+    return orderType;
+  }
+
+  /**
+   * Returns the transfer state. Its segment number is the last
+   * segment recorded in the journal.
+   * @return the transfer state.
+   */
+  public TransferState getState() {
+    return state;
+  }
+
+  /**
+   * Returns the encrypted transaction key.
+   * @return the transaction key.
+   */
+  public byte[] getTransactionKey() {
+    return transactionKey;
+  }
+
+  /**
+   * Returns the destination file of a download.
+   * @return the destination file.
+   */
+  public File getOutputFile() {
+    return outputFile;
+  }
+
+  /**
+   * Returns the order ID of an upload.
+   * @return the order ID, <code>null</code> if the bank assigns it.
+   */
+  public String getOrderId() {
+    return orderId;
+  }
+
+  /**
+   * Is it the journal of an upload?
+   * @return True if the journal records an upload
+   */
+  public boolean isUpload() {
+    return outputFile == null;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final File				directory;
+  private final EbicsOrderType			orderType;
+  private final TransferState			state;
+  private final byte[]				transactionKey;
+  private final File				outputFile;
+  private final String				orderId;
+  private Splitter				content;
+
+  private static final String			STATE_FILE = "journal.ser";
+  private static final String			CONTENT_FILE = "content";
+  private static final int			VERSION = 1;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.client;
+
+import java.io.File;
+
+import org.kopi.ebics.interfaces.EbicsOrderType;
+
+/**
+ * The outcome of a transfer run by an {@link EbicsExecutor}.
+ * @param userId the ID of the user of the transfer
+ * @param orderType the order type
+ * @param file the fetched file, <code>null</code> for an upload
+ * @param elapsed the transfer time in milliseconds, waiting time excluded
+ */
+public record TransferResult(String userId, EbicsOrderType orderType, File file, long elapsed) {}
@@ -61,6 +61,14 @@ public class TransferState implements Serializable {
     this.segmentNumber = segmentNumber;
   }
 
+  /**
+   * Returns the last transferred segment number.
+   * @return the segment number
+   */
+  public int getSegmentNumber() {
+    return segmentNumber;
+  }
+
   /**
    * Is the current segment is the last one?
    * @return True if it is the last segment
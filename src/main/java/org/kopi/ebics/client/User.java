@@ -21,6 +21,7 @@ package org.kopi.ebics.client;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.security.GeneralSecurityException;
@@ -30,12 +31,12 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
 
-import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.kopi.ebics.certificate.CertificateManager;
+import org.kopi.ebics.certificate.KeyPairPool;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.CryptoEngine;
 import org.kopi.ebics.interfaces.EbicsPartner;
 import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.interfaces.PasswordCallback;
@@ -77,13 +78,41 @@ public class User implements EbicsUser, Savable {
               String organization,
               PasswordCallback passwordCallback)
     throws GeneralSecurityException, IOException
+  {
+    this(partner, userId, name, email, country, organization, passwordCallback, null);
+  }
+
+  /**
+   * First time constructor taking the signature keys from a key pair pool.
+   *
+   * @param partner customer in whose name we operate.
+   * @param userId UserId as obtained from the bank.
+   * @param name the user name,
+   * @param email the user email
+   * @param country the user country
+   * @param organization the user organization or company
+   * @param passwordCallback a callback-handler that supplies us with the password.
+   *                         This parameter can be null, in this case no password is used.
+   * @param keyPairPool the key pair pool, <code>null</code> to generate the keys
+   * @throws IOException
+   * @throws GeneralSecurityException
+   */
+  public User(EbicsPartner partner,
+              String userId,
+              String name,
+              String email,
+              String country,
+              String organization,
+              PasswordCallback passwordCallback,
+              KeyPairPool keyPairPool)
+    throws GeneralSecurityException, IOException
   {
     this.partner = partner;
     this.userId = userId;
     this.name = name;
     this.dn = makeDN(name, email, country, organization);
     this.passwordCallback = passwordCallback;
-    createUserCertificates();
+    createUserCertificates(keyPairPool);
     needSave = true;
   }
 
@@ -145,11 +174,12 @@ public class User implements EbicsUser, Savable {
 
   /**
    * Creates new certificates for a user.
+   * @param keyPairPool the key pair pool, <code>null</code> to generate the keys
    * @throws GeneralSecurityException
    * @throws IOException
    */
-  private void createUserCertificates() throws GeneralSecurityException, IOException {
-    manager = new CertificateManager(this);
+  private void createUserCertificates(KeyPairPool keyPairPool) throws GeneralSecurityException, IOException {
+    manager = new CertificateManager(this, keyPairPool);
     manager.create();
   }
 
@@ -372,18 +402,21 @@ public class User implements EbicsUser, Savable {
   @Override
   public void setA005PrivateKey(PrivateKey a005PrivateKey) {
     this.a005PrivateKey = a005PrivateKey;
+    this.a005Signer = null;
     needSave = true;
   }
 
   @Override
   public void setX002PrivateKey(PrivateKey x002PrivateKey) {
     this.x002PrivateKey = x002PrivateKey;
+    this.x002Signer = null;
     needSave = true;
   }
 
   @Override
   public void setE002PrivateKey(PrivateKey e002PrivateKey) {
     this.e002PrivateKey = e002PrivateKey;
+    this.e002Decrypter = null;
     needSave = true;
   }
 
@@ -456,12 +489,14 @@ public class User implements EbicsUser, Savable {
    */
   @Override
   public byte[] authenticate(byte[] digest) throws GeneralSecurityException {
-    Signature			signature;
-
-    signature = Signature.getInstance("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME);
-    signature.initSign(x002PrivateKey);
-    signature.update(digest);
-    return signature.sign();
+    if (x002Signer == null) {
+      x002Signer = Utils.getCryptoEngine().createSigner(x002PrivateKey);
+    }
+    try {
+      return x002Signer.sign(signature -> signature.update(digest));
+    } catch (IOException e) {
+      throw new GeneralSecurityException(e);
+    }
   }
 
   /**
@@ -511,10 +546,41 @@ public class User implements EbicsUser, Savable {
    */
   @Override
   public byte[] sign(byte[] digest) throws GeneralSecurityException {
-    Signature signature = Signature.getInstance("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME);
-    signature.initSign(a005PrivateKey);
-    signature.update(removeOSSpecificChars(digest));
-    return signature.sign();
+    try {
+      return getA005Signer().sign(signature -> signature.update(removeOSSpecificChars(digest)));
+    } catch (IOException e) {
+      throw new GeneralSecurityException(e);
+    }
+  }
+
+  /**
+   * Streaming variant of {@link #sign(byte[])}. The OS specific characters
+   * are removed while reading the data so that the produced signature is
+   * identical to the one of the in-memory variant.
+   */
+  @Override
+  public byte[] sign(InputStream data) throws IOException, GeneralSecurityException {
+    return getA005Signer().sign(signature -> {
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = data.read(buffer)) != -1) {
+        int count = 0;
+        for (int i = 0; i < len; i++) {
+          byte b = buffer[i];
+          if (b != '\r' && b != '\n' && b != 0x1A) {
+            buffer[count++] = b;
+          }
+        }
+        signature.update(buffer, 0, count);
+      }
+    });
+  }
+
+  private CryptoEngine.Signer getA005Signer() throws GeneralSecurityException {
+    if (a005Signer == null) {
+      a005Signer = Utils.getCryptoEngine().createSigner(a005PrivateKey);
+    }
+    return a005Signer;
   }
 
   /**
@@ -534,19 +600,22 @@ public class User implements EbicsUser, Savable {
   public byte[] decrypt(byte[] encryptedData, byte[] transactionKey)
     throws EbicsException, GeneralSecurityException, IOException
   {
-    Cipher			cipher;
-    int				blockSize;
-    ByteArrayOutputStream	outputStream;
-
-    cipher = Cipher.getInstance("RSA/NONE/PKCS1Padding", BouncyCastleProvider.PROVIDER_NAME);
-    cipher.init(Cipher.DECRYPT_MODE, e002PrivateKey);
-    blockSize = cipher.getBlockSize();
-    outputStream = new ByteArrayOutputStream();
-    for (int j = 0; j * blockSize < transactionKey.length; j++) {
-      outputStream.write(cipher.doFinal(transactionKey, j * blockSize, blockSize));
-    }
+    return decryptData(encryptedData, decryptTransactionKey(transactionKey));
+  }
+
+  @Override
+  public boolean supportsTransactionKeyDecryption() {
+    return true;
+  }
 
-    return decryptData(encryptedData, outputStream.toByteArray());
+  @Override
+  public byte[] decryptTransactionKey(byte[] transactionKey)
+    throws GeneralSecurityException, IOException
+  {
+    if (e002Decrypter == null) {
+      e002Decrypter = Utils.getCryptoEngine().createDecrypter(e002PrivateKey);
+    }
+    return e002Decrypter.decrypt(transactionKey);
   }
 
   /**
@@ -571,7 +640,7 @@ public class User implements EbicsUser, Savable {
   private byte[] decryptData(byte[] input, byte[] key)
     throws EbicsException
   {
-    return Utils.decrypt(input, new SecretKeySpec(key, "EAS"));
+    return Utils.decrypt(input, new SecretKeySpec(key, "AES"));
   }
 
   // --------------------------------------------------------------------
@@ -595,4 +664,8 @@ public class User implements EbicsUser, Savable {
   private X509Certificate			a005Certificate;
   private X509Certificate			e002Certificate;
   private X509Certificate			x002Certificate;
+
+  private transient CryptoEngine.Signer		a005Signer;
+  private transient CryptoEngine.Signer		x002Signer;
+  private transient CryptoEngine.Decrypter	e002Decrypter;
 }
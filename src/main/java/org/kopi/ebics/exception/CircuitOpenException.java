@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.exception;
+
+import java.io.IOException;
+
+/**
+ * A request was not sent because the circuit of the bank is open:
+ * the bank failed too often recently and is given time to recover.
+ *
+ */
+public class CircuitOpenException extends IOException {
+
+  /**
+   * Constructs a new <code>CircuitOpenException</code>.
+   * @param message the exception message
+   */
+  public CircuitOpenException(String message) {
+    super(message);
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private static final long 			serialVersionUID = -2873915016431845093L;
+}
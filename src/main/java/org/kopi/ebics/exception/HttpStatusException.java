@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.exception;
+
+/**
+ * The bank answered a request with an HTTP status other than 200.
+ *
+ */
+public class HttpStatusException extends EbicsException {
+
+  /**
+   * Constructs a new <code>HttpStatusException</code>.
+   * @param statusCode the HTTP status code
+   * @param message the exception message
+   */
+  public HttpStatusException(int statusCode, String message) {
+    super(message);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * Returns the HTTP status code returned by the bank.
+   * @return the HTTP status code
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				statusCode;
+  private static final long 			serialVersionUID = 4164378310954917346L;
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.interfaces;
+
+/**
+ * Chooses the compression level of the order data and of the
+ * signatures sent to the bank.
+ *
+ * <p>A policy may learn from the compressions and the transfers it is
+ * told about, to balance the compression time against the transfer time.
+ *
+ */
+public interface CompressionPolicy {
+
+  /**
+   * Returns the compression level to use for the given data.
+   * @param orderType the order type of the data
+   * @param size the size of the data, or a lower bound of it when the
+   *             data is streamed
+   * @return the deflate compression level, from 0 to 9
+   */
+  int getLevel(EbicsOrderType orderType, long size);
+
+  /**
+   * Tells the policy about a compression.
+   * @param orderType the order type of the data
+   * @param level the compression level
+   * @param size the size of the data
+   * @param compressedSize the size of the compressed data
+   * @param nanos the compression time in nanoseconds
+   */
+  default void compressed(EbicsOrderType orderType, int level, long size, long compressedSize, long nanos) {}
+
+  /**
+   * Tells the policy about a request sent to the bank.
+   * @param size the size of the request
+   * @param nanos the time spent sending the request, in nanoseconds
+   */
+  default void transferred(long size, long nanos) {}
+}
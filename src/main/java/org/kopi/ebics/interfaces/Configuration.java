@@ -20,6 +20,7 @@ package org.kopi.ebics.interfaces;
 
 import java.io.File;
 import java.util.Locale;
+import java.util.zip.Deflater;
 
 
 /**
@@ -49,6 +50,22 @@ public interface Configuration {
    */
   String getProperty(String key);
 
+  /**
+   * Reads a positive integer property of a configuration.
+   * @param conf the client configuration
+   * @param key the property key
+   * @param defaultValue the value used when the property is not set or not positive
+   * @return the property value
+   */
+  static int getInt(Configuration conf, String key, int defaultValue) {
+    String value = conf.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    int result = Integer.parseInt(value.trim());
+    return result > 0 ? result : defaultValue;
+  }
+
   /**
    * Returns the directory path of the key store that contains
    * bank and user certificates.
@@ -65,6 +82,16 @@ public interface Configuration {
    */
   File getTransferTraceDirectory(EbicsUser user);
 
+  /**
+   * Returns the directory where the journals of recoverable
+   * transfers are kept.
+   * @param user the ebics user
+   * @return the transfer journal directory, <code>null</code> to disable journaling
+   */
+  default File getTransferJournalDirectory(EbicsUser user) {
+    return null;
+  }
+
   /**
    * Returns the object serialization directory.
    * @return the object serialization directory.
@@ -173,6 +200,15 @@ public interface Configuration {
    */
   boolean isCompressionEnabled();
 
+  /**
+   * Returns the policy choosing the compression level of the
+   * transferred files when the compression is enabled.
+   * @return the compression policy
+   */
+  default CompressionPolicy getCompressionPolicy() {
+    return (orderType, size) -> Deflater.BEST_COMPRESSION;
+  }
+
   /**
    * Returns the default revision of sent XML.
    * @return the default revision of sent XML.
@@ -33,4 +33,13 @@ public interface ContentFactory extends Serializable {
    * @throws IOException
    */
   InputStream getContent() throws IOException;
+
+  /**
+   * Returns the length of the data to be sent when it is known
+   * without reading the data.
+   * @return the length of the data, -1 when it is unknown.
+   */
+  default long getContentLength() {
+    return -1;
+  }
 }
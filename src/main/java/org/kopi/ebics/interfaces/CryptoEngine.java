@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.interfaces;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The cryptographic primitives of the EBICS protocol: SHA-256 digests,
+ * AES order data encryption, RSA transaction key encryption and the
+ * SHA256withRSA signatures of the A005 and X002 processes.
+ *
+ * <p>Implementations are thread safe. The signers and decrypters bound
+ * to a private key are meant to be created once per key and kept for
+ * the lifetime of the key.
+ *
+ */
+public interface CryptoEngine {
+
+  /**
+   * Computes the SHA-256 digest of the given input.
+   * @param input the input
+   * @return the digest value
+   * @throws GeneralSecurityException
+   */
+  byte[] digest(byte[] input) throws GeneralSecurityException;
+
+  /**
+   * Creates a new SHA-256 digest for incremental hashing.
+   * The digest is owned by the caller.
+   * @return the message digest
+   * @throws GeneralSecurityException
+   */
+  MessageDigest createDigest() throws GeneralSecurityException;
+
+  /**
+   * Encrypts or decrypts the order data in one go.
+   * @param mode the cipher mode
+   * @param input the input
+   * @param keySpec the transaction key
+   * @return the encrypted or decrypted data
+   * @throws GeneralSecurityException
+   */
+  byte[] crypt(int mode, byte[] input, SecretKeySpec keySpec) throws GeneralSecurityException;
+
+  /**
+   * Creates a new order data cipher, initialized for the given mode.
+   * The cipher is owned by the caller and can be used incrementally.
+   * @param mode the cipher mode
+   * @param keySpec the transaction key
+   * @return the initialized cipher
+   * @throws GeneralSecurityException
+   */
+  Cipher createCipher(int mode, SecretKeySpec keySpec) throws GeneralSecurityException;
+
+  /**
+   * Encrypts a transaction key with a public RSA key.
+   * @param input the transaction key
+   * @param key the public key
+   * @return the encrypted transaction key
+   * @throws GeneralSecurityException
+   */
+  byte[] encrypt(byte[] input, PublicKey key) throws GeneralSecurityException;
+
+  /**
+   * Creates a signer bound to a private RSA key.
+   * @param key the private key
+   * @return the signer
+   * @throws GeneralSecurityException
+   */
+  Signer createSigner(PrivateKey key) throws GeneralSecurityException;
+
+  /**
+   * Creates a decrypter of transaction keys bound to a private RSA key.
+   * @param key the private key
+   * @return the decrypter
+   * @throws GeneralSecurityException
+   */
+  Decrypter createDecrypter(PrivateKey key) throws GeneralSecurityException;
+
+  /**
+   * Signs data with a private key.
+   */
+  interface Signer {
+
+    /**
+     * Signs the data fed by the given content.
+     * @param content feeds the data to sign
+     * @return the signature value
+     * @throws IOException the data cannot be read
+     * @throws GeneralSecurityException
+     */
+    byte[] sign(Content content) throws IOException, GeneralSecurityException;
+  }
+
+  /**
+   * Feeds the data to sign to an initialized signature.
+   */
+  interface Content {
+
+    /**
+     * Updates the signature with the data to sign.
+     * @param signature the initialized signature
+     * @throws IOException the data cannot be read
+     * @throws GeneralSecurityException
+     */
+    void update(Signature signature) throws IOException, GeneralSecurityException;
+  }
+
+  /**
+   * Decrypts transaction keys with a private key.
+   */
+  interface Decrypter {
+
+    /**
+     * Decrypts the given transaction key, block by block.
+     * @param input the encrypted transaction key
+     * @return the decrypted transaction key
+     * @throws GeneralSecurityException
+     */
+    byte[] decrypt(byte[] input) throws GeneralSecurityException;
+  }
+}
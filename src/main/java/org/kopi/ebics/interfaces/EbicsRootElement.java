@@ -56,4 +56,13 @@ public interface EbicsRootElement extends EbicsElement {
    * @throws EbicsException the save operation fails
    */
   void save(OutputStream out) throws EbicsException;
+
+  /**
+   * Returns the serialized element when it is at hand without serializing
+   * the element again, such as a signed request or a received response.
+   * @return the serialized element, <code>null</code> if it must be serialized
+   */
+  default ContentFactory toContentFactory() {
+    return null;
+  }
 }
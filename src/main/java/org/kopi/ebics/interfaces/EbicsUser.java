@@ -19,6 +19,7 @@
 package org.kopi.ebics.interfaces;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
@@ -162,6 +163,19 @@ public interface EbicsUser {
    */
   byte[] sign(byte[] digest) throws IOException, GeneralSecurityException;
 
+  /**
+   * Signs the data delivered by the given stream with the private A005 key.
+   * The default implementation reads the whole data and delegates to
+   * {@link #sign(byte[])}; implementations may read it incrementally instead.
+   * @param data the data to sign
+   * @return the signature
+   * @throws IOException
+   * @throws GeneralSecurityException
+   */
+  default byte[] sign(InputStream data) throws IOException, GeneralSecurityException {
+    return sign(data.readAllBytes());
+  }
+
   /**
    * Uses the E001 key to decrypt the given secret key.
    * @param encryptedKey the given secret key
@@ -173,4 +187,32 @@ public interface EbicsUser {
    */
   byte[] decrypt(byte[] encryptedKey, byte[] transactionKey)
     throws GeneralSecurityException, IOException, EbicsException;
+
+  /**
+   * Tells whether the user can decrypt a transaction key alone with
+   * {@link #decryptTransactionKey(byte[])}. When it cannot, the downloaded
+   * segments of the user are joined in memory and decrypted with
+   * {@link #decrypt(byte[], byte[])}.
+   * @return <code>true</code> if the transaction key can be decrypted alone
+   */
+  default boolean supportsTransactionKeyDecryption() {
+    return false;
+  }
+
+  /**
+   * Uses the E002 key to decrypt the given transaction key.
+   * The result is the secret key protecting the order data.
+   * It is only called when {@link #supportsTransactionKeyDecryption()}
+   * returns <code>true</code>.
+   * @param transactionKey a given transaction key
+   * @return the decrypted transaction key
+   * @throws GeneralSecurityException
+   * @throws IOException
+   * @throws UnsupportedOperationException the user cannot decrypt the key alone
+   */
+  default byte[] decryptTransactionKey(byte[] transactionKey)
+    throws GeneralSecurityException, IOException
+  {
+    throw new UnsupportedOperationException("Transaction key decryption not supported");
+  }
 }
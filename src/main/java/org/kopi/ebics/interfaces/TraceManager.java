@@ -43,6 +43,20 @@ public interface TraceManager {
    */
   void trace(EbicsRootElement element) throws EbicsException;
 
+  /**
+   * Saves the <code>EbicsRootElement</code> in the given trace directory
+   * instead of the directory of the manager, so that the sessions of
+   * several users may share the manager concurrently. The element is saved
+   * in the directory of the manager by default.
+   *
+   * @param element the element to trace
+   * @param traceDir the trace directory
+   * @throws EbicsException cannot trace the ebics element
+   */
+  default void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+    trace(element);
+  }
+
   /**
    * Removes an <code>EbicsRootElement</code> from trace
    * directory.
@@ -56,7 +70,10 @@ public interface TraceManager {
   void clear();
 
   /**
-   * Sets the trace directory
+   * Sets the trace directory of the elements traced without a directory.
+   * Sessions running concurrently should rather trace with their own
+   * directory.
+   * @see org.kopi.ebics.session.EbicsSession#setTraceDirectory(File)
    */
   void setTraceDirectory(File traceDir);
 
@@ -66,4 +83,37 @@ public interface TraceManager {
    */
   void setTraceEnabled(boolean enabled);
 
+  /**
+   * Marks the beginning of a transaction on the current thread. Elements
+   * traced until the matching {@link #endTransaction()} belong to that
+   * transaction. Transactions may be nested, the outermost one wins.
+   */
+  default void beginTransaction() {
+  }
+
+  /**
+   * Reports that the transaction of the current thread failed.
+   */
+  default void failTransaction() {
+  }
+
+  /**
+   * Marks the end of the transaction of the current thread.
+   */
+  default void endTransaction() {
+  }
+
+  /**
+   * Waits until every traced element is written to the trace directory.
+   * Traces are written as soon as they are requested by default.
+   */
+  default void flush() {
+  }
+
+  /**
+   * Writes the pending traces and releases the resources of the manager.
+   */
+  default void close() {
+  }
+
 }
@@ -49,6 +49,11 @@ public class ByteArrayContentFactory implements ContentFactory {
     return new ByteArrayInputStream(content);
   }
 
+  @Override
+  public long getContentLength() {
+    return content.length;
+  }
+
 
   @Override
   public String toString() {
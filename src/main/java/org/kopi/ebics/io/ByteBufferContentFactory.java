@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.kopi.ebics.interfaces.ContentFactory;
+
+/**
+ * Content factory that delivers a view of a byte buffer, typically
+ * a segment of a larger content, without copying it.
+ *
+ * <p>The content may also be read base64 encoded, the encoding being
+ * done chunk by chunk while the stream is read, so that a segment can be
+ * written into a request without ever holding its encoded form in memory.
+ *
+ * <p>The buffer is not serializable: the factory is serialized as a
+ * {@link ByteArrayContentFactory} holding a copy of the content.
+ *
+ */
+public class ByteBufferContentFactory implements ContentFactory {
+
+  /**
+   * Constructs a new <code>ByteBufferContentFactory</code> on the
+   * remaining content of a buffer. The buffer is not copied.
+   * @param buffer the buffer
+   */
+  public ByteBufferContentFactory(ByteBuffer buffer) {
+    this.buffer = buffer.slice().asReadOnlyBuffer();
+  }
+
+  @Override
+  public InputStream getContent() {
+    return new BufferInputStream(getBuffer());
+  }
+
+  /**
+   * Returns a new data source of the base64 encoded content.
+   * @return the encoded content
+   */
+  public InputStream getEncodedContent() {
+    return new Base64InputStream(getBuffer());
+  }
+
+  /**
+   * Returns a read-only view of the content.
+   * @return the content buffer
+   */
+  public ByteBuffer getBuffer() {
+    return buffer.duplicate();
+  }
+
+  /**
+   * Returns the length of the content.
+   * @return the content length
+   */
+  public int getLength() {
+    return buffer.remaining();
+  }
+
+  @Override
+  public long getContentLength() {
+    return getLength();
+  }
+
+  /**
+   * Returns the length of the base64 encoded content.
+   * @return the encoded content length
+   */
+  public int getEncodedLength() {
+    return 4 * ((buffer.remaining() + 2) / 3);
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    byte[]			content;
+
+    content = new byte[buffer.remaining()];
+    getBuffer().get(content);
+    return new ByteArrayContentFactory(content);
+  }
+
+  /**
+   * An input stream reading a byte buffer.
+   */
+  private static class BufferInputStream extends InputStream {
+
+    BufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    private final ByteBuffer			buffer;
+  }
+
+  /**
+   * An input stream encoding a byte buffer in base64, one chunk at a time.
+   */
+  private static class Base64InputStream extends InputStream {
+
+    Base64InputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.chunk = new byte[CHUNK_SIZE];
+      this.encoded = new byte[CHUNK_SIZE / 3 * 4];
+    }
+
+    @Override
+    public int read() {
+      if (!fill()) {
+        return -1;
+      }
+      return encoded[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      len = Math.min(len, length - position);
+      System.arraycopy(encoded, position, b, off, len);
+      position += len;
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return length - position + 4 * ((buffer.remaining() + 2) / 3);
+    }
+
+    /**
+     * Encodes the next chunk when the current one is read.
+     */
+    private boolean fill() {
+      if (position < length) {
+        return true;
+      }
+      if (!buffer.hasRemaining()) {
+        return false;
+      }
+      int count = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, count);
+      length = ENCODER.encode(count == chunk.length ? chunk : Arrays.copyOf(chunk, count), encoded);
+      position = 0;
+      return true;
+    }
+
+    private final ByteBuffer			buffer;
+    private final byte[]			chunk;
+    private final byte[]			encoded;
+    private int					position;
+    private int					length;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final transient ByteBuffer		buffer;
+  private static final Base64.Encoder		ENCODER = Base64.getEncoder();
+  private static final int			CHUNK_SIZE = 3 * 1024;
+  private static final long			serialVersionUID = -1858745018231255012L;
+}
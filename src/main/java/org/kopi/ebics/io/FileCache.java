@@ -19,11 +19,12 @@
 package org.kopi.ebics.io;
 
 import java.io.File;
-import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A simple mean to cache created files.
+ * The cache may be used by several threads.
  *
  *
  */
@@ -35,7 +36,7 @@ public class FileCache {
    */
   public FileCache(boolean isTraceEnabled) {
     this.isTraceEnabled = isTraceEnabled;
-    cache = new Hashtable<>();
+    cache = new ConcurrentHashMap<>();
   }
 
   /**
@@ -44,13 +45,7 @@ public class FileCache {
    * @return True if the file is cached
    */
   public boolean add(File file) {
-    if (cache.containsKey(file.getName())) {
-      return false;
-    }
-
-    cache.put(file.getName(), file);
-
-    return true;
+    return cache.putIfAbsent(file.getName(), file) == null;
   }
 
   /**
@@ -59,13 +54,7 @@ public class FileCache {
    * @return True if the file is removed
    */
   public boolean remove(String filename) {
-    if (!cache.containsKey(filename)) {
-      return false;
-    }
-
-    cache.remove(filename);
-
-    return true;
+    return cache.remove(filename) != null;
   }
 
   /**
@@ -75,10 +64,11 @@ public class FileCache {
     if (isTraceEnabled) {
       for (File file : cache.values()) {
 	file.delete();
+	cache.remove(file.getName(), file);
       }
+    } else {
+      cache.clear();
     }
-
-    cache.clear();
   }
 
   /**
@@ -94,5 +84,5 @@ public class FileCache {
   // --------------------------------------------------------------------
 
   private final Map<String, File>			cache;
-  private boolean 				isTraceEnabled;
+  private volatile boolean 			isTraceEnabled;
 }
@@ -49,6 +49,11 @@ public class FileContentFactory implements ContentFactory {
     return new FileInputStream(input);
   }
 
+  @Override
+  public long getContentLength() {
+    return input.length();
+  }
+
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
@@ -18,9 +18,16 @@
 
 package org.kopi.ebics.io;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsUser;
@@ -31,9 +38,15 @@ import org.kopi.ebics.utils.Utils;
  * A simple mean to join downloaded segments from the
  * bank ebics server.
  *
+ * <p>A joiner created with a transaction key and an output stream works
+ * in streaming mode: every appended segment is decrypted and inflated
+ * immediately and written to the output, so the downloaded data is never
+ * held in memory as a whole. The joiner must then be closed once the last
+ * segment has been appended. If the user cannot decrypt the transaction
+ * key alone, the segments are joined in memory and written on close.
  *
  */
-public class Joiner {
+public class Joiner implements Closeable {
 
   /**
    * Constructs a new <code>Joiner</code> object.
@@ -44,15 +57,86 @@ public class Joiner {
     buffer = new ByteArrayOutputStream();
   }
 
+  /**
+   * Constructs a new streaming <code>Joiner</code> object.
+   * @param user the ebics user.
+   * @param transactionKey the transaction key
+   * @param output the output stream receiving the decrypted and inflated data.
+   *               It is not closed by the joiner.
+   * @throws EbicsException the transaction key cannot be decrypted
+   */
+  public Joiner(EbicsUser user, byte[] transactionKey, OutputStream output)
+    throws EbicsException
+  {
+    this.user = user;
+    this.output = output;
+    this.transactionKey = transactionKey;
+    if (!user.supportsTransactionKeyDecryption()) {
+      buffer = new ByteArrayOutputStream();
+      return;
+    }
+    try {
+      cipher = Utils.createCipher(Cipher.DECRYPT_MODE,
+                                  new SecretKeySpec(user.decryptTransactionKey(transactionKey), "AES"));
+    } catch (GeneralSecurityException | IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+    buffer = null;
+    decompressor = new Inflater();
+    inflater = new InflaterOutputStream(new NonClosingOutputStream(output), decompressor);
+  }
+
   public void append(byte[] data) throws EbicsException {
     try {
-      buffer.write(data);
-      buffer.flush();
+      if (buffer == null) {
+        byte[] decrypted = cipher.update(data);
+        if (decrypted != null) {
+          inflater.write(decrypted);
+        }
+      } else {
+        buffer.write(data);
+        buffer.flush();
+      }
     } catch (IOException e) {
       throw new EbicsException(e.getMessage());
     }
   }
 
+  /**
+   * Completes a streaming joiner: decrypts the last block and flushes
+   * the inflated data to the output.
+   * @throws IOException the data is corrupted or cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (buffer != null && output != null) {
+      try {
+        writeTo(output, transactionKey);
+      } catch (EbicsException e) {
+        throw new IOException(e.getMessage(), e);
+      } finally {
+        output = null;
+      }
+      return;
+    }
+    if (buffer != null || inflater == null) {
+      return;
+    }
+    try {
+      inflater.write(cipher.doFinal());
+      inflater.flush();
+      if (!decompressor.finished()) {
+        throw new IOException("Incomplete compressed order data");
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e.getMessage(), e);
+    } finally {
+      inflater.close();
+      decompressor.end();
+      inflater = null;
+    }
+  }
+
   /**
    * Writes the joined part to an output stream.
    * @param output the output stream.
@@ -62,6 +146,9 @@ public class Joiner {
   public void writeTo(OutputStream output, byte[] transactionKey)
     throws EbicsException
   {
+    if (buffer == null) {
+      throw new EbicsException("A streaming joiner writes its data while segments are appended");
+    }
     try {
       byte[]		decrypted;
 
@@ -79,4 +166,29 @@ public class Joiner {
 
   private final EbicsUser			user;
   private final ByteArrayOutputStream		buffer;
+  private OutputStream				output;
+  private byte[]				transactionKey;
+  private Cipher				cipher;
+  private OutputStream				inflater;
+  private Inflater				decompressor;
+
+  /**
+   * Keeps the output open when the inflater stream is closed.
+   */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream compressing its data in the zlib format (RFC 1950)
+ * on several processors.
+ *
+ * <p>The data is cut into blocks that are deflated independently on a
+ * thread pool, each block being primed with the last 32 KiB of the
+ * previous one so that the compression ratio stays close to the one of
+ * a single deflater. Every block but the last one ends with a sync flush,
+ * so that the compressed blocks can be concatenated in order into a
+ * single deflate stream, which is then wrapped into the zlib header and
+ * the Adler-32 checksum of the whole data.
+ *
+ * <p>The data is only compressed by whole blocks: {@link #flush()} does
+ * not compress the pending data, which is written when a block is full
+ * or the stream is closed.
+ *
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+  /**
+   * Constructs a new <code>ParallelDeflaterOutputStream</code>.
+   * @param out the underlying output stream
+   * @param level the compression level
+   * @param blockSize the size of the independently compressed blocks
+   * @param executor the executor compressing the blocks
+   */
+  public ParallelDeflaterOutputStream(OutputStream out, int level, int blockSize, ExecutorService executor) {
+    super(out);
+    this.level = level;
+    this.blockSize = blockSize;
+    this.executor = executor;
+    this.maxPending = 2 * Runtime.getRuntime().availableProcessors();
+    this.pending = new ArrayDeque<>();
+    this.adler = new Adler32();
+    this.block = new byte[blockSize];
+  }
+
+  /**
+   * Constructs a new <code>ParallelDeflaterOutputStream</code> compressing
+   * blocks of 128 KiB on the common fork-join pool.
+   * @param out the underlying output stream
+   * @param level the compression level
+   */
+  public ParallelDeflaterOutputStream(OutputStream out, int level) {
+    this(out, level, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    adler.update(b, off, len);
+    while (len > 0) {
+      int count = Math.min(len, blockSize - length);
+      System.arraycopy(b, off, block, length, count);
+      length += count;
+      off += count;
+      len -= count;
+      if (length == blockSize) {
+        submit(false);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      submit(true);
+      while (!pending.isEmpty()) {
+        drain();
+      }
+      long checksum = adler.getValue();
+      out.write(new byte[] { (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum });
+      out.flush();
+    } finally {
+      for (Future<byte[]> future : pending) {
+        future.cancel(true);
+      }
+      out.close();
+    }
+  }
+
+  /**
+   * Hands the current block to the executor and writes the compressed
+   * blocks that are too far behind.
+   */
+  private void submit(boolean last) throws IOException {
+    byte[]			data;
+    int				dataLength;
+    byte[]			dictionary;
+    int				dictionaryLength;
+
+    if (!headerWritten) {
+      out.write(header(level));
+      headerWritten = true;
+    }
+    data = block;
+    dataLength = length;
+    dictionary = previous;
+    dictionaryLength = previousLength;
+    pending.addLast(executor.submit(() -> compress(data, dataLength, dictionary, dictionaryLength, last)));
+    previous = block;
+    previousLength = length;
+    block = last ? null : new byte[blockSize];
+    length = 0;
+    while (pending.size() > maxPending) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    try {
+      out.write(pending.removeFirst().get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Compression interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Compression failed", e.getCause());
+    }
+  }
+
+  private byte[] compress(byte[] data, int dataLength, byte[] dictionary, int dictionaryLength, boolean last) {
+    Deflater			deflater;
+    ByteArrayOutputStream	output;
+    byte[]			buffer;
+    int				count;
+
+    deflater = new Deflater(level, true);
+    try {
+      if (dictionary != null) {
+        int size = Math.min(dictionaryLength, DICTIONARY_SIZE);
+        deflater.setDictionary(dictionary, dictionaryLength - size, size);
+      }
+      deflater.setInput(data, 0, dataLength);
+      output = new ByteArrayOutputStream(dataLength / 2 + 64);
+      buffer = new byte[BUFFER_SIZE];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          count = deflater.deflate(buffer);
+          output.write(buffer, 0, count);
+        }
+      } else {
+        do {
+          count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          output.write(buffer, 0, count);
+        } while (count == buffer.length);
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Returns the zlib header of a deflate stream with a 32 KiB window.
+   */
+  private static byte[] header(int level) {
+    int				cmf;
+    int				flg;
+
+    cmf = 0x78;
+    if (level == 0 || level == 1) {
+      flg = 0;
+    } else if (level >= 2 && level <= 5) {
+      flg = 1 << 6;
+    } else if (level == 6 || level == Deflater.DEFAULT_COMPRESSION) {
+      flg = 2 << 6;
+    } else {
+      flg = 3 << 6;
+    }
+    flg |= (31 - ((cmf << 8) | flg) % 31) % 31;
+    return new byte[] { (byte) cmf, (byte) flg };
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final int				level;
+  private final int				blockSize;
+  private final ExecutorService			executor;
+  private final int				maxPending;
+  private final Deque<Future<byte[]>>		pending;
+  private final Adler32				adler;
+  private byte[]				block;
+  private int					length;
+  private byte[]				previous;
+  private int					previousLength;
+  private boolean				headerWritten;
+  private boolean				closed;
+
+  private static final int			DEFAULT_BLOCK_SIZE = 128 * 1024;
+  private static final int			DICTIONARY_SIZE = 32 * 1024;
+  private static final int			BUFFER_SIZE = 64 * 1024;
+}
@@ -18,10 +18,32 @@
 
 package org.kopi.ebics.io;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.CompressionPolicy;
 import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsOrderType;
 import org.kopi.ebics.utils.Utils;
 
 
@@ -30,10 +52,16 @@ import org.kopi.ebics.utils.Utils;
  * 1MB portions. this i useful to handle
  * big file uploading.
  *
+ * <p>A splitter built from a <code>ContentFactory</code> works in streaming
+ * mode: the input is compressed and encrypted on the fly into a temporary
+ * spool file and the segments are read back one by one, so that the heap
+ * usage does not depend on the size of the uploaded file. The spool file
+ * is removed by {@link #close()}.
+ *
  * @author Hachani
  *
  */
-public class Splitter {
+public class Splitter implements Closeable {
 
   /**
   * The maximum size of a segment to be put in a request. base64 encoding adds
@@ -41,6 +69,14 @@ public class Splitter {
    * to make sure we stay below that.
   */
   private static final int SEGMENT_SIZE = 700000;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  /**
+   * The input size from which the compression is spread over several
+   * processors, set by the <code>ebics.zip.parallel.threshold</code>
+   * system property.
+   */
+  private static final int PARALLEL_THRESHOLD = Integer.getInteger("ebics.zip.parallel.threshold", 1024 * 1024);
+  private static final CompressionPolicy BEST_COMPRESSION = (orderType, size) -> Deflater.BEST_COMPRESSION;
   /**
    * Constructs a new <code>FileSplitter</code> with a given file.
    * @param input the input byte array
@@ -49,6 +85,34 @@ public class Splitter {
     this.input = input;
   }
 
+  /**
+   * Constructs a new streaming <code>Splitter</code> with a given content.
+   * The content is read once by {@link #readInput(boolean, SecretKeySpec)}.
+   * @param source the content to be split
+   */
+  public Splitter(ContentFactory source) {
+    this.source = source;
+  }
+
+  /**
+   * Opens a splitter over content that is already compressed and encrypted,
+   * such as the content of a journaled upload. The segments are the same as
+   * those of the splitter that produced the content. The file is not
+   * removed by {@link #close()}.
+   * @param content the compressed and encrypted content
+   * @return the splitter
+   */
+  public static Splitter open(File content) {
+    Splitter			splitter;
+
+    splitter = new Splitter((byte[]) null);
+    splitter.spool = content;
+    splitter.keepSpool = true;
+    splitter.contentLength = content.length();
+    splitter.segmentation();
+    return splitter;
+  }
+
   /**
    * Reads the input stream and splits it to segments of 1MB size.
    * 
@@ -74,18 +138,137 @@ public class Splitter {
    */
   public final void readInput(boolean isCompressionEnabled, SecretKeySpec keySpec)
     throws EbicsException
+  {
+    readInput(isCompressionEnabled ? BEST_COMPRESSION : null, null, keySpec);
+  }
+
+  /**
+   * Reads the input stream and splits it to segments of 1MB size,
+   * compressing it with the level chosen by the given policy.
+   * The policy is told about the compression.
+   * @param policy the compression policy, <code>null</code> to disable compression
+   * @param orderType the order type of the input
+   * @param keySpec the secret key spec
+   * @throws EbicsException
+   */
+  public final void readInput(CompressionPolicy policy, EbicsOrderType orderType, SecretKeySpec keySpec)
+    throws EbicsException
   {
     try {
-      if (isCompressionEnabled) {
-	input = Utils.zip(input);
+      if (source != null) {
+        spool(policy, orderType, keySpec);
+        contentLength = spool.length();
+      } else {
+        if (policy != null) {
+          long start = System.nanoTime();
+          int level = policy.getLevel(orderType, input.length);
+          byte[] compressed = input.length >= PARALLEL_THRESHOLD ? parallelZip(input, level) : Utils.zip(input, level);
+          policy.compressed(orderType, level, input.length, compressed.length, System.nanoTime() - start);
+          input = compressed;
+        }
+        content = Utils.encrypt(input, keySpec);
+        contentLength = content.length;
       }
-      content = Utils.encrypt(input, keySpec);
       segmentation();
     } catch (Exception e) {
       throw new EbicsException(e.getMessage());
     }
   }
 
+  /**
+   * Compresses an input on several processors.
+   * @param input the input to be compressed
+   * @param level the compression level
+   * @return the compressed input
+   * @throws IOException
+   */
+  private static byte[] parallelZip(byte[] input, int level) throws IOException {
+    ByteArrayOutputStream	output;
+
+    output = new ByteArrayOutputStream(input.length / 2);
+    try (OutputStream out = new ParallelDeflaterOutputStream(output, level)) {
+      out.write(input);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Compresses and encrypts the source content into the spool file.
+   * The compression is spread over several processors when the content
+   * is at least {@link #PARALLEL_THRESHOLD} long. When the source cannot
+   * tell its length, the first {@link #PARALLEL_THRESHOLD} bytes are read
+   * ahead and their length is a lower bound of the content length. The compression time
+   * given to the policy leaves the reading of the source, the encryption
+   * and the writing of the spool out, as for a content held in memory.
+   * @param policy the compression policy, <code>null</code> to disable compression
+   * @param orderType the order type of the content
+   * @param keySpec the secret key spec
+   * @throws IOException
+   * @throws EbicsException
+   */
+  private void spool(CompressionPolicy policy, EbicsOrderType orderType, SecretKeySpec keySpec)
+    throws IOException, EbicsException
+  {
+    Cipher			cipher;
+    Deflater			deflater;
+    OutputStream		output;
+    TimedOutputStream		encrypted;
+    TimedOutputStream		compressed;
+    byte[]			head;
+    boolean			isCompressionEnabled;
+    int				level;
+    long			length;
+    long			size;
+
+    spool = File.createTempFile("ebics-upload", ".tmp");
+    cipher = Utils.createCipher(Cipher.ENCRYPT_MODE, keySpec);
+    deflater = null;
+    isCompressionEnabled = policy != null;
+    level = Deflater.NO_COMPRESSION;
+
+    try (InputStream in = source.getContent();
+         OutputStream file = new FileOutputStream(spool))
+    {
+      length = source.getContentLength();
+      head = isCompressionEnabled && length < 0 ? in.readNBytes(PARALLEL_THRESHOLD) : new byte[0];
+      if (length < 0) {
+        length = head.length;
+      }
+      if (isCompressionEnabled) {
+        level = policy.getLevel(orderType, length);
+      }
+      encrypted = new TimedOutputStream(new CipherOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), cipher));
+      output = encrypted;
+      if (isCompressionEnabled && length >= PARALLEL_THRESHOLD) {
+        output = new ParallelDeflaterOutputStream(output, level);
+      } else if (isCompressionEnabled) {
+        deflater = new Deflater(level);
+        output = new DeflaterOutputStream(output, deflater, BUFFER_SIZE);
+      }
+
+      compressed = new TimedOutputStream(output);
+
+      try (OutputStream out = compressed) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+
+        out.write(head);
+        size = head.length;
+        while ((len = in.read(buffer)) != -1) {
+          out.write(buffer, 0, len);
+          size += len;
+        }
+      }
+      if (isCompressionEnabled) {
+        policy.compressed(orderType, level, size, spool.length(), compressed.nanos - encrypted.nanos);
+      }
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+  }
+
   /**
    * Slits the input into 1MB portions.
    * 
@@ -98,45 +281,102 @@ public class Splitter {
    */
   private void segmentation() {
 
-    numSegments = content.length / SEGMENT_SIZE;
+    numSegments = (int) (contentLength / SEGMENT_SIZE);
     
-    if (content.length % SEGMENT_SIZE != 0) {
+    if (contentLength % SEGMENT_SIZE != 0) {
       numSegments ++;
     }
 
-    segmentSize = content.length / numSegments;
+    segmentSize = (int) (contentLength / numSegments);
   }
 
   /**
    * Returns the content of a data segment according to
    * a given segment number.
+   * In memory the segment is a read-only view of the content, not a copy.
+   * In streaming mode the segment is read from the spool file.
    * 
    * @param segmentNumber the segment number
    * @return content of a data segment
    */
-  public ContentFactory getContent(int segmentNumber) {
-    byte[]		segment;
-    int			offset;
+  public ByteBufferContentFactory getContent(int segmentNumber) throws EbicsException {
+    ByteBuffer		segment;
+    long		offset;
+    int			length;
 
-    offset = segmentSize * (segmentNumber - 1);
-    if (content.length < segmentSize + offset) {
-      segment = new byte[content.length - offset];
+    offset = (long) segmentSize * (segmentNumber - 1);
+    if (segmentNumber == numSegments || contentLength < segmentSize + offset) {
+      length = (int) (contentLength - offset);
     } else {
-      segment = new byte[segmentSize];
+      length = segmentSize;
     }
 
-    System.arraycopy(content, offset, segment, 0, segment.length);
-    return new ByteArrayContentFactory(segment);
+    if (spool != null) {
+      segment = ByteBuffer.allocate(length);
+      try (FileChannel channel = FileChannel.open(spool.toPath(), StandardOpenOption.READ)) {
+        while (segment.hasRemaining()) {
+          if (channel.read(segment, offset + segment.position()) < 0) {
+            throw new EOFException("Truncated spool file " + spool);
+          }
+        }
+      } catch (IOException e) {
+        throw new EbicsException(e.getMessage());
+      }
+      segment.flip();
+    } else {
+      segment = ByteBuffer.wrap(content, (int) offset, length);
+    }
+    return new ByteBufferContentFactory(segment);
   }
 
   /**
    * Returns the hole content.
+   * In streaming mode the spool file is loaded into memory.
    * @return the input content.
+   * @throws EbicsException the spool file cannot be read
    */
-  public byte[] getContent() {
+  public byte[] getContent() throws EbicsException {
+    if (spool != null) {
+      return IOUtils.getFileContent(spool);
+    }
     return content;
   }
 
+  /**
+   * Moves the compressed and encrypted content to a file, so that it can
+   * outlive the splitter. A spool file is renamed rather than copied, and
+   * the splitter then reads its segments from the target and no longer
+   * removes it.
+   * @param target the file receiving the content
+   * @throws EbicsException the content cannot be moved
+   */
+  public void moveTo(File target) throws EbicsException {
+    try {
+      if (spool != null) {
+        Files.move(spool.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        spool = target;
+        keepSpool = true;
+      } else {
+        Files.write(target.toPath(), content);
+      }
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Removes the spool file of a streaming splitter.
+   */
+  @Override
+  public void close() {
+    if (spool != null) {
+      if (!keepSpool) {
+        spool.delete();
+      }
+      spool = null;
+    }
+  }
+
   /**
    * Returns the total segment number.
    * @return the total segment number.
@@ -151,12 +391,57 @@ public class Splitter {
    */
   int getSegmentSize() { return segmentSize; }
 
+  /**
+   * Measures the time spent writing to an output stream, including the
+   * streams it writes to.
+   */
+  private static class TimedOutputStream extends FilterOutputStream {
+
+    TimedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      long start = System.nanoTime();
+      out.write(b);
+      nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      out.write(b, off, len);
+      nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long start = System.nanoTime();
+      out.flush();
+      nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+      long start = System.nanoTime();
+      out.close();
+      nanos += System.nanoTime() - start;
+    }
+
+    private long				nanos;
+  }
+
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
   private byte[]				input;
   private byte[]				content;
+  private ContentFactory			source;
+  private File					spool;
+  private boolean				keepSpool;
+  private long					contentLength;
   private int					segmentSize;
   private int					numSegments;
 }
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.io;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An append-only log of traces split in rolling segment files.
+ *
+ * <p>Each trace is compressed and appended to the current segment file
+ * <code>trace-NNNNNN.log</code>. A line is appended for it to the index file
+ * <code>trace-NNNNNN.idx</code> of the segment, holding its timestamp, name,
+ * transaction ID, order type, transaction phase, offset and length, tab
+ * separated. A new segment is started once the current one exceeds the
+ * maximum segment size.
+ *
+ * <p>A whole day of traces thus takes a handful of files, and dropping old
+ * traces is a matter of deleting a few segments.
+ *
+ * <p>The class can be run to list the traces of a directory, or to
+ * extract a single trace:
+ * <pre>
+ *   TraceLog &lt;trace directory&gt; [name or transaction ID]
+ * </pre>
+ *
+ */
+public class TraceLog implements Closeable {
+
+  /**
+   * A trace of the index.
+   * @param timestamp when the trace was written, in milliseconds
+   * @param name the element name
+   * @param transactionId the transaction ID, empty if unknown
+   * @param orderType the order type, empty if unknown
+   * @param phase the transaction phase, empty if unknown
+   * @param segment the segment file holding the trace
+   * @param offset the offset of the trace in the segment
+   * @param length the compressed length of the trace
+   */
+  public record Entry(long timestamp,
+                      String name,
+                      String transactionId,
+                      String orderType,
+                      String phase,
+                      File segment,
+                      long offset,
+                      int length)
+  {
+    private String toLine() {
+      return String.join(SEPARATOR,
+                         String.valueOf(timestamp),
+                         name,
+                         transactionId,
+                         orderType,
+                         phase,
+                         String.valueOf(offset),
+                         String.valueOf(length));
+    }
+
+    private static Entry fromLine(File segment, String line) {
+      String[] fields = line.split(SEPARATOR, -1);
+      return new Entry(Long.parseLong(fields[0]),
+                       fields[1],
+                       fields[2],
+                       fields[3],
+                       fields[4],
+                       segment,
+                       Long.parseLong(fields[5]),
+                       Integer.parseInt(fields[6]));
+    }
+  }
+
+  /**
+   * Constructs a new <code>TraceLog</code> appending to a trace directory.
+   * The first segment written follows the segments already present.
+   * @param directory the trace directory
+   * @param maxSegmentSize the size after which a new segment is started
+   */
+  public TraceLog(File directory, long maxSegmentSize) {
+    this.directory = directory;
+    this.maxSegmentSize = maxSegmentSize;
+    this.deflater = new Deflater(Deflater.BEST_SPEED);
+    this.buffer = new ByteArrayOutputStream();
+    this.created = new ArrayList<>();
+  }
+
+  /**
+   * Compresses and appends a trace. The transaction ID, order type and
+   * phase of the index are read from the header of the trace, when it
+   * has one.
+   * @param name the element name
+   * @param content the serialized element
+   * @return the index entry of the trace
+   * @throws IOException the trace cannot be written
+   */
+  public synchronized Entry append(String name, byte[] content) throws IOException {
+    Entry			entry;
+
+    if (segment == null || position >= maxSegmentSize) {
+      roll();
+    }
+    buffer.reset();
+    deflater.reset();
+    deflater.setInput(content);
+    deflater.finish();
+    byte[] chunk = new byte[BUFFER_SIZE];
+    while (!deflater.finished()) {
+      buffer.write(chunk, 0, deflater.deflate(chunk));
+    }
+    buffer.writeTo(segment);
+    segment.flush();
+
+    entry = new Entry(System.currentTimeMillis(),
+                      name,
+                      headerValue(content, "TransactionID"),
+                      orderType(content),
+                      headerValue(content, "TransactionPhase"),
+                      segmentFile,
+                      position,
+                      buffer.size());
+    position += buffer.size();
+    index.write(entry.toLine());
+    index.newLine();
+    index.flush();
+    return entry;
+  }
+
+  /**
+   * Deletes the segments written by this log.
+   * @throws IOException the current segment cannot be closed
+   */
+  public synchronized void delete() throws IOException {
+    close();
+    for (File file : created) {
+      file.delete();
+      indexFile(file).delete();
+    }
+    created.clear();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (segment != null) {
+      segment.close();
+      index.close();
+      segment = null;
+      index = null;
+    }
+  }
+
+  private void roll() throws IOException {
+    close();
+    if (!directory.exists()) {
+      directory.mkdirs();
+    }
+    for (int number = lastSegment(directory) + 1; ; number++) {
+      segmentFile = new File(directory, String.format("%s%06d%s", PREFIX, number, SEGMENT_SUFFIX));
+      try {
+        // another writer may roll to the same segment at the same time
+        segment = Files.newOutputStream(segmentFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        break;
+      } catch (FileAlreadyExistsException e) {
+        // try the next segment
+      }
+    }
+    index = Files.newBufferedWriter(indexFile(segmentFile).toPath(), StandardCharsets.UTF_8);
+    position = 0;
+    created.add(segmentFile);
+  }
+
+  /**
+   * Lists the traces of a trace directory, oldest first.
+   * @param directory the trace directory
+   * @return the index entries
+   * @throws IOException an index cannot be read
+   */
+  public static List<Entry> list(File directory) throws IOException {
+    List<Entry>			entries;
+
+    entries = new ArrayList<>();
+    for (File segment : segments(directory)) {
+      File index = indexFile(segment);
+      if (index.exists()) {
+        for (String line : Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)) {
+          if (!line.isEmpty()) {
+            entries.add(Entry.fromLine(segment, line));
+          }
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Reads and decompresses a single trace.
+   * @param entry the index entry of the trace
+   * @return the serialized element
+   * @throws IOException the trace cannot be read
+   */
+  public static byte[] read(Entry entry) throws IOException {
+    byte[]			compressed;
+    Inflater			inflater;
+    ByteArrayOutputStream	output;
+
+    compressed = new byte[entry.length()];
+    try (RandomAccessFile file = new RandomAccessFile(entry.segment(), "r")) {
+      file.seek(entry.offset());
+      file.readFully(compressed);
+    }
+    inflater = new Inflater();
+    output = new ByteArrayOutputStream();
+    try {
+      inflater.setInput(compressed);
+      byte[] chunk = new byte[BUFFER_SIZE];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(chunk);
+        if (n == 0 && inflater.needsInput()) {
+          throw new IOException("Truncated trace " + entry.name());
+        }
+        output.write(chunk, 0, n);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e.getMessage());
+    } finally {
+      inflater.end();
+    }
+    return output.toByteArray();
+  }
+
+  private static File[] segments(File directory) {
+    File[] segments = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (segments == null) {
+      return new File[0];
+    }
+    Arrays.sort(segments);
+    return segments;
+  }
+
+  private static int lastSegment(File directory) {
+    File[] segments = segments(directory);
+    if (segments.length == 0) {
+      return 0;
+    }
+    String name = segments[segments.length - 1].getName();
+    return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static File indexFile(File segment) {
+    String name = segment.getName();
+    return new File(segment.getParentFile(),
+                    name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+  }
+
+  private static String orderType(byte[] content) {
+    String orderType = headerValue(content, "AdminOrderType");
+    return orderType.isEmpty() ? headerValue(content, "OrderType") : orderType;
+  }
+
+  /**
+   * Returns the text of the first element with the given local name found
+   * in the header of a serialized element, or an empty string.
+   */
+  private static String headerValue(byte[] content, String localName) {
+    String			header;
+    int				start;
+    int				end;
+
+    header = new String(content, 0, Math.min(content.length, HEADER_SIZE), StandardCharsets.UTF_8);
+    start = header.indexOf(localName + ">");
+    while (start > 0 && header.charAt(start - 1) != '<' && header.charAt(start - 1) != ':') {
+      start = header.indexOf(localName + ">", start + 1);
+    }
+    if (start < 0) {
+      return "";
+    }
+    start += localName.length() + 1;
+    end = header.indexOf('<', start);
+    return end < 0 ? "" : header.substring(start, end).trim();
+  }
+
+  /**
+   * Lists the traces of a directory or writes a single trace to the
+   * standard output.
+   * @param args the trace directory, then the name or transaction ID of the trace
+   * @throws IOException the traces cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: TraceLog <trace directory> [name or transaction ID]");
+      System.exit(1);
+    }
+
+    File directory = new File(args[0]);
+    for (Entry entry : list(directory)) {
+      if (args.length == 1) {
+        System.out.println(entry.toLine().replace(SEPARATOR, " ") + " " + entry.segment().getName());
+      } else if (entry.name().equals(args[1]) || entry.transactionId().equalsIgnoreCase(args[1])) {
+        OutputStream out = System.out;
+        out.write(read(entry));
+        out.write('\n');
+        out.flush();
+      }
+    }
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final File				directory;
+  private final long				maxSegmentSize;
+  private final Deflater			deflater;
+  private final ByteArrayOutputStream		buffer;
+  private final List<File>			created;
+  private File					segmentFile;
+  private OutputStream				segment;
+  private BufferedWriter			index;
+  private long					position;
+
+  private static final String			PREFIX = "trace-";
+  private static final String			SEGMENT_SUFFIX = ".log";
+  private static final String			INDEX_SUFFIX = ".idx";
+  private static final String			SEPARATOR = "\t";
+  private static final int			BUFFER_SIZE = 8192;
+  private static final int			HEADER_SIZE = 4096;
+}
@@ -25,7 +25,6 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
 import java.security.interfaces.RSAPublicKey;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -35,6 +34,7 @@ import org.apache.commons.codec.binary.Hex;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.InitLetter;
 import org.kopi.ebics.messages.Messages;
+import org.kopi.ebics.utils.Utils;
 
 
 public abstract class AbstractInitLetter implements InitLetter {
@@ -107,7 +107,7 @@ public abstract class AbstractInitLetter implements InitLetter {
    */
   protected byte[] getHash(byte[] certificate) throws GeneralSecurityException {
     String hash256 = new String(
-        Hex.encodeHex(MessageDigest.getInstance("SHA-256").digest(certificate), false));
+        Hex.encodeHex(Utils.getCryptoEngine().digest(certificate), false));
     return format(hash256).getBytes();
   }
 
@@ -126,8 +126,7 @@ public abstract class AbstractInitLetter implements InitLetter {
         }
 
         try {
-          digest = MessageDigest.getInstance("SHA-256", "BC").digest(hash.getBytes(
-              StandardCharsets.US_ASCII));
+          digest = Utils.getCryptoEngine().digest(hash.getBytes(StandardCharsets.US_ASCII));
         } catch (GeneralSecurityException e) {
           throw new EbicsException(e.getMessage());
         }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.security;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the JCA provider of each primitive of a {@link PooledCryptoEngine}.
+ *
+ * <p>The provider of a primitive is given by the
+ * <code>ebics.crypto.provider.&lt;primitive&gt;</code> system property,
+ * where the primitive is one of <code>digest</code>, <code>cipher</code>,
+ * <code>signature</code> and <code>keycipher</code>, and otherwise by the
+ * <code>ebics.crypto.provider</code> system property. The value is either
+ * a provider name or <code>auto</code>.
+ *
+ * <p>The digests and AES ciphers default to the JDK providers, which use
+ * the SHA and AES instructions of the processor where BouncyCastle cannot,
+ * while the RSA primitives default to BouncyCastle. With <code>auto</code>,
+ * every installed provider of the primitive is checked against BouncyCastle,
+ * the reference provider, and the fastest of the conforming providers is
+ * selected. The benchmark takes a few seconds, so it only runs when a
+ * primitive is configured with <code>auto</code>. Any other provider that
+ * is not installed or does not conform is replaced by BouncyCastle.
+ *
+ */
+public final class CryptoProviders {
+
+  private CryptoProviders() {
+  }
+
+  /**
+   * The primitives of a crypto engine.
+   */
+  public enum Primitive {
+    /** The SHA-256 digest. */
+    DIGEST("digest", "SUN"),
+    /** The AES order data cipher. */
+    CIPHER("cipher", "SunJCE"),
+    /** The SHA256withRSA signature. */
+    SIGNATURE("signature", REFERENCE),
+    /** The RSA transaction key cipher. */
+    KEY_CIPHER("keycipher", REFERENCE);
+
+    Primitive(String key, String defaultProvider) {
+      this.key = key;
+      this.defaultProvider = defaultProvider;
+    }
+
+    private final String		key;
+    private final String		defaultProvider;
+  }
+
+  /**
+   * Selects the providers of all primitives according to the system properties.
+   * @return the selected providers
+   */
+  public static PooledCryptoEngine.Providers select() {
+    if (Security.getProvider(REFERENCE) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+    return new PooledCryptoEngine.Providers(select(Primitive.DIGEST),
+                                            select(Primitive.CIPHER),
+                                            select(Primitive.SIGNATURE),
+                                            select(Primitive.KEY_CIPHER));
+  }
+
+  private static String select(Primitive primitive) {
+    String			provider;
+
+    provider = System.getProperty(PROPERTY + "." + primitive.key,
+                                  System.getProperty(PROPERTY, primitive.defaultProvider));
+    if (AUTO.equals(provider)) {
+      provider = fastest(primitive);
+      log.info("Selected {} provider for {}", provider, primitive.key);
+    } else if (!provider.equals(REFERENCE) && !isUsable(primitive, provider)) {
+      log.warn("Provider {} is not usable for {}, using {}", provider, primitive.key, REFERENCE);
+      provider = REFERENCE;
+    }
+    return provider;
+  }
+
+  /**
+   * Checks that a provider is installed and gives the same results as
+   * the reference provider.
+   */
+  private static boolean isUsable(Primitive primitive, String provider) {
+    if (Security.getProvider(provider) == null) {
+      return false;
+    }
+    try {
+      return conforms(primitive, provider);
+    } catch (GeneralSecurityException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the fastest installed provider of a primitive that gives the
+   * same results as the reference provider.
+   * @param primitive the primitive
+   * @return the provider name, the reference provider when no other conforms
+   */
+  public static String fastest(Primitive primitive) {
+    String			fastest;
+    long			best;
+
+    fastest = REFERENCE;
+    try {
+      best = benchmark(operation(primitive, REFERENCE));
+    } catch (GeneralSecurityException e) {
+      log.warn("Cannot benchmark the reference provider for " + primitive.key, e);
+      return REFERENCE;
+    }
+    for (Provider provider : Security.getProviders()) {
+      if (provider.getName().equals(REFERENCE)) {
+        continue;
+      }
+      try {
+        if (!conforms(primitive, provider.getName())) {
+          log.debug("Provider {} does not conform for {}", provider.getName(), primitive.key);
+          continue;
+        }
+        long time = benchmark(operation(primitive, provider.getName()));
+        log.debug("Provider {} takes {} ns for {}, {} takes {} ns", provider.getName(), time, primitive.key, fastest, best);
+        if (time < best) {
+          fastest = provider.getName();
+          best = time;
+        }
+      } catch (GeneralSecurityException | RuntimeException e) {
+        // the provider does not implement the primitive
+      }
+    }
+    return fastest;
+  }
+
+  /**
+   * Checks that a provider gives the same results as the reference provider.
+   * The AES padding and the RSA encryption padding are random, so ciphers
+   * are checked by decrypting the output of each other.
+   */
+  static boolean conforms(Primitive primitive, String provider) throws GeneralSecurityException {
+    switch (primitive) {
+    case DIGEST:
+      return Arrays.equals(digest(REFERENCE).run(), digest(provider).run());
+    case SIGNATURE:
+      return Arrays.equals(sign(REFERENCE).run(), sign(provider).run());
+    case CIPHER:
+      byte[] reference = crypt(REFERENCE, Cipher.ENCRYPT_MODE, DATA);
+      byte[] candidate = crypt(provider, Cipher.ENCRYPT_MODE, DATA);
+      return reference.length == candidate.length
+        && Arrays.equals(reference, 0, reference.length - 16, candidate, 0, candidate.length - 16)
+        && Arrays.equals(DATA, crypt(REFERENCE, Cipher.DECRYPT_MODE, candidate))
+        && Arrays.equals(DATA, crypt(provider, Cipher.DECRYPT_MODE, reference));
+    case KEY_CIPHER:
+      byte[] key = Arrays.copyOf(DATA, 16);
+      return Arrays.equals(key, rsa(provider, Cipher.DECRYPT_MODE, rsa(REFERENCE, Cipher.ENCRYPT_MODE, key)))
+        && Arrays.equals(key, rsa(REFERENCE, Cipher.DECRYPT_MODE, rsa(provider, Cipher.ENCRYPT_MODE, key)));
+    default:
+      return false;
+    }
+  }
+
+  private static Operation operation(Primitive primitive, String provider) throws GeneralSecurityException {
+    switch (primitive) {
+    case DIGEST:
+      return digest(provider);
+    case CIPHER:
+      Cipher cipher = Cipher.getInstance(PooledCryptoEngine.CIPHER_TRANSFORMATION, provider);
+      return () -> {
+        cipher.init(Cipher.ENCRYPT_MODE, KEY, IV);
+        return cipher.doFinal(DATA);
+      };
+    case SIGNATURE:
+      return sign(provider);
+    case KEY_CIPHER:
+      Cipher keyCipher = Cipher.getInstance(PooledCryptoEngine.KEY_CIPHER_TRANSFORMATION, provider);
+      keyCipher.init(Cipher.DECRYPT_MODE, keyPair().getPrivate());
+      byte[] encrypted = rsa(REFERENCE, Cipher.ENCRYPT_MODE, Arrays.copyOf(DATA, 16));
+      return () -> keyCipher.doFinal(encrypted);
+    default:
+      throw new IllegalArgumentException(primitive.name());
+    }
+  }
+
+  private static Operation digest(String provider) throws GeneralSecurityException {
+    MessageDigest digest = MessageDigest.getInstance(PooledCryptoEngine.DIGEST_ALGORITHM, provider);
+    return () -> digest.digest(DATA);
+  }
+
+  private static Operation sign(String provider) throws GeneralSecurityException {
+    Signature signature = Signature.getInstance(PooledCryptoEngine.SIGNATURE_ALGORITHM, provider);
+    signature.initSign(keyPair().getPrivate());
+    return () -> {
+      signature.update(DATA, 0, 1024);
+      return signature.sign();
+    };
+  }
+
+  private static byte[] crypt(String provider, int mode, byte[] input) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(PooledCryptoEngine.CIPHER_TRANSFORMATION, provider);
+    cipher.init(mode, KEY, IV);
+    return cipher.doFinal(input);
+  }
+
+  private static byte[] rsa(String provider, int mode, byte[] input) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(PooledCryptoEngine.KEY_CIPHER_TRANSFORMATION, provider);
+    cipher.init(mode, mode == Cipher.ENCRYPT_MODE ? keyPair().getPublic() : keyPair().getPrivate());
+    return cipher.doFinal(input);
+  }
+
+  /**
+   * Returns the best time of an operation in nanoseconds, after warming
+   * it up long enough for the JIT compiler to use the processor intrinsics.
+   */
+  private static long benchmark(Operation operation) throws GeneralSecurityException {
+    long			best;
+
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      operation.run();
+    }
+    best = Long.MAX_VALUE;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      long start = System.nanoTime();
+      operation.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  private static synchronized KeyPair keyPair() throws GeneralSecurityException {
+    if (keyPair == null) {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", REFERENCE);
+      generator.initialize(2048);
+      keyPair = generator.generateKeyPair();
+    }
+    return keyPair;
+  }
+
+  /**
+   * A benchmarked operation.
+   */
+  private interface Operation {
+    byte[] run() throws GeneralSecurityException;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private static KeyPair			keyPair;
+
+  private static final String			PROPERTY = "ebics.crypto.provider";
+  private static final String			AUTO = "auto";
+  private static final String			REFERENCE = BouncyCastleProvider.PROVIDER_NAME;
+  private static final int			WARMUP_RUNS = 200;
+  private static final int			MEASURED_RUNS = 20;
+  private static final byte[]			DATA = new byte[64 * 1024];
+  private static final SecretKeySpec		KEY = new SecretKeySpec(new byte[16], "AES");
+  private static final IvParameterSpec		IV = new IvParameterSpec(new byte[16]);
+  private static final Logger			log = LoggerFactory.getLogger(CryptoProviders.class);
+
+  static {
+    new Random(0).nextBytes(DATA);
+  }
+}
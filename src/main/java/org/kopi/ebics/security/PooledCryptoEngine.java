@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.security;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAKey;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.kopi.ebics.interfaces.CryptoEngine;
+
+/**
+ * A <code>CryptoEngine</code> reusing its primitives.
+ *
+ * <p>Looking up an algorithm in a JCA provider is synchronized and far
+ * more expensive than the operation itself for the small inputs of the
+ * EBICS protocol. The digests and ciphers are therefore kept in bounded
+ * pools once used, and the signers and decrypters keep their primitives
+ * initialized with their private key, which also saves the key setup.
+ *
+ * <p>A primitive is only returned to its pool once its operation
+ * completed, since a failed operation may leave it in an unknown state.
+ *
+ * <p>Each primitive may come from a distinct JCA provider, see
+ * {@link CryptoProviders} for their selection.
+ *
+ */
+public class PooledCryptoEngine implements CryptoEngine {
+
+  /**
+   * The JCA providers of the primitives, by provider name.
+   * @param digest the provider of the SHA-256 digests
+   * @param cipher the provider of the AES order data ciphers
+   * @param signature the provider of the SHA256withRSA signatures
+   * @param keyCipher the provider of the RSA transaction key ciphers
+   */
+  public record Providers(String digest, String cipher, String signature, String keyCipher) {
+
+    /**
+     * Returns the providers taking every primitive from the same provider.
+     * @param provider the provider name
+     * @return the providers
+     */
+    public static Providers of(String provider) {
+      return new Providers(provider, provider, provider, provider);
+    }
+  }
+
+  /**
+   * Constructs a new <code>PooledCryptoEngine</code>.
+   * @param providers the JCA providers of the primitives
+   * @param poolSize how many instances of each primitive are kept
+   */
+  public PooledCryptoEngine(Providers providers, int poolSize) {
+    this.providers = providers;
+    this.poolSize = Math.max(1, poolSize);
+    this.digests = new Pool<>(this.poolSize, () -> MessageDigest.getInstance(DIGEST_ALGORITHM, providers.digest()));
+    this.ciphers = new Pool<>(this.poolSize, () -> Cipher.getInstance(CIPHER_TRANSFORMATION, providers.cipher()));
+    this.keyCiphers = new Pool<>(this.poolSize, () -> Cipher.getInstance(KEY_CIPHER_TRANSFORMATION, providers.keyCipher()));
+  }
+
+  /**
+   * Constructs a new <code>PooledCryptoEngine</code> keeping as many
+   * instances of each primitive as there are processors.
+   * @param providers the JCA providers of the primitives
+   */
+  public PooledCryptoEngine(Providers providers) {
+    this(providers, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a new <code>PooledCryptoEngine</code> taking every
+   * primitive from the same provider.
+   * @param provider the name of the JCA provider of the algorithms
+   */
+  public PooledCryptoEngine(String provider) {
+    this(Providers.of(provider));
+  }
+
+  @Override
+  public byte[] digest(byte[] input) throws GeneralSecurityException {
+    MessageDigest		digest;
+    byte[]			value;
+
+    digest = digests.take();
+    value = digest.digest(input);
+    digests.give(digest);
+    return value;
+  }
+
+  @Override
+  public MessageDigest createDigest() throws GeneralSecurityException {
+    return MessageDigest.getInstance(DIGEST_ALGORITHM, providers.digest());
+  }
+
+  @Override
+  public byte[] crypt(int mode, byte[] input, SecretKeySpec keySpec) throws GeneralSecurityException {
+    Cipher			cipher;
+    byte[]			output;
+
+    cipher = ciphers.take();
+    cipher.init(mode, aes(keySpec), new IvParameterSpec(new byte[16]));
+    output = cipher.doFinal(input);
+    ciphers.give(cipher);
+    return output;
+  }
+
+  @Override
+  public Cipher createCipher(int mode, SecretKeySpec keySpec) throws GeneralSecurityException {
+    Cipher			cipher;
+
+    cipher = Cipher.getInstance(CIPHER_TRANSFORMATION, providers.cipher());
+    cipher.init(mode, aes(keySpec), new IvParameterSpec(new byte[16]));
+    return cipher;
+  }
+
+  @Override
+  public byte[] encrypt(byte[] input, PublicKey key) throws GeneralSecurityException {
+    Cipher			cipher;
+    byte[]			output;
+
+    cipher = keyCiphers.take();
+    cipher.init(Cipher.ENCRYPT_MODE, key);
+    output = cipher.doFinal(input);
+    keyCiphers.give(cipher);
+    return output;
+  }
+
+  @Override
+  public Signer createSigner(PrivateKey key) {
+    Pool<Signature>		signatures;
+
+    signatures = new Pool<>(poolSize, () -> {
+      Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM, providers.signature());
+      signature.initSign(key);
+      return signature;
+    });
+
+    return content -> {
+      Signature signature = signatures.take();
+      content.update(signature);
+      byte[] value = signature.sign();
+      signatures.give(signature);
+      return value;
+    };
+  }
+
+  @Override
+  public Decrypter createDecrypter(PrivateKey key) {
+    Pool<Cipher>		ciphers;
+    int				blockSize;
+
+    // not every provider reports the block size of an RSA cipher
+    blockSize = (((RSAKey) key).getModulus().bitLength() + 7) / 8;
+
+    ciphers = new Pool<>(poolSize, () -> {
+      Cipher cipher = Cipher.getInstance(KEY_CIPHER_TRANSFORMATION, providers.keyCipher());
+      cipher.init(Cipher.DECRYPT_MODE, key);
+      return cipher;
+    });
+
+    return input -> {
+      Cipher cipher = ciphers.take();
+      ByteArrayOutputStream output = new ByteArrayOutputStream(input.length);
+      for (int j = 0; j * blockSize < input.length; j++) {
+        output.writeBytes(cipher.doFinal(input, j * blockSize, blockSize));
+      }
+      ciphers.give(cipher);
+      return output.toByteArray();
+    };
+  }
+
+  /**
+   * Returns the key spec as an AES key. Only the key bytes matter to
+   * BouncyCastle, while the JDK provider also checks the algorithm name.
+   */
+  private static SecretKeySpec aes(SecretKeySpec keySpec) {
+    return "AES".equalsIgnoreCase(keySpec.getAlgorithm()) ? keySpec : new SecretKeySpec(keySpec.getEncoded(), "AES");
+  }
+
+  /**
+   * Returns the JCA providers of the primitives.
+   * @return the providers
+   */
+  public Providers getProviders() {
+    return providers;
+  }
+
+  /**
+   * A bounded pool of primitives. The pool is empty at first and only
+   * keeps the primitives given back to it.
+   */
+  private static class Pool<T> {
+
+    Pool(int capacity, Factory<T> factory) {
+      this.instances = new ArrayBlockingQueue<>(capacity);
+      this.factory = factory;
+    }
+
+    T take() throws GeneralSecurityException {
+      T instance = instances.poll();
+      return instance != null ? instance : factory.create();
+    }
+
+    void give(T instance) {
+      instances.offer(instance);
+    }
+
+    private final BlockingQueue<T>		instances;
+    private final Factory<T>			factory;
+  }
+
+  /**
+   * Creates the primitives of a pool.
+   */
+  private interface Factory<T> {
+    T create() throws GeneralSecurityException;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final Providers			providers;
+  private final int				poolSize;
+  private final Pool<MessageDigest>		digests;
+  private final Pool<Cipher>			ciphers;
+  private final Pool<Cipher>			keyCiphers;
+
+  static final String				DIGEST_ALGORITHM = "SHA-256";
+  static final String				SIGNATURE_ALGORITHM = "SHA256WithRSA";
+  static final String				CIPHER_TRANSFORMATION = "AES/CBC/ISO10126Padding";
+  static final String				KEY_CIPHER_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.kopi.ebics.interfaces.CompressionPolicy;
+import org.kopi.ebics.interfaces.EbicsOrderType;
+
+/**
+ * A compression policy choosing the level that minimizes the time to
+ * compress and send the data.
+ *
+ * <p>For each order type and candidate level, the policy keeps a moving
+ * average of the compression time per byte and of the compression ratio,
+ * and it keeps a moving average of the transfer time per byte of the
+ * large requests. The chosen level minimizes the compression time plus
+ * the transfer time of the compressed data, base64 encoded.
+ *
+ * <p>Each candidate level is first tried once per order type, and the
+ * least recently measured level is tried again every
+ * {@link #EXPLORATION_INTERVAL} choices to follow the changes of the
+ * link and of the data. Small data, and any data as long as no large
+ * transfer was measured, get the level of the fallback policy.
+ *
+ */
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+
+  /**
+   * Constructs a new <code>AdaptiveCompressionPolicy</code>.
+   * @param fallback the policy of the small data
+   * @param levels the candidate levels
+   * @param minSize the size from which the level is adapted
+   */
+  public AdaptiveCompressionPolicy(CompressionPolicy fallback, int[] levels, long minSize) {
+    this.fallback = fallback;
+    this.levels = levels.clone();
+    this.minSize = minSize;
+    this.statistics = new HashMap<>();
+  }
+
+  @Override
+  public synchronized int getLevel(EbicsOrderType orderType, long size) {
+    Statistics[]		stats;
+    int				best;
+    double			bestTime;
+
+    if (size < minSize || linkNanosPerByte == 0) {
+      return fallback.getLevel(orderType, size);
+    }
+    stats = statistics(orderType);
+    choices++;
+    for (int i = 0; i < levels.length; i++) {
+      if (stats[i] == null) {
+        return levels[i];
+      }
+    }
+    if (choices % EXPLORATION_INTERVAL == 0) {
+      best = 0;
+      for (int i = 1; i < levels.length; i++) {
+        if (stats[i].updated < stats[best].updated) {
+          best = i;
+        }
+      }
+      return levels[best];
+    }
+    best = 0;
+    bestTime = Double.MAX_VALUE;
+    for (int i = 0; i < levels.length; i++) {
+      double time = stats[i].nanosPerByte + stats[i].ratio * BASE64_EXPANSION * linkNanosPerByte;
+      if (time < bestTime) {
+        best = i;
+        bestTime = time;
+      }
+    }
+    return levels[best];
+  }
+
+  @Override
+  public synchronized void compressed(EbicsOrderType orderType, int level, long size, long compressedSize, long nanos) {
+    Statistics[]		stats;
+
+    if (size < minSize) {
+      return;
+    }
+    stats = statistics(orderType);
+    for (int i = 0; i < levels.length; i++) {
+      if (levels[i] == level) {
+        if (stats[i] == null) {
+          stats[i] = new Statistics((double) nanos / size, (double) compressedSize / size);
+        } else {
+          stats[i].nanosPerByte = average(stats[i].nanosPerByte, (double) nanos / size);
+          stats[i].ratio = average(stats[i].ratio, (double) compressedSize / size);
+        }
+        stats[i].updated = choices;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void transferred(long size, long nanos) {
+    if (size < MIN_TRANSFER_SIZE) {
+      return;
+    }
+    linkNanosPerByte = linkNanosPerByte == 0 ? (double) nanos / size : average(linkNanosPerByte, (double) nanos / size);
+  }
+
+  private Statistics[] statistics(EbicsOrderType orderType) {
+    return statistics.computeIfAbsent(orderType == null ? "" : orderType.getCode(),
+                                      code -> new Statistics[levels.length]);
+  }
+
+  private static double average(double average, double sample) {
+    return average + SMOOTHING * (sample - average);
+  }
+
+  /**
+   * The measures of a compression level for an order type.
+   */
+  private static class Statistics {
+
+    Statistics(double nanosPerByte, double ratio) {
+      this.nanosPerByte = nanosPerByte;
+      this.ratio = ratio;
+    }
+
+    private double				nanosPerByte;
+    private double				ratio;
+    private long				updated;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final CompressionPolicy		fallback;
+  private final int[]				levels;
+  private final long				minSize;
+  private final Map<String, Statistics[]>	statistics;
+  private double				linkNanosPerByte;
+  private long					choices;
+
+  /**
+   * How often a level is measured again.
+   */
+  public static final int			EXPLORATION_INTERVAL = 16;
+
+  private static final double			SMOOTHING = 0.3;
+  private static final double			BASE64_EXPANSION = 4.0 / 3;
+  private static final long			MIN_TRANSFER_SIZE = 64 * 1024;
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>AsyncTraceManager</code> writes the traces on a background
+ * thread so that disk latency never stalls a transfer.
+ *
+ * <p>Elements are serialized on the calling thread, since they may change
+ * once traced, and the bytes are handed to the writer through a bounded
+ * queue. When the queue is full the caller either waits for the writer
+ * ({@link OverflowPolicy#BLOCK}) or the trace is dropped
+ * ({@link OverflowPolicy#DROP}). Should the writer die, the traces are
+ * written on the calling thread instead of waiting for it.
+ *
+ * <p>{@link #clear()} and {@link #close()} wait for the pending traces,
+ * so that no trace is written after the traces of a session are cleared.
+ *
+ */
+public class AsyncTraceManager extends DefaultTraceManager {
+
+  /**
+   * What to do with a trace when the queue of the writer is full.
+   */
+  public enum OverflowPolicy {
+    /** Wait until the writer has room for the trace. */
+    BLOCK,
+    /** Give the trace up. */
+    DROP
+  }
+
+  /**
+   * Constructs a new <code>AsyncTraceManager</code> and starts its writer.
+   * @param traceDir the trace directory
+   * @param isTraceEnabled is trace enabled?
+   * @param capacity the number of traces waiting to be written
+   * @param policy what to do when the queue is full
+   */
+  public AsyncTraceManager(File traceDir, boolean isTraceEnabled, int capacity, OverflowPolicy policy) {
+    super(traceDir, isTraceEnabled);
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.policy = policy;
+    this.lock = new Object();
+    this.dropped = new AtomicLong();
+    writer = new Thread(this::drain, "ebics-trace-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+    ByteArrayOutputStream	out;
+    Trace			trace;
+
+    synchronized (lock) {
+      if (closed || !writer.isAlive()) {
+        super.trace(element, traceDir);
+        return;
+      }
+      pending++;
+    }
+    try {
+      out = new ByteArrayOutputStream();
+      element.save(out);
+      trace = new Trace(getTraceFile(element, traceDir), out.toByteArray());
+      if (!enqueue(trace)) {
+        done();
+        dropped.incrementAndGet();
+        log.warn("Trace queue full, dropping {}", trace.file().getName());
+        return;
+      }
+    } catch (EbicsException | RuntimeException e) {
+      done();
+      throw e;
+    }
+    addTraceFile(trace.file());
+  }
+
+  private boolean enqueue(Trace trace) throws EbicsException {
+    if (policy == OverflowPolicy.DROP) {
+      return queue.offer(trace);
+    }
+    try {
+      while (!queue.offer(trace, WRITER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+        if (!writer.isAlive()) {
+          write(trace);
+          done();
+          return true;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  private void drain() {
+    for (;;) {
+      Trace			trace;
+
+      try {
+        trace = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (trace == END) {
+        return;
+      }
+      try {
+        write(trace);
+      } finally {
+        done();
+      }
+    }
+  }
+
+  private void write(Trace trace) {
+    try {
+      Files.write(trace.file().toPath(), trace.content());
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot write trace {}", trace.file(), e);
+    }
+  }
+
+  private void done() {
+    synchronized (lock) {
+      pending--;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits for the pending traces. The traces left in the queue by a
+   * writer that died are written on the calling thread.
+   */
+  @Override
+  public void flush() {
+    Trace			trace;
+
+    synchronized (lock) {
+      while (pending > 0 && writer.isAlive()) {
+        try {
+          lock.wait(WRITER_CHECK_INTERVAL);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    if (!writer.isAlive()) {
+      while ((trace = queue.poll()) != null) {
+        if (trace != END) {
+          write(trace);
+          done();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    flush();
+    super.clear();
+  }
+
+  /**
+   * Writes the pending traces and stops the writer. Elements traced
+   * afterwards are written on the calling thread.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    flush();
+    queue.offer(END);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the number of traces dropped because the queue was full.
+   * @return the number of dropped traces
+   */
+  public long getDroppedTraces() {
+    return dropped.get();
+  }
+
+  /**
+   * A serialized element waiting to be written.
+   */
+  private record Trace(File file, byte[] content) {}
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final BlockingQueue<Trace>		queue;
+  private final OverflowPolicy			policy;
+  private final Thread				writer;
+  private final Object				lock;
+  private final AtomicLong			dropped;
+  private int					pending;
+  private boolean				closed;
+
+  private static final Trace			END = new Trace(null, null);
+  private static final long			SHUTDOWN_TIMEOUT = 60;
+  private static final long			WRITER_CHECK_INTERVAL = 100;
+  private static final Logger			log = LoggerFactory.getLogger(AsyncTraceManager.class);
+}
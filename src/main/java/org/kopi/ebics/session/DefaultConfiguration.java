@@ -23,7 +23,9 @@ import java.util.Locale;
 import java.util.MissingResourceException;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.zip.Deflater;
 
+import org.kopi.ebics.interfaces.CompressionPolicy;
 import org.kopi.ebics.interfaces.Configuration;
 import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.interfaces.LetterManager;
@@ -49,7 +51,92 @@ public class DefaultConfiguration implements Configuration {
     bundle = ResourceBundle.getBundle(RESOURCE_DIR);
     this.properties = properties;
     serializationManager = new DefaultSerializationManager();
-    traceManager = new DefaultTraceManager();
+    traceManager = createTraceManager();
+    compressionPolicy = createCompressionPolicy();
+  }
+
+  /**
+   * Creates the compression policy. The <code>compression.levels</code> property
+   * gives the levels by order type and size band, see {@link StaticCompressionPolicy},
+   * and the <code>compression.policy</code> property set to <code>adaptive</code>
+   * adapts the level of the large files to the measured compression and
+   * transfer speeds, see {@link AdaptiveCompressionPolicy}.
+   * @return the compression policy
+   */
+  private CompressionPolicy createCompressionPolicy() {
+    StaticCompressionPolicy	levels;
+
+    if (properties == null) {
+      return new StaticCompressionPolicy(Deflater.BEST_COMPRESSION);
+    }
+    levels = StaticCompressionPolicy.parse(properties.getProperty("compression.levels", "*=9"));
+    if (!"adaptive".equalsIgnoreCase(properties.getProperty("compression.policy", "").trim())) {
+      return levels;
+    }
+    return new AdaptiveCompressionPolicy(levels, ADAPTIVE_COMPRESSION_LEVELS, ADAPTIVE_COMPRESSION_SIZE);
+  }
+
+  /**
+   * Creates the trace manager. The <code>trace.policy</code> property
+   * selects which elements are traced: <code>off</code>, <code>errors</code>
+   * (the last <code>trace.ring.size</code> elements of failed transactions,
+   * holding at most <code>trace.ring.bytes</code> bytes),
+   * <code>sampled</code> (one transaction out of <code>trace.sample.rate</code>)
+   * or <code>full</code>, the default.
+   * @return the trace manager
+   */
+  private TraceManager createTraceManager() {
+    TraceManager		store;
+    PolicyTraceManager.Policy	policy;
+
+    store = createTraceStore();
+    if (properties == null) {
+      return store;
+    }
+    policy = PolicyTraceManager.Policy.valueOf(
+      properties.getProperty("trace.policy", "full").trim().toUpperCase(Locale.ROOT));
+    if (policy == PolicyTraceManager.Policy.FULL) {
+      return store;
+    }
+    return new PolicyTraceManager(store,
+                                  policy,
+                                  Integer.parseInt(properties.getProperty("trace.sample.rate",
+                                                                          String.valueOf(TRACE_SAMPLE_RATE)).trim()),
+                                  Integer.parseInt(properties.getProperty("trace.ring.size",
+                                                                          String.valueOf(TRACE_RING_SIZE)).trim()),
+                                  Long.parseLong(properties.getProperty("trace.ring.bytes",
+                                                                        String.valueOf(TRACE_RING_BYTES)).trim()));
+  }
+
+  /**
+   * Creates the manager writing the traces. With the <code>trace.store</code> property set
+   * to <code>segmented</code>, traces are appended to a {@link org.kopi.ebics.io.TraceLog}
+   * whose segments are rolled every <code>trace.segment.size</code> bytes.
+   * Otherwise each trace is written to its own file, on a background thread
+   * when the <code>trace.async</code> property is <code>true</code>, through a
+   * queue of <code>trace.queue.capacity</code> traces that either blocks
+   * or drops traces when full, according to <code>trace.queue.policy</code>.
+   * @return the trace manager writing the traces
+   */
+  private TraceManager createTraceStore() {
+    if (properties == null) {
+      return new DefaultTraceManager();
+    }
+    if ("segmented".equalsIgnoreCase(properties.getProperty("trace.store", "").trim())) {
+      return new SegmentedTraceManager(null,
+                                       true,
+                                       Long.parseLong(properties.getProperty("trace.segment.size",
+                                                                             String.valueOf(TRACE_SEGMENT_SIZE)).trim()));
+    }
+    if (!Boolean.parseBoolean(properties.getProperty("trace.async"))) {
+      return new DefaultTraceManager();
+    }
+    return new AsyncTraceManager(null,
+                                 true,
+                                 Integer.parseInt(properties.getProperty("trace.queue.capacity",
+                                                                         String.valueOf(TRACE_QUEUE_CAPACITY)).trim()),
+                                 AsyncTraceManager.OverflowPolicy.valueOf(
+                                   properties.getProperty("trace.queue.policy", "block").trim().toUpperCase(Locale.ROOT)));
   }
 
   /**
@@ -115,6 +202,11 @@ public class DefaultConfiguration implements Configuration {
     return new File(getUserDirectory(user), getString("traces.dir.name"));
   }
 
+  @Override
+  public File getTransferJournalDirectory(EbicsUser user) {
+    return new File(getUserDirectory(user), getString("journal.dir.name"));
+  }
+
   @Override
   public File getSerializationDirectory() {
     return rootDir(getString("serialization.dir.name"));
@@ -154,6 +246,11 @@ public class DefaultConfiguration implements Configuration {
     return traceManager;
   }
 
+  @Override
+  public CompressionPolicy getCompressionPolicy() {
+    return compressionPolicy;
+  }
+
   @Override
   public LetterManager getLetterManager() {
     return letterManager;
@@ -213,7 +310,15 @@ public class DefaultConfiguration implements Configuration {
   private final Properties properties;
   private final SerializationManager serializationManager;
   private final TraceManager traceManager;
+  private final CompressionPolicy compressionPolicy;
   private LetterManager letterManager;
 
   private static final String RESOURCE_DIR = "org.kopi.ebics.client.config";
+  private static final int TRACE_QUEUE_CAPACITY = 256;
+  private static final long TRACE_SEGMENT_SIZE = 64L * 1024 * 1024;
+  private static final int TRACE_SAMPLE_RATE = 10;
+  private static final int TRACE_RING_SIZE = 32;
+  private static final long TRACE_RING_BYTES = 16L * 1024 * 1024;
+  private static final int[] ADAPTIVE_COMPRESSION_LEVELS = { 1, 3, 6, 9 };
+  private static final long ADAPTIVE_COMPRESSION_SIZE = 256 * 1024;
 }
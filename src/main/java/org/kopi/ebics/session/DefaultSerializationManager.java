@@ -24,6 +24,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.Savable;
@@ -54,12 +57,33 @@ public class DefaultSerializationManager implements SerializationManager {
     this(null);
   }
 
+  /**
+   * Serializes an object to a temporary file that then replaces the
+   * previous file, so that concurrent serializations of the same object,
+   * such as the bank shared by several users, never leave a mixed file.
+   */
   @Override
   public void serialize(Savable object) throws EbicsException {
+    File			file;
+    File			temp;
+
+    file = new File(serializationDir, object.getSaveName());
+    temp = null;
     try {
-      var out = new ObjectOutputStream(new FileOutputStream(new File(serializationDir, object.getSaveName())));
-      object.save(out);
+      temp = File.createTempFile(object.getSaveName(), ".tmp", file.getAbsoluteFile().getParentFile());
+      try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(temp))) {
+        object.save(output);
+        output.flush();
+      }
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
     } catch (IOException e) {
+      if (temp != null) {
+        temp.delete();
+      }
       throw new EbicsException(e.getMessage());
     }
   }
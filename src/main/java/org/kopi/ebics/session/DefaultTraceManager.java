@@ -68,14 +68,45 @@ public class DefaultTraceManager implements TraceManager {
 
   @Override
   public void trace(EbicsRootElement element) throws EbicsException {
-    try {
-      var file = new File(traceDir, element.getName());
-      var out = new FileOutputStream(file);
+    trace(element, traceDir);
+  }
+
+  @Override
+  public void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+    var file = getTraceFile(element, traceDir);
+    try (var out = new FileOutputStream(file)) {
       element.save(out);
-      cache.add(file);
     } catch (IOException e) {
       throw new EbicsException(e.getMessage());
     }
+    addTraceFile(file);
+  }
+
+  /**
+   * Returns the file where an element is traced.
+   * @param element the element to trace
+   * @return the trace file
+   */
+  protected File getTraceFile(EbicsRootElement element) {
+    return getTraceFile(element, traceDir);
+  }
+
+  /**
+   * Returns the file where an element is traced in a given directory.
+   * @param element the element to trace
+   * @param traceDir the trace directory
+   * @return the trace file
+   */
+  protected File getTraceFile(EbicsRootElement element, File traceDir) {
+    return new File(traceDir, element.getName());
+  }
+
+  /**
+   * Registers a trace file so that it is removed by {@link #clear()}.
+   * @param file the trace file
+   */
+  protected void addTraceFile(File file) {
+    cache.add(file);
   }
 
   @Override
@@ -102,6 +133,6 @@ public class DefaultTraceManager implements TraceManager {
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
-  private File				traceDir;
+  private volatile File			traceDir;
   private final FileCache			cache;
 }
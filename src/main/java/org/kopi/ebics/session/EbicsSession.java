@@ -18,18 +18,31 @@
 
 package org.kopi.ebics.session;
 
+import java.io.File;
 import java.security.interfaces.RSAPublicKey;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.kopi.ebics.client.HttpClientPool;
+import org.kopi.ebics.client.CircuitBreaker;
+import org.kopi.ebics.client.RetryPolicy;
+import org.kopi.ebics.client.TransactionGovernor;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsRootElement;
 import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.interfaces.TraceManager;
 
 
 /**
  * Communication hub for EBICS.
  *
+ * <p>A session belongs to one user and is meant to be used by one
+ * operation at a time. Sessions of different users may run concurrently
+ * on the same configuration: each session traces into its own directory
+ * through {@link #getTraceManager()} instead of changing the directory
+ * of the shared trace manager.
+ *
  *
  */
 public class EbicsSession {
@@ -43,6 +56,11 @@ public class EbicsSession {
     this.user = user;
     this.configuration = configuration;
     parameters = new HashMap<>();
+    httpClientPool = HttpClientPool.getDefault();
+    transactionGovernor = TransactionGovernor.getDefault();
+    retryPolicy = RetryPolicy.getDefault();
+    circuitBreaker = CircuitBreaker.getDefault();
+    traceManager = new SessionTraceManager();
   }
 
   /**
@@ -87,6 +105,33 @@ public class EbicsSession {
     return configuration;
   }
 
+  /**
+   * Returns the trace manager of the session. The elements are traced
+   * into the trace directory of the session, or into the directory of the
+   * trace manager of the configuration when the session has none.
+   * @return the trace manager of the session
+   */
+  public TraceManager getTraceManager() {
+    return traceManager;
+  }
+
+  /**
+   * Sets the directory where the elements of the session are traced.
+   * @param traceDirectory the trace directory, <code>null</code> for the
+   *                       directory of the configuration trace manager
+   */
+  public void setTraceDirectory(File traceDirectory) {
+    this.traceDirectory = traceDirectory;
+  }
+
+  /**
+   * Returns the directory where the elements of the session are traced.
+   * @return the trace directory, may be <code>null</code>
+   */
+  public File getTraceDirectory() {
+    return traceDirectory;
+  }
+
   /**
    * Sets the optional product identification that will be sent to the bank during each request.
    * @param product Product description
@@ -102,6 +147,74 @@ public class EbicsSession {
     return product;
   }
 
+  /**
+   * Sets the pool providing the HTTP clients used to contact the bank.
+   * @param httpClientPool the HTTP client pool
+   */
+  public void setHttpClientPool(HttpClientPool httpClientPool) {
+    this.httpClientPool = httpClientPool;
+  }
+
+  /**
+   * Returns the pool providing the HTTP clients used to contact the bank.
+   * Defaults to {@link HttpClientPool#getDefault()}.
+   * @return the HTTP client pool
+   */
+  public HttpClientPool getHttpClientPool() {
+    return httpClientPool;
+  }
+
+  /**
+   * Sets the governor keeping the transactions within the limits of the bank.
+   * @param transactionGovernor the transaction governor
+   */
+  public void setTransactionGovernor(TransactionGovernor transactionGovernor) {
+    this.transactionGovernor = transactionGovernor;
+  }
+
+  /**
+   * Returns the governor keeping the transactions within the limits of the bank.
+   * Defaults to {@link TransactionGovernor#getDefault()}.
+   * @return the transaction governor
+   */
+  public TransactionGovernor getTransactionGovernor() {
+    return transactionGovernor;
+  }
+
+  /**
+   * Sets the policy retrying the transaction steps that fail with a transient error.
+   * @param retryPolicy the retry policy
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Returns the policy retrying the transaction steps that fail with a transient error.
+   * Defaults to {@link RetryPolicy#getDefault()}.
+   * @return the retry policy
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets the circuit breaker refusing the requests to a bank that keeps failing.
+   * @param circuitBreaker the circuit breaker
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Returns the circuit breaker refusing the requests to a bank that keeps failing.
+   * Defaults to {@link CircuitBreaker#getDefault()}.
+   * @return the circuit breaker
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
   /**
    * Adds a session parameter to use it in the transfer process.
    * @param key the parameter key
@@ -124,6 +237,72 @@ public class EbicsSession {
     return parameters.get(key);
   }
 
+  /**
+   * The trace manager of the configuration, bound to the trace directory
+   * of the session.
+   */
+  private class SessionTraceManager implements TraceManager {
+
+    @Override
+    public void trace(EbicsRootElement element) throws EbicsException {
+      if (traceDirectory == null) {
+        configuration.getTraceManager().trace(element);
+      } else {
+        configuration.getTraceManager().trace(element, traceDirectory);
+      }
+    }
+
+    @Override
+    public void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+      configuration.getTraceManager().trace(element, traceDir);
+    }
+
+    @Override
+    public void remove(EbicsRootElement element) {
+      configuration.getTraceManager().remove(element);
+    }
+
+    @Override
+    public void clear() {
+      configuration.getTraceManager().clear();
+    }
+
+    @Override
+    public void setTraceDirectory(File traceDir) {
+      traceDirectory = traceDir;
+    }
+
+    @Override
+    public void setTraceEnabled(boolean enabled) {
+      configuration.getTraceManager().setTraceEnabled(enabled);
+    }
+
+    @Override
+    public void beginTransaction() {
+      configuration.getTraceManager().beginTransaction();
+    }
+
+    @Override
+    public void failTransaction() {
+      configuration.getTraceManager().failTransaction();
+    }
+
+    @Override
+    public void endTransaction() {
+      configuration.getTraceManager().endTransaction();
+    }
+
+    @Override
+    public void flush() {
+      configuration.getTraceManager().flush();
+    }
+
+    @Override
+    public void close() {
+      configuration.getTraceManager().close();
+    }
+  }
+
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
@@ -132,4 +311,10 @@ public class EbicsSession {
   private final Configuration 			configuration;
   private Product				product;
   private final Map<String, String>			parameters;
+  private HttpClientPool			httpClientPool;
+  private TransactionGovernor			transactionGovernor;
+  private RetryPolicy				retryPolicy;
+  private CircuitBreaker			circuitBreaker;
+  private File					traceDirectory;
+  private final TraceManager			traceManager;
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.interfaces.TraceManager;
+
+/**
+ * The <code>PolicyTraceManager</code> decides which elements are worth
+ * tracing before handing them to another trace manager.
+ *
+ * <p>Elements are only serialized by the underlying manager, so the
+ * elements left out by the policy cost nothing but a reference. With the
+ * {@link Policy#ERRORS} policy, the last elements of each transaction are
+ * kept in memory, up to a number of elements and of bytes, and only traced
+ * when the transaction fails, along with the elements traced after the
+ * failure. An element that is already serialized, such as a signed request
+ * or a received response, is kept in its serialized form so that its
+ * document can be released. The other elements are kept as they are and
+ * only serialized when their transaction fails.
+ *
+ * <p>Transactions are tracked per thread. Elements traced outside of any
+ * transaction are sampled on their own, and are not traced with the
+ * {@link Policy#ERRORS} policy since they cannot fail.
+ *
+ */
+public class PolicyTraceManager implements TraceManager {
+
+  /**
+   * Which elements are traced.
+   */
+  public enum Policy {
+    /** Nothing is traced. */
+    OFF,
+    /** Only the transactions that fail are traced. */
+    ERRORS,
+    /** One transaction out of <code>sampleRate</code> is traced. */
+    SAMPLED,
+    /** Everything is traced. */
+    FULL
+  }
+
+  /**
+   * Constructs a new <code>PolicyTraceManager</code>.
+   * @param delegate the manager writing the kept elements
+   * @param policy which elements are traced
+   * @param sampleRate one transaction out of <code>sampleRate</code> is traced when sampling
+   * @param ringSize how many elements of a transaction are kept for the errors policy
+   * @param ringBytes how many bytes of serialized elements of a transaction are kept
+   *                  for the errors policy
+   */
+  public PolicyTraceManager(TraceManager delegate, Policy policy, int sampleRate, int ringSize, long ringBytes) {
+    this.delegate = delegate;
+    this.policy = policy;
+    this.sampleRate = Math.max(1, sampleRate);
+    this.ringSize = Math.max(1, ringSize);
+    this.ringBytes = Math.max(0, ringBytes);
+    this.counter = new AtomicLong();
+    this.transactions = new ThreadLocal<>();
+  }
+
+  @Override
+  public void trace(EbicsRootElement element) throws EbicsException {
+    trace(element, null);
+  }
+
+  /**
+   * Traces an element in the given directory, or in the directory of the
+   * delegate when the directory is <code>null</code>.
+   */
+  @Override
+  public void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+    Transaction			transaction;
+
+    transaction = transactions.get();
+    switch (policy) {
+    case FULL:
+      write(element, traceDir);
+      break;
+    case SAMPLED:
+      if (transaction == null ? sample() : transaction.sampled) {
+        write(element, traceDir);
+      }
+      break;
+    case ERRORS:
+      if (transaction == null) {
+        break;
+      }
+      if (transaction.failed) {
+        write(element, traceDir);
+      } else {
+        keep(transaction, element, traceDir);
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /**
+   * Keeps an element in the ring of its transaction, dropping the oldest
+   * elements beyond the number of elements or of bytes of the ring. The
+   * last element is always kept.
+   */
+  private void keep(Transaction transaction, EbicsRootElement element, File traceDir) {
+    ContentFactory		content;
+    Trace			trace;
+
+    content = element.toContentFactory();
+    if (content == null) {
+      trace = new Trace(element, traceDir, 0);
+    } else {
+      trace = new Trace(new ContentElement(element.getName(), content), traceDir, Math.max(0, content.getContentLength()));
+    }
+    while (!transaction.ring.isEmpty()
+           && (transaction.ring.size() == ringSize || transaction.bytes + trace.size() > ringBytes))
+    {
+      transaction.bytes -= transaction.ring.removeFirst().size();
+    }
+    transaction.ring.addLast(trace);
+    transaction.bytes += trace.size();
+  }
+
+  @Override
+  public void beginTransaction() {
+    Transaction			transaction;
+
+    transaction = transactions.get();
+    if (transaction == null) {
+      transaction = new Transaction(policy == Policy.SAMPLED && sample());
+      transactions.set(transaction);
+    }
+    transaction.depth++;
+  }
+
+  @Override
+  public void failTransaction() {
+    Transaction			transaction;
+
+    transaction = transactions.get();
+    if (transaction == null || transaction.failed) {
+      return;
+    }
+    transaction.failed = true;
+    while (!transaction.ring.isEmpty()) {
+      try {
+        Trace trace = transaction.ring.removeFirst();
+        transaction.bytes -= trace.size();
+        write(trace.element(), trace.traceDir());
+      } catch (EbicsException e) {
+        // the transaction already failed, the trace is best effort
+      }
+    }
+  }
+
+  @Override
+  public void endTransaction() {
+    Transaction			transaction;
+
+    transaction = transactions.get();
+    if (transaction != null && --transaction.depth == 0) {
+      transactions.remove();
+    }
+  }
+
+  private void write(EbicsRootElement element, File traceDir) throws EbicsException {
+    if (traceDir == null) {
+      delegate.trace(element);
+    } else {
+      delegate.trace(element, traceDir);
+    }
+  }
+
+  private boolean sample() {
+    return counter.getAndIncrement() % sampleRate == 0;
+  }
+
+  @Override
+  public void remove(EbicsRootElement element) {
+    delegate.remove(element);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public void setTraceDirectory(File traceDir) {
+    delegate.setTraceDirectory(traceDir);
+  }
+
+  @Override
+  public void setTraceEnabled(boolean enabled) {
+    delegate.setTraceEnabled(enabled);
+  }
+
+  @Override
+  public void flush() {
+    delegate.flush();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  /**
+   * An element kept until its transaction fails, with its trace directory
+   * and the number of bytes it holds.
+   */
+  private record Trace(EbicsRootElement element, File traceDir, long size) {}
+
+  /**
+   * The serialized form of an element, traced in place of the element.
+   */
+  private static class ContentElement implements EbicsRootElement {
+
+    ContentElement(String name, ContentFactory content) {
+      this.name = name;
+      this.content = content;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void build() {
+      // already built
+    }
+
+    @Override
+    public void print(PrintStream stream) {
+      byte[] bytes = toByteArray();
+      stream.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public byte[] toByteArray() {
+      try (InputStream in = content.getContent()) {
+        return in.readAllBytes();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read serialized element", e);
+      }
+    }
+
+    @Override
+    public void validate() {
+      // validated before it was traced
+    }
+
+    @Override
+    public void addNamespaceDecl(String prefix, String uri) {
+      throw new UnsupportedOperationException("Serialized element");
+    }
+
+    @Override
+    public void save(OutputStream out) throws EbicsException {
+      try (InputStream in = content.getContent()) {
+        in.transferTo(out);
+      } catch (IOException e) {
+        throw new EbicsException(e.getMessage());
+      }
+    }
+
+    private final String				name;
+    private final ContentFactory			content;
+    private static final long				serialVersionUID = 5384047130237865210L;
+  }
+
+  /**
+   * The state of the transaction of a thread.
+   */
+  private static class Transaction {
+
+    Transaction(boolean sampled) {
+      this.sampled = sampled;
+      this.ring = new ArrayDeque<>();
+    }
+
+    private final boolean				sampled;
+    private final Deque<Trace>				ring;
+    private long					bytes;
+    private boolean					failed;
+    private int						depth;
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final TraceManager				delegate;
+  private final Policy					policy;
+  private final int					sampleRate;
+  private final int					ringSize;
+  private final long					ringBytes;
+  private final AtomicLong				counter;
+  private final ThreadLocal<Transaction>		transactions;
+}
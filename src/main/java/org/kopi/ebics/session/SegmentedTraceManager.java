@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.interfaces.TraceManager;
+import org.kopi.ebics.io.TraceLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>SegmentedTraceManager</code> appends the traces to a
+ * {@link TraceLog} of the trace directory instead of writing one file
+ * per element.
+ *
+ * <p>As with the {@link DefaultTraceManager}, the traces written by the
+ * manager are deleted by {@link #clear()} when tracing is enabled. Whole
+ * segments are deleted, so {@link #remove(EbicsRootElement)} cannot
+ * single out an element and has no effect.
+ *
+ * <p>Each trace directory has its own current segment, so that sessions
+ * tracing concurrently into their own directories do not mix their traces.
+ * Elements are serialized outside of any lock and each log only locks its
+ * own appends. At most 16 logs are kept open: the log
+ * used least recently is closed beyond that, and starts a new segment
+ * when it is used again.
+ *
+ */
+public class SegmentedTraceManager implements TraceManager {
+
+  /**
+   * Constructs a new <code>SegmentedTraceManager</code>.
+   * @param traceDir the trace directory
+   * @param isTraceEnabled is trace enabled?
+   * @param maxSegmentSize the size after which a new segment is started
+   */
+  public SegmentedTraceManager(File traceDir, boolean isTraceEnabled, long maxSegmentSize) {
+    this.traceDir = traceDir;
+    this.isTraceEnabled = isTraceEnabled;
+    this.maxSegmentSize = maxSegmentSize;
+    this.logs = new HashMap<>();
+    this.open = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  @Override
+  public void trace(EbicsRootElement element) throws EbicsException {
+    trace(element, traceDir);
+  }
+
+  @Override
+  public void trace(EbicsRootElement element, File traceDir) throws EbicsException {
+    ByteArrayOutputStream	out;
+    File			directory;
+    TraceLog			log;
+    TraceLog			idle;
+
+    out = new ByteArrayOutputStream();
+    element.save(out);
+    directory = traceDir == null ? new File(".") : traceDir;
+    idle = null;
+    synchronized (this) {
+      log = logs.computeIfAbsent(directory, dir -> new TraceLog(dir, maxSegmentSize));
+      open.put(directory, log);
+      if (open.size() > MAX_OPEN_LOGS) {
+        Iterator<TraceLog> eldest = open.values().iterator();
+        idle = eldest.next();
+        eldest.remove();
+      }
+    }
+    try {
+      if (idle != null) {
+        idle.close();
+      }
+      log.append(element.getName(), out.toByteArray());
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  @Override
+  public void remove(EbicsRootElement element) {
+    // records of a segment cannot be removed one by one
+  }
+
+  @Override
+  public synchronized void clear() {
+    for (TraceLog traceLog : logs.values()) {
+      try {
+        if (isTraceEnabled) {
+          traceLog.delete();
+        } else {
+          traceLog.close();
+        }
+      } catch (IOException e) {
+        logger.warn("Cannot clear traces", e);
+      }
+    }
+    logs.clear();
+    open.clear();
+  }
+
+  @Override
+  public synchronized void setTraceDirectory(File traceDir) {
+    File			previous;
+    TraceLog			log;
+
+    previous = this.traceDir == null ? new File(".") : this.traceDir;
+    log = previous.equals(traceDir == null ? new File(".") : traceDir) ? null : open.remove(previous);
+    if (log != null) {
+      try {
+        log.close();
+      } catch (IOException e) {
+        logger.warn("Cannot close trace log of {}", previous, e);
+      }
+    }
+    this.traceDir = traceDir;
+  }
+
+  @Override
+  public synchronized void setTraceEnabled(boolean enabled) {
+    this.isTraceEnabled = enabled;
+  }
+
+  @Override
+  public synchronized void close() {
+    for (TraceLog traceLog : logs.values()) {
+      try {
+        traceLog.close();
+      } catch (IOException e) {
+        logger.warn("Cannot close trace log", e);
+      }
+    }
+    open.clear();
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private File					traceDir;
+  private boolean				isTraceEnabled;
+  private final long				maxSegmentSize;
+  /** The logs of every trace directory, open or not. */
+  private final Map<File, TraceLog>		logs;
+  /** The open logs, the least recently used first. */
+  private final LinkedHashMap<File, TraceLog>	open;
+
+  private static final int			MAX_OPEN_LOGS = 16;
+
+  private static final Logger			logger = LoggerFactory.getLogger(SegmentedTraceManager.class);
+}
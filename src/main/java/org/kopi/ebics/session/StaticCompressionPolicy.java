@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.kopi.ebics.interfaces.CompressionPolicy;
+import org.kopi.ebics.interfaces.EbicsOrderType;
+
+/**
+ * A compression policy choosing the level from rules by order type and
+ * size band.
+ *
+ * <p>The rules are written <code>ORDERTYPE@SIZE=LEVEL</code> and separated
+ * by semicolons, for instance <code>*=9;*@10485760=6;ZDF=1</code>. The order
+ * type is <code>*</code> for any order type, and the size, zero when left
+ * out, is the size from which the rule applies. The rules of the order
+ * type win over the rules of any order type, and among them the rule of
+ * the largest size band that the data reaches. Without any matching rule
+ * the best compression is used.
+ *
+ */
+public class StaticCompressionPolicy implements CompressionPolicy {
+
+  /**
+   * A compression rule.
+   * @param orderType the order type code, <code>null</code> for any order type
+   * @param size the size from which the rule applies
+   * @param level the compression level
+   */
+  public record Rule(String orderType, long size, int level) {}
+
+  /**
+   * Constructs a new <code>StaticCompressionPolicy</code> from its rules.
+   * @param rules the rules
+   */
+  public StaticCompressionPolicy(List<Rule> rules) {
+    this.rules = List.copyOf(rules);
+  }
+
+  /**
+   * Constructs a new <code>StaticCompressionPolicy</code> always using the same level.
+   * @param level the compression level
+   */
+  public StaticCompressionPolicy(int level) {
+    this(List.of(new Rule(null, 0, level)));
+  }
+
+  /**
+   * Parses compression rules.
+   * @param rules the rules, as described in the class comment
+   * @return the policy
+   * @throws IllegalArgumentException the rules are malformed
+   */
+  public static StaticCompressionPolicy parse(String rules) {
+    List<Rule>			parsed;
+
+    parsed = new ArrayList<>();
+    for (String rule : rules.split(";")) {
+      if (rule.isBlank()) {
+        continue;
+      }
+      int equals = rule.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Invalid compression rule " + rule);
+      }
+      String selector = rule.substring(0, equals).trim();
+      int at = selector.indexOf('@');
+      String orderType = at < 0 ? selector : selector.substring(0, at).trim();
+      long size = at < 0 ? 0 : Long.parseLong(selector.substring(at + 1).trim());
+      int level = Integer.parseInt(rule.substring(equals + 1).trim());
+      if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+        throw new IllegalArgumentException("Invalid compression level " + level);
+      }
+      parsed.add(new Rule("*".equals(orderType) ? null : orderType, size, level));
+    }
+    return new StaticCompressionPolicy(parsed);
+  }
+
+  @Override
+  public int getLevel(EbicsOrderType orderType, long size) {
+    Rule			best;
+
+    best = null;
+    for (Rule rule : rules) {
+      boolean specific = rule.orderType() != null;
+      if (rule.size() > size || (specific && (orderType == null || !rule.orderType().equals(orderType.getCode())))) {
+        continue;
+      }
+      if (best == null
+          || (specific && best.orderType() == null)
+          || (specific == (best.orderType() != null) && rule.size() > best.size()))
+      {
+        best = rule;
+      }
+    }
+    return best == null ? Deflater.BEST_COMPRESSION : best.level();
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final List<Rule>			rules;
+}
@@ -18,7 +18,6 @@
 
 package org.kopi.ebics.utils;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -30,19 +29,14 @@ import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
 
-import org.apache.xml.security.c14n.Canonicalizer;
-import org.apache.xml.security.utils.IgnoreAllErrorHandler;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.HttpStatusException;
+import org.kopi.ebics.interfaces.CryptoEngine;
 import org.kopi.ebics.messages.Messages;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.kopi.ebics.security.CryptoProviders;
+import org.kopi.ebics.security.PooledCryptoEngine;
 
 
 /**
@@ -59,9 +53,29 @@ public final class Utils {
 
   public static final SecureRandom secureRandom = new SecureRandom();
 
+  private static volatile CryptoEngine cryptoEngine;
+
   private Utils() {
   }
 
+  /**
+   * Returns the crypto engine used by the EBICS requests and responses.
+   * @return the crypto engine
+   */
+  public static CryptoEngine getCryptoEngine() {
+    CryptoEngine engine = cryptoEngine;
+    return engine != null ? engine : DefaultCryptoEngine.INSTANCE;
+  }
+
+  /**
+   * Sets the crypto engine used by the EBICS requests and responses.
+   * Users created before the change keep signing with the former engine.
+   * @param engine the crypto engine
+   */
+  public static void setCryptoEngine(CryptoEngine engine) {
+    cryptoEngine = engine;
+  }
+
   /**
    * Compresses an input of byte array
    * 
@@ -74,6 +88,17 @@ public final class Utils {
    * @throws EbicsException compression failed
    */
   public static byte[] zip(byte[] toZip) throws EbicsException {
+    return zip(toZip, Deflater.BEST_COMPRESSION);
+  }
+
+  /**
+   * Compresses an input of byte array with the given compression level.
+   * @param toZip the input to be compressed
+   * @param level the compression level
+   * @return the compressed input data
+   * @throws EbicsException compression failed
+   */
+  public static byte[] zip(byte[] toZip, int level) throws EbicsException {
 
     if (toZip == null) {
       throw new EbicsException("The input to be zipped cannot be null");
@@ -85,7 +110,7 @@ public final class Utils {
 
     output = new ByteArrayOutputStream(toZip.length);
     buffer = new byte[1024];
-    compressor = new Deflater(Deflater.BEST_COMPRESSION);
+    compressor = new Deflater(level);
     compressor.setInput(toZip);
     compressor.finish();
 
@@ -194,27 +219,12 @@ public final class Utils {
    * @throws EbicsException
    */
   public static byte[] canonize(byte[] input) throws EbicsException {
-      try {
-          var factory = DocumentBuilderFactory.newInstance();
-          factory.setNamespaceAware(true);
-          factory.setValidating(true);
-          var builder = factory.newDocumentBuilder();
-          builder.setErrorHandler(new IgnoreAllErrorHandler());
-          var document = builder.parse(new ByteArrayInputStream(input));
-
-          var output = new ByteArrayOutputStream();
-          var nodeList = (NodeList) XPathFactory.newInstance().newXPath()
-              .evaluate("//*[@authenticate='true']", document, XPathConstants.NODESET);
-          for (int i = 0; i < nodeList.getLength(); i++) {
-              Node node = nodeList.item(i);
-              var canonicalizer = Canonicalizer.getInstance(
-                  Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
-              canonicalizer.canonicalizeSubtree(node, output);
-          }
-          return output.toByteArray();
-      } catch (Exception e) {
-          throw new EbicsException(e.getMessage());
+      var output = new ByteArrayOutputStream();
+      var nodeList = XmlToolkit.getAuthenticatedElements(XmlToolkit.parse(input));
+      for (int i = 0; i < nodeList.getLength(); i++) {
+          XmlToolkit.canonicalize(nodeList.item(i), output);
       }
+      return output.toByteArray();
   }
 
   /**
@@ -277,14 +287,27 @@ public final class Utils {
   private static byte[] encryptOrDecrypt(int mode, byte[] input, SecretKeySpec keySpec)
     throws EbicsException
   {
-    IvParameterSpec		iv;
-    Cipher 			cipher;
+    try {
+      return getCryptoEngine().crypt(mode, input, keySpec);
+    } catch (GeneralSecurityException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
 
-    iv = new IvParameterSpec(new byte[16]);
+  /**
+   * Creates the symmetric cipher used for order data encryption, initialized
+   * for the given mode. The returned cipher can be used to encrypt or decrypt
+   * large data incrementally.
+   * @param mode the encryption-decryption mode.
+   * @param keySpec the key spec.
+   * @return the initialized cipher.
+   * @throws EbicsException
+   */
+  public static Cipher createCipher(int mode, SecretKeySpec keySpec)
+    throws EbicsException
+  {
     try {
-      cipher = Cipher.getInstance("AES/CBC/ISO10126Padding", BouncyCastleProvider.PROVIDER_NAME);
-      cipher.init(mode, keySpec, iv);
-      return cipher.doFinal(input);
+      return getCryptoEngine().createCipher(mode, keySpec);
     } catch (GeneralSecurityException e) {
       throw new EbicsException(e.getMessage());
     }
@@ -306,12 +329,20 @@ public final class Utils {
   /**
    * Checks for the returned http code
    * @param httpCode the http code
-   * @throws EbicsException
+   * @throws HttpStatusException the http code is not 200
    */
   public static void checkHttpCode(int httpCode) throws EbicsException {
     if (httpCode != 200) {
       Messages messages = new Messages(Constants.APPLICATION_BUNDLE_NAME);
-      throw new EbicsException(messages.getString("http.code.error", httpCode));
+      throw new HttpStatusException(httpCode, messages.getString("http.code.error", httpCode));
     }
   }
+
+  /**
+   * Holds the default crypto engine, created on its first use since the
+   * selection of its providers registers BouncyCastle.
+   */
+  private static final class DefaultCryptoEngine {
+    static final CryptoEngine INSTANCE = new PooledCryptoEngine(CryptoProviders.select());
+  }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.utils.IgnoreAllErrorHandler;
+import org.kopi.ebics.exception.EbicsException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Shared XML infrastructure for the request hot paths.
+ *
+ * <p>JAXP factories are looked up through the service loader and their
+ * products are not thread safe, so each thread keeps its own document
+ * builder and its own compiled XPath expressions, created once and reset
+ * between uses.
+ *
+ * <p>The StAX input factory is thread safe once configured and is shared.
+ *
+ * <p>Canonicalizers are not cached: an instance remembers the namespaces
+ * it already rendered, so every subtree needs a fresh one. Getting one is
+ * a registry lookup that does not involve the service loader.
+ *
+ */
+public final class XmlToolkit {
+
+  static {
+    org.apache.xml.security.Init.init();
+  }
+
+  private XmlToolkit() {
+  }
+
+  /**
+   * Parses an XML document with a namespace aware builder.
+   * @param input the XML input
+   * @return the parsed document
+   * @throws EbicsException the input cannot be parsed
+   */
+  public static Document parse(byte[] input) throws EbicsException {
+    DocumentBuilder		builder;
+
+    builder = BUILDER.get();
+    builder.reset();
+    builder.setErrorHandler(new IgnoreAllErrorHandler());
+    try {
+      return builder.parse(new ByteArrayInputStream(input));
+    } catch (Exception e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Creates a streaming reader over an XML input. DTDs and external
+   * entities are not supported.
+   * @param input the XML input
+   * @return the stream reader
+   * @throws EbicsException the reader cannot be created
+   */
+  public static XMLStreamReader createReader(InputStream input) throws EbicsException {
+    try {
+      return INPUT_FACTORY.createXMLStreamReader(input);
+    } catch (XMLStreamException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the elements of a document marked with <code>authenticate='true'</code>.
+   * @param document the document
+   * @return the authenticated elements in document order
+   * @throws EbicsException the expression cannot be evaluated
+   */
+  public static NodeList getAuthenticatedElements(Document document) throws EbicsException {
+    try {
+      return (NodeList) AUTHENTICATED.get().evaluate(document, XPathConstants.NODESET);
+    } catch (XPathExpressionException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the <code>ds:SignedInfo</code> element of a document.
+   * @param document the document
+   * @return the signed info element, <code>null</code> if there is none
+   * @throws EbicsException the expression cannot be evaluated
+   */
+  public static Node getSignedInfo(Document document) throws EbicsException {
+    try {
+      return (Node) SIGNED_INFO.get().evaluate(document, XPathConstants.NODE);
+    } catch (XPathExpressionException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the canonical form of a node, without comments.
+   * @param node the node to canonicalize
+   * @param output where to write the canonical form
+   * @throws EbicsException the node cannot be canonicalized
+   */
+  public static void canonicalize(Node node, OutputStream output) throws EbicsException {
+    try {
+      Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS)
+        .canonicalizeSubtree(node, output);
+    } catch (Exception e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the canonical form of a node, without comments.
+   * @param node the node to canonicalize
+   * @return the canonical form
+   * @throws EbicsException the node cannot be canonicalized
+   */
+  public static byte[] canonicalize(Node node) throws EbicsException {
+    ByteArrayOutputStream	output;
+
+    output = new ByteArrayOutputStream();
+    canonicalize(node, output);
+    return output.toByteArray();
+  }
+
+  private static DocumentBuilder newDocumentBuilder() {
+    DocumentBuilderFactory	factory;
+
+    factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    try {
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      return factory.newDocumentBuilder();
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static XMLInputFactory newInputFactory() {
+    XMLInputFactory		factory;
+
+    factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    return factory;
+  }
+
+  private static ThreadLocal<XPathExpression> compile(String expression) {
+    return ThreadLocal.withInitial(() -> {
+      try {
+        return XPathFactory.newInstance().newXPath().compile(expression);
+      } catch (XPathExpressionException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private static final ThreadLocal<DocumentBuilder>	BUILDER =
+    ThreadLocal.withInitial(XmlToolkit::newDocumentBuilder);
+  private static final ThreadLocal<XPathExpression>	AUTHENTICATED =
+    compile("//*[@authenticate='true']");
+  private static final ThreadLocal<XPathExpression>	SIGNED_INFO =
+    compile("//*[name()='ds:SignedInfo']");
+  private static final XMLInputFactory			INPUT_FACTORY = newInputFactory();
+}
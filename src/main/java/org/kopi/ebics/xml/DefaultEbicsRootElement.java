@@ -18,7 +18,6 @@
 
 package org.kopi.ebics.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -32,16 +31,18 @@ import java.util.Map;
 
 import javax.xml.namespace.QName;
 
-import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlError;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.io.ByteArrayContentFactory;
 import org.kopi.ebics.session.EbicsSession;
 import org.kopi.ebics.utils.Utils;
+import org.kopi.ebics.utils.XmlToolkit;
 
 public abstract class DefaultEbicsRootElement implements EbicsRootElement {
 
@@ -75,12 +76,12 @@ public abstract class DefaultEbicsRootElement implements EbicsRootElement {
    * @return the canonical XML document.
    */
   public byte[] prettyPrint() {
+      if (canonicalForm != null) {
+          return canonicalForm;
+      }
       try {
-          Canonicalizer canon = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
-          var bos = new ByteArrayOutputStream();
-          canon.canonicalize(toByteArray(), bos, true);
-          return bos.toByteArray();
-      } catch (Exception e) {
+          return XmlToolkit.canonicalize(XmlToolkit.parse(toByteArray()));
+      } catch (EbicsException e) {
           throw new RuntimeException("Failed to canonicalize XML", e);
       }
   }
@@ -196,6 +197,14 @@ public abstract class DefaultEbicsRootElement implements EbicsRootElement {
       }
   }
 
+  /**
+   * Returns the canonical form computed while signing, if any.
+   */
+  @Override
+  public ContentFactory toContentFactory() {
+    return canonicalForm == null ? null : new ByteArrayContentFactory(canonicalForm);
+  }
+
   @Override
   public void print(PrintStream stream) {
     stream.println(document.toString());
@@ -207,6 +216,8 @@ public abstract class DefaultEbicsRootElement implements EbicsRootElement {
 
   protected XmlObject			document;
   protected EbicsSession 		session;
+  /** The canonical form computed while signing, returned by {@link #prettyPrint()}. */
+  protected byte[]			canonicalForm;
   private final Map<String, String> 	suggestedPrefixes;
   private static final long 		serialVersionUID = -3928957097145095177L;
 }
@@ -19,6 +19,10 @@
 package org.kopi.ebics.xml;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlObject;
@@ -63,6 +67,59 @@ public abstract class DefaultResponseElement extends DefaultEbicsRootElement {
           throw new EbicsException(e.getMessage());
       }
   }
+  /**
+   * Reads a download response in a single streaming pass, without
+   * building its document.
+   * @param orderData where the decoded order data is written
+   * @return the reader holding the header fields of the response
+   * @throws EbicsException the response cannot be read
+   */
+  ResponseReader read(OutputStream orderData) throws EbicsException {
+    ResponseReader		reader;
+
+    reader = new ResponseReader(factory, orderData);
+    reader.read();
+    return reader;
+  }
+
+  /**
+   * Returns the response as received when it was read without building
+   * its document, so that streamed responses can still be traced.
+   */
+  @Override
+  public byte[] toByteArray() {
+    if (document != null) {
+      return super.toByteArray();
+    }
+    try (InputStream input = factory.getContent()) {
+      return input.readAllBytes();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read response", e);
+    }
+  }
+
+  /**
+   * Returns the response as received.
+   */
+  @Override
+  public ContentFactory toContentFactory() {
+    return factory;
+  }
+
+  @Override
+  public byte[] prettyPrint() {
+    return document == null ? toByteArray() : super.prettyPrint();
+  }
+
+  @Override
+  public void print(PrintStream stream) {
+    if (document != null) {
+      super.print(stream);
+    } else {
+      stream.println(new String(toByteArray(), StandardCharsets.UTF_8));
+    }
+  }
+
   /**
    * Reports the return code to the user.
    * @throws EbicsException request fails.
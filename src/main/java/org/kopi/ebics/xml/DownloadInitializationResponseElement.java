@@ -18,6 +18,8 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.ByteArrayOutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.exception.NoDownloadDataAvailableException;
 import org.kopi.ebics.exception.ReturnCode;
@@ -47,22 +49,35 @@ public class DownloadInitializationResponseElement extends InitializationRespons
 
   @Override
   protected void processBodyReturnCode() throws EbicsException {
-      String bodyRetCode = response.getBody().getReturnCode().getStringValue();
-      returnCode = ReturnCode.toReturnCode(bodyRetCode, "");
+      returnCode = ReturnCode.toReturnCode(bodyReturnCode, "");
       if (returnCode.equals(ReturnCode.EBICS_NO_DOWNLOAD_DATA_AVAILABLE)) {
         throw new NoDownloadDataAvailableException();
       }
       checkReturnCode(returnCode);
   }
 
+  /**
+   * Reads the response in a single streaming pass. The order data is
+   * decoded directly from the response stream, without building the
+   * response document nor keeping its base64 text.
+   */
   @Override
   public void build() throws EbicsException {
-    super.build();
-    numSegments = (int)response.getHeader().getStatic().getNumSegments();
-    segmentNumber = (int)response.getHeader().getMutable().getSegmentNumber().getLongValue();
-    lastSegment = response.getHeader().getMutable().getSegmentNumber().getLastSegment();
-    transactionKey = response.getBody().getDataTransfer().getDataEncryptionInfo().getTransactionKey();
-    orderData = response.getBody().getDataTransfer().getOrderData().getByteArrayValue();
+    ByteArrayOutputStream	output;
+    ResponseReader		reader;
+
+    output = new ByteArrayOutputStream();
+    reader = read(output);
+    returnCode = ReturnCode.toReturnCode(reader.getReturnCode(), reader.getReportText());
+    checkReturnCode(returnCode);
+    bodyReturnCode = reader.getBodyReturnCode();
+    processBodyReturnCode();
+    transactionId = reader.getTransactionId();
+    numSegments = reader.getNumSegments();
+    segmentNumber = reader.getSegmentNumber();
+    lastSegment = reader.isLastSegment();
+    transactionKey = reader.getTransactionKey();
+    orderData = output.toByteArray();
   }
 
 
@@ -115,5 +130,6 @@ public class DownloadInitializationResponseElement extends InitializationRespons
   private boolean			lastSegment;
   private byte[]			transactionKey;
   private byte[]			orderData;
+  private String			bodyReturnCode;
   private static final long 		serialVersionUID = -6013011772863903840L;
 }
@@ -18,7 +18,11 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.ReturnCode;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 
@@ -45,9 +49,41 @@ public class DownloadTransferResponseElement extends TransferResponseElement {
 
   @Override
   public void build() throws EbicsException {
-    super.build();
+    ByteArrayOutputStream	output;
+
+    output = new ByteArrayOutputStream();
+    build(output);
+    orderData = output.toByteArray();
+  }
+
+  /**
+   * Reads the response in a single streaming pass and decodes its order
+   * data into the given stream. The response document is not built and
+   * {@link #getOrderData()} returns <code>null</code>.
+   * @param orderData where the decoded order data is written
+   * @throws EbicsException the response cannot be read or is not ok
+   */
+  public void build(OutputStream orderData) throws EbicsException {
+    ResponseReader		reader;
+
+    reader = read(orderData);
+    returnCode = ReturnCode.toReturnCode(reader.getReturnCode(), reader.getReportText());
+    report();
+  }
+
+  /**
+   * Reads the header return code of a download response, without reading
+   * its order data nor reporting the return code.
+   * @param factory the content factory of the response
+   * @return the header return code
+   * @throws EbicsException the response header cannot be read
+   */
+  public static ReturnCode readReturnCode(ContentFactory factory) throws EbicsException {
+    ResponseReader		reader;
 
-    orderData = response.getBody().getDataTransfer().getOrderData().getByteArrayValue();
+    reader = new ResponseReader(factory, OutputStream.nullOutputStream());
+    reader.readHeader();
+    return ReturnCode.toReturnCode(reader.getReturnCode(), reader.getReportText());
   }
 
   /**
@@ -18,16 +18,10 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-
-import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 
@@ -59,18 +53,14 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
     this.name = name;
     nonce = Utils.generateNonce();
     key = Utils.generateKey();
-    keySpec = new SecretKeySpec(key, "EAS");
+    keySpec = new SecretKeySpec(key, "AES");
   }
 
     @Override
     public void build() throws EbicsException {
         buildInitialization();
-        SignedInfo signedInfo = new SignedInfo(session.getUser(), getDigest());
-        signedInfo.build();
-        var ebicsRequest = ((EbicsRequestDocument) document).getEbicsRequest();
-        ebicsRequest.setAuthSignature(signedInfo.getSignatureType());
-        ebicsRequest.getAuthSignature().setSignatureValue(
-            EbicsXmlFactory.createSignatureValueType(signedInfo.sign(toByteArray())));
+        canonicalForm = RequestSigner.sign(this,
+            ((EbicsRequestDocument) document).getEbicsRequest(), session.getUser());
     }
 
   @Override
@@ -91,13 +81,7 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
    * @throws EbicsException Failed to retrieve the digest value.
    */
   public byte[] getDigest() throws EbicsException {
-    addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-    try {
-      return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-    } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-      throw new EbicsException(e.getMessage());
-    }
+    return RequestSigner.digest(this);
   }
 
   /**
@@ -132,10 +116,7 @@ public abstract class InitializationRequestElement extends DefaultEbicsRootEleme
    */
   protected byte[] generateTransactionKey() throws EbicsException {
     try {
-      Cipher cipher = Cipher.getInstance("RSA/NONE/PKCS1Padding", BouncyCastleProvider.PROVIDER_NAME);
-      cipher.init(Cipher.ENCRYPT_MODE, session.getBankE002Key());
-
-      return cipher.doFinal(key);
+      return Utils.getCryptoEngine().encrypt(key, session.getBankE002Key());
     } catch (Exception e) {
       throw new EbicsException(e.getMessage());
     }
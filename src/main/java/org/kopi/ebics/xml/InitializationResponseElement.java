@@ -88,6 +88,6 @@ public class InitializationResponseElement extends DefaultResponseElement {
 
   protected EbicsResponse			response;
   private final EbicsOrderType orderType;
-  private byte[]				transactionId;
+  protected byte[]			transactionId;
   private static final long 			serialVersionUID = 7684048385353175772L;
 }
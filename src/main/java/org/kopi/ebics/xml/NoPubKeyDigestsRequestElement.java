@@ -18,9 +18,7 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
+import java.security.GeneralSecurityException;
 import java.util.Calendar;
 
 import org.kopi.ebics.exception.EbicsException;
@@ -62,8 +60,8 @@ public class NoPubKeyDigestsRequestElement extends DefaultEbicsRootElement {
     addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
 
     try {
-      return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-    } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+      return Utils.getCryptoEngine().digest(Utils.canonize(toByteArray()));
+    } catch (GeneralSecurityException e) {
       throw new EbicsException(e.getMessage());
     }
   }
@@ -18,10 +18,6 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument;
 import org.kopi.ebics.schema.h005.MutableHeaderType;
@@ -31,7 +27,6 @@ import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest.Body;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest.Header;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest.Body.TransferReceipt;
 import org.kopi.ebics.session.EbicsSession;
-import org.kopi.ebics.utils.Utils;
 
 
 /**
@@ -64,7 +59,6 @@ public class ReceiptRequestElement extends DefaultEbicsRootElement {
     MutableHeaderType 			mutable;
     StaticHeaderType 			xstatic;
     TransferReceipt			transferReceipt;
-    SignedInfo				signedInfo;
 
     mutable = EbicsXmlFactory.createMutableHeaderType("Receipt", null);
     xstatic = EbicsXmlFactory.createStaticHeaderType(session.getBankID(), transactionId);
@@ -76,10 +70,9 @@ public class ReceiptRequestElement extends DefaultEbicsRootElement {
 	                                         header,
 	                                         body);
     document = EbicsXmlFactory.createEbicsRequestDocument(request);
-    signedInfo = new SignedInfo(session.getUser(), getDigest());
-    signedInfo.build();
-    ((EbicsRequestDocument)document).getEbicsRequest().setAuthSignature(signedInfo.getSignatureType());
-    ((EbicsRequestDocument)document).getEbicsRequest().getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(signedInfo.sign(toByteArray())));
+    canonicalForm = RequestSigner.sign(this,
+                                       ((EbicsRequestDocument)document).getEbicsRequest(),
+                                       session.getUser());
   }
 
   @Override
@@ -100,15 +93,7 @@ public class ReceiptRequestElement extends DefaultEbicsRootElement {
    * @throws EbicsException Failed to retrieve the digest value.
    */
   public byte[] getDigest() throws EbicsException {
-    addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-    try {
-      return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-    } catch (NoSuchAlgorithmException e) {
-      throw new EbicsException(e.getMessage());
-    } catch (NoSuchProviderException e) {
-      throw new EbicsException(e.getMessage());
-    }
+    return RequestSigner.digest(this);
   }
 
   // --------------------------------------------------------------------
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument.EbicsRequest;
+import org.kopi.ebics.schema.xmldsig.ReferenceType;
+import org.kopi.ebics.utils.Utils;
+import org.kopi.ebics.utils.XmlToolkit;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Adds the authentication signature to an ebics request in a single pass.
+ *
+ * <p>The request is serialized and parsed once. The digest of the
+ * <code>authenticate='true'</code> elements, the signature of the
+ * <code>ds:SignedInfo</code> element and the canonical form sent to the
+ * bank are all computed from that same DOM tree. The digest and signature
+ * values are written both to the DOM tree and to the XmlBeans document,
+ * so the document can still be validated and traced.
+ *
+ * <p>The result is the same as computing the digest with
+ * {@link org.kopi.ebics.utils.Utils#canonize(byte[])}, signing with {@link SignedInfo#sign(byte[])}
+ * and canonicalizing with {@link DefaultEbicsRootElement#prettyPrint()},
+ * without serializing and parsing the request three times.
+ *
+ */
+final class RequestSigner {
+
+  private RequestSigner() {
+  }
+
+  /**
+   * Signs an ebics request.
+   * @param element the root element holding the request
+   * @param request the request to sign
+   * @param user the user authenticating the request
+   * @return the canonical form of the signed request
+   * @throws EbicsException the request cannot be signed
+   */
+  static byte[] sign(DefaultEbicsRootElement element, EbicsRequest request, EbicsUser user)
+    throws EbicsException
+  {
+    SignedInfo			signedInfo;
+    ReferenceType		reference;
+    Document			document;
+
+    element.addNamespaceDecl("ds", XMLDSIG_NS);
+    signedInfo = new SignedInfo(user, new byte[DIGEST_LENGTH]);
+    signedInfo.build();
+    request.setAuthSignature(signedInfo.getSignatureType());
+    request.getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(new byte[0]));
+
+    document = XmlToolkit.parse(element.toByteArray());
+    try {
+      reference = request.getAuthSignature().getSignedInfo().getReferenceArray(0);
+      reference.setDigestValue(digest(document));
+      setText(document, "DigestValue", reference.xgetDigestValue().getStringValue());
+
+      request.getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(
+        user.authenticate(XmlToolkit.canonicalize(find(document, "SignedInfo")))));
+      setText(document, "SignatureValue", request.getAuthSignature().getSignatureValue().getStringValue());
+    } catch (GeneralSecurityException | IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+    return XmlToolkit.canonicalize(document);
+  }
+
+  /**
+   * Computes the digest of the authenticated XML portions of a request.
+   * @param element the root element holding the request
+   * @return the digest value
+   * @throws EbicsException the digest cannot be computed
+   */
+  static byte[] digest(DefaultEbicsRootElement element) throws EbicsException {
+    element.addNamespaceDecl("ds", XMLDSIG_NS);
+    try {
+      return digest(XmlToolkit.parse(element.toByteArray()));
+    } catch (GeneralSecurityException | IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Computes the SHA-256 digest of the canonical form of every
+   * authenticated element, in document order.
+   */
+  private static byte[] digest(Document document)
+    throws GeneralSecurityException, IOException, EbicsException
+  {
+    MessageDigest		digest;
+
+    digest = Utils.getCryptoEngine().createDigest();
+    try (OutputStream output = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      digest(document.getDocumentElement(), output);
+    }
+    return digest.digest();
+  }
+
+  private static void digest(Element element, OutputStream output) throws EbicsException {
+    if ("true".equals(element.getAttribute("authenticate"))) {
+      XmlToolkit.canonicalize(element, output);
+    }
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        digest((Element) child, output);
+      }
+    }
+  }
+
+  private static Element find(Document document, String localName) throws EbicsException {
+    Node			node;
+
+    node = document.getElementsByTagNameNS(XMLDSIG_NS, localName).item(0);
+    if (node == null) {
+      throw new EbicsException("Missing ds:" + localName + " element");
+    }
+    return (Element) node;
+  }
+
+  private static void setText(Document document, String localName, String value)
+    throws EbicsException
+  {
+    find(document, localName).setTextContent(value);
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private static final String		XMLDSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+  private static final int		DIGEST_LENGTH = 32;
+}
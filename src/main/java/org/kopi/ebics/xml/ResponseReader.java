@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 1990-2012 kopiLeft Development SARL, Bizerte, Tunisia
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License version 2.1 as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package org.kopi.ebics.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
+import org.kopi.ebics.utils.XmlToolkit;
+
+/**
+ * Reads an ebics download response in a single streaming pass.
+ *
+ * <p>The header fields and return codes are collected while the
+ * response is read with StAX, and the base64 <code>OrderData</code> is
+ * decoded chunk by chunk into an output stream. Neither an XmlBeans tree
+ * nor the base64 text of the order data is ever held in memory.
+ *
+ */
+final class ResponseReader {
+
+  /**
+   * Constructs a new <code>ResponseReader</code>.
+   * @param factory the content factory of the response
+   * @param orderData where the decoded order data is written
+   */
+  ResponseReader(ContentFactory factory, OutputStream orderData) {
+    this.factory = factory;
+    this.orderData = orderData;
+  }
+
+  /**
+   * Reads the response.
+   * @throws EbicsException the response cannot be read
+   */
+  void read() throws EbicsException {
+    read(false);
+  }
+
+  /**
+   * Reads the header of the response and stops there, leaving the
+   * order data unread.
+   * @throws EbicsException the response header cannot be read
+   */
+  void readHeader() throws EbicsException {
+    read(true);
+  }
+
+  private void read(boolean headerOnly) throws EbicsException {
+    Deque<String>		path;
+    StringBuilder		text;
+    Base64Decoder		decoder;
+
+    path = new ArrayDeque<>();
+    text = new StringBuilder();
+    decoder = null;
+    try (InputStream input = factory.getContent()) {
+      XMLStreamReader reader = XmlToolkit.createReader(input);
+      try {
+        while (reader.hasNext()) {
+          switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            path.push(reader.getLocalName());
+            text.setLength(0);
+            if ("SegmentNumber".equals(reader.getLocalName())) {
+              lastSegment = Boolean.parseBoolean(reader.getAttributeValue(null, "lastSegment"));
+            } else if ("OrderData".equals(reader.getLocalName())) {
+              decoder = new Base64Decoder(orderData);
+            }
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+            if (decoder != null) {
+              decoder.write(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else {
+              text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if (decoder != null) {
+              decoder.close();
+              decoder = null;
+            } else {
+              collect(path, text.toString().trim());
+            }
+            path.pop();
+            text.setLength(0);
+            if (headerOnly && "header".equals(reader.getLocalName())) {
+              return;
+            }
+            break;
+          default:
+            break;
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException | IOException | IllegalArgumentException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Stores the value of a simple element according to its position.
+   */
+  private void collect(Deque<String> path, String value) throws EbicsException {
+    Iterator<String>		ancestors;
+    String			name;
+    String			parent;
+
+    ancestors = path.iterator();
+    name = ancestors.next();
+    parent = ancestors.hasNext() ? ancestors.next() : null;
+    if ("static".equals(parent)) {
+      if ("TransactionID".equals(name)) {
+        try {
+          transactionId = Hex.decodeHex(value);
+        } catch (DecoderException e) {
+          throw new EbicsException(e.getMessage());
+        }
+      } else if ("NumSegments".equals(name)) {
+        numSegments = Integer.parseInt(value);
+      }
+    } else if ("mutable".equals(parent)) {
+      if ("SegmentNumber".equals(name)) {
+        segmentNumber = Integer.parseInt(value);
+      } else if ("ReturnCode".equals(name)) {
+        returnCode = value;
+      } else if ("ReportText".equals(name)) {
+        reportText = value;
+      }
+    } else if ("body".equals(parent) && "ReturnCode".equals(name)) {
+      bodyReturnCode = value;
+    } else if ("DataEncryptionInfo".equals(parent) && "TransactionKey".equals(name)) {
+      transactionKey = Base64.getMimeDecoder().decode(value);
+    }
+  }
+
+  /**
+   * Returns the header return code.
+   * @return the header return code.
+   */
+  String getReturnCode() {
+    return returnCode;
+  }
+
+  /**
+   * Returns the header report text.
+   * @return the report text.
+   */
+  String getReportText() {
+    return reportText;
+  }
+
+  /**
+   * Returns the body return code.
+   * @return the body return code, <code>null</code> if there is none.
+   */
+  String getBodyReturnCode() {
+    return bodyReturnCode;
+  }
+
+  /**
+   * Returns the transaction ID.
+   * @return the transaction ID.
+   */
+  byte[] getTransactionId() {
+    return transactionId;
+  }
+
+  /**
+   * Returns the total segments number.
+   * @return the total segments number.
+   */
+  int getNumSegments() {
+    return numSegments;
+  }
+
+  /**
+   * Returns the segment number.
+   * @return the segment number.
+   */
+  int getSegmentNumber() {
+    return segmentNumber;
+  }
+
+  /**
+   * Is it the last segment?
+   * @return True if it is the last segment.
+   */
+  boolean isLastSegment() {
+    return lastSegment;
+  }
+
+  /**
+   * Returns the encrypted transaction key.
+   * @return the transaction key.
+   */
+  byte[] getTransactionKey() {
+    return transactionKey;
+  }
+
+  /**
+   * Decodes base64 text pushed in chunks, ignoring white spaces.
+   */
+  private static final class Base64Decoder {
+
+    Base64Decoder(OutputStream output) {
+      this.output = output;
+      this.block = new byte[BLOCK_SIZE];
+      this.decoded = new byte[BLOCK_SIZE / 4 * 3];
+    }
+
+    void write(char[] chars, int start, int length) throws IOException {
+      for (int i = start; i < start + length; i++) {
+        char c = chars[i];
+        if (!Character.isWhitespace(c)) {
+          block[size++] = (byte) c;
+          if (size == block.length) {
+            output.write(decoded, 0, DECODER.decode(block, decoded));
+            size = 0;
+          }
+        }
+      }
+    }
+
+    void close() throws IOException {
+      if (size > 0) {
+        output.write(decoded, 0, DECODER.decode(Arrays.copyOf(block, size), decoded));
+        size = 0;
+      }
+    }
+
+    private final OutputStream		output;
+    private final byte[]		block;
+    private final byte[]		decoded;
+    private int				size;
+
+    // a multiple of 4 so that only the last block may hold padding
+    private static final int		BLOCK_SIZE = 4 * 2048;
+    private static final Base64.Decoder	DECODER = Base64.getDecoder();
+  }
+
+  // --------------------------------------------------------------------
+  // DATA MEMBERS
+  // --------------------------------------------------------------------
+
+  private final ContentFactory			factory;
+  private final OutputStream			orderData;
+  private String				returnCode;
+  private String				reportText;
+  private String				bodyReturnCode;
+  private byte[]				transactionId;
+  private int					numSegments;
+  private int					segmentNumber;
+  private boolean				lastSegment;
+  private byte[]				transactionKey;
+}
@@ -18,17 +18,10 @@
 
 package org.kopi.ebics.xml;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
+import java.security.GeneralSecurityException;
 
 import org.apache.xml.security.c14n.Canonicalizer;
 import org.apache.xml.security.transforms.TransformationException;
-import org.apache.xml.security.utils.IgnoreAllErrorHandler;
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsUser;
 import org.kopi.ebics.schema.xmldsig.CanonicalizationMethodType;
@@ -39,7 +32,7 @@ import org.kopi.ebics.schema.xmldsig.SignatureType;
 import org.kopi.ebics.schema.xmldsig.SignedInfoType;
 import org.kopi.ebics.schema.xmldsig.TransformType;
 import org.kopi.ebics.schema.xmldsig.TransformsType;
-import org.w3c.dom.Document;
+import org.kopi.ebics.utils.XmlToolkit;
 import org.w3c.dom.Node;
 
 
@@ -129,25 +122,15 @@ public class SignedInfo extends DefaultEbicsRootElement {
    * @throws EbicsException signature fails.
    */
   public byte[] sign(byte[] toSign) throws EbicsException {
+    Node				node;
+
+    node = XmlToolkit.getSignedInfo(XmlToolkit.parse(toSign));
+    if (node == null) {
+      throw new EbicsException("Missing ds:SignedInfo element");
+    }
     try {
-      DocumentBuilderFactory 		factory;
-      DocumentBuilder			builder;
-      Document				document;
-      Canonicalizer 			canonicalizer;
-
-      factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      factory.setValidating(true);
-      builder = factory.newDocumentBuilder();
-      builder.setErrorHandler(new IgnoreAllErrorHandler());
-      document = builder.parse(new ByteArrayInputStream(toSign));
-      Node node = (Node) XPathFactory.newInstance().newXPath()
-           .evaluate("//*[name()='ds:SignedInfo']", document, XPathConstants.NODE);
-      canonicalizer = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS);
-      var bos = new ByteArrayOutputStream();
-      canonicalizer.canonicalizeSubtree(node, bos);
-      return user.authenticate(bos.toByteArray());
-    } catch(Exception e) {
+      return user.authenticate(XmlToolkit.canonicalize(node));
+    } catch (GeneralSecurityException e) {
       throw new EbicsException(e.getMessage());
     }
   }
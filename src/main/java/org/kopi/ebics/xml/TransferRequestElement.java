@@ -18,15 +18,10 @@
 
 package org.kopi.ebics.xml;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.EbicsOrderType;
 import org.kopi.ebics.schema.h005.EbicsRequestDocument;
 import org.kopi.ebics.session.EbicsSession;
-import org.kopi.ebics.utils.Utils;
 
 
 /**
@@ -63,13 +58,10 @@ public abstract class TransferRequestElement extends DefaultEbicsRootElement {
 
   @Override
   public void build() throws EbicsException {
-    SignedInfo			signedInfo;
-
     buildTransfer();
-    signedInfo = new SignedInfo(session.getUser(), getDigest());
-    signedInfo.build();
-    ((EbicsRequestDocument)document).getEbicsRequest().setAuthSignature(signedInfo.getSignatureType());
-    ((EbicsRequestDocument)document).getEbicsRequest().getAuthSignature().setSignatureValue(EbicsXmlFactory.createSignatureValueType(signedInfo.sign(toByteArray())));
+    canonicalForm = RequestSigner.sign(this,
+                                       ((EbicsRequestDocument)document).getEbicsRequest(),
+                                       session.getUser());
   }
 
   @Override
@@ -83,13 +75,7 @@ public abstract class TransferRequestElement extends DefaultEbicsRootElement {
    * @throws EbicsException Failed to retrieve the digest value.
    */
   public byte[] getDigest() throws EbicsException {
-    addNamespaceDecl("ds", "http://www.w3.org/2000/09/xmldsig#");
-
-    try {
-      return MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(toByteArray()));
-    } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-      throw new EbicsException(e.getMessage());
-    }
+    return RequestSigner.digest(this);
   }
 
   /**
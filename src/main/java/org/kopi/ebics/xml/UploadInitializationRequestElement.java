@@ -19,17 +19,22 @@
 package org.kopi.ebics.xml;
 
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.util.Calendar;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.xmlbeans.XmlObject;
 import org.kopi.ebics.client.EbicsUploadParams;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.CompressionPolicy;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.io.ByteArrayContentFactory;
 import org.kopi.ebics.io.Splitter;
 import org.kopi.ebics.schema.h005.BTUOrderParamsDocument;
 import org.kopi.ebics.schema.h005.DataEncryptionInfoType.EncryptionPubKeyDigest;
@@ -55,9 +60,15 @@ import org.kopi.ebics.utils.Utils;
  * The <code>UInitializationRequestElement</code> is the common initialization
  * element for all ebics file uploads.
  *
+ * <p>When built from a <code>ContentFactory</code> the user data is
+ * streamed: the signature, the digest and the encrypted segments are
+ * computed without loading the whole data in memory. The element should
+ * then be closed once the transfer is over to release the spooled segments.
  *
  */
-public class UploadInitializationRequestElement extends InitializationRequestElement {
+public class UploadInitializationRequestElement extends InitializationRequestElement
+  implements Closeable
+{
 
 
 /**
@@ -71,6 +82,23 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
         byte[] userData) {
         super(session, orderType, generateName(orderType));
         setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
+        this.userData = new ByteArrayContentFactory(userData);
+        splitter = new Splitter(userData);
+        this.uploadParams = params;
+    }
+
+    /**
+     * Constructs a new <code>UInitializationRequestElement</code> for streamed uploads.
+     * @param session the current ebics session.
+     * @param orderType the upload order type
+     * @param params the upload parameters
+     * @param userData the user data to be uploaded, read as a stream
+     */
+    public UploadInitializationRequestElement(EbicsSession session, EbicsOrderType orderType,
+        EbicsUploadParams params,
+        ContentFactory userData) {
+        super(session, orderType, generateName(orderType));
+        setSaveSuggestedPrefixes("urn:org:ebics:H005", "");
         this.userData = userData;
         splitter = new Splitter(userData);
         this.uploadParams = params;
@@ -83,7 +111,8 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
         userSignature.build();
         userSignature.validate();
 
-        splitter.readInput(session.getConfiguration().isCompressionEnabled(), keySpec);
+        CompressionPolicy compression = session.getConfiguration().getCompressionPolicy();
+        splitter.readInput(session.getConfiguration().isCompressionEnabled() ? compression : null, type, keySpec);
 
         var mutable = EbicsXmlFactory.createMutableHeaderType("Initialisation", null);
         var product = EbicsXmlFactory.createProduct(session.getProduct().getLanguage(),
@@ -126,17 +155,12 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
             "http://www.w3.org/2001/04/xmlenc#sha256",
             decodeHex(session.getUser().getPartner().getBank().getE002Digest()));
         var signatureData = EbicsXmlFactory.createSignatureData(true,
-            Utils.encrypt(Utils.zip(userSignature.prettyPrint()), keySpec));
+            Utils.encrypt(zip(userSignature.prettyPrint(), compression), keySpec));
         var dataEncryptionInfo = EbicsXmlFactory.createDataEncryptionInfo(true,
             encryptionPubKeyDigest, generateTransactionKey());
 
-        String digest;
-        try {
-            // TODO: check if this is correct
-            digest = Base64.encodeBase64String(MessageDigest.getInstance("SHA-256", "BC").digest(this.userData));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-            throw new EbicsException(e);
-        }
+        // TODO: check if this is correct
+        String digest = Base64.encodeBase64String(digest(this.userData));
         var dataTransfer = EbicsXmlFactory.createDataTransferRequestType(dataEncryptionInfo,
             signatureData, digest);
         var body = EbicsXmlFactory.createEbicsRequestBody(dataTransfer);
@@ -145,6 +169,37 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
         document = EbicsXmlFactory.createEbicsRequestDocument(request);
     }
 
+  /**
+   * Computes the SHA-256 digest of the user data.
+   * @param content the user data
+   * @return the digest value
+   * @throws EbicsException
+   */
+  private static byte[] digest(ContentFactory content) throws EbicsException {
+    try (InputStream in = content.getContent()) {
+      MessageDigest digest = Utils.getCryptoEngine().createDigest();
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, len);
+      }
+      return digest.digest();
+    } catch (GeneralSecurityException | IOException e) {
+      throw new EbicsException(e);
+    }
+  }
+
+  /**
+   * Compresses the user signature with the level chosen by the policy.
+   * @param data the user signature
+   * @param policy the compression policy
+   * @return the compressed user signature
+   * @throws EbicsException
+   */
+  private byte[] zip(byte[] data, CompressionPolicy policy) throws EbicsException {
+    return Utils.zip(data, policy.getLevel(type, data.length));
+  }
+
   /**
    * Returns the user signature data.
    * @return the user signature data.
@@ -158,10 +213,28 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
    * @param segment the segment number
    * @return the content of the given segment
    */
-  public ContentFactory getContent(int segment) {
+  public ContentFactory getContent(int segment) throws EbicsException {
     return splitter.getContent(segment);
   }
 
+  /**
+   * Moves the compressed and encrypted order data to a file, without
+   * copying it when it was spooled.
+   * @param target the file receiving the order data
+   * @throws EbicsException the order data cannot be moved
+   */
+  public void moveContent(File target) throws EbicsException {
+    splitter.moveTo(target);
+  }
+
+  /**
+   * Releases the spooled segments of a streamed upload.
+   */
+  @Override
+  public void close() {
+    splitter.close();
+  }
+
   /**
    * Returns the total segment number.
    * @return the total segment number.
@@ -174,7 +247,7 @@ public class UploadInitializationRequestElement extends InitializationRequestEle
   // DATA MEMBERS
   // --------------------------------------------------------------------
   private final EbicsUploadParams uploadParams;
-  private final byte[] userData;
+  private final ContentFactory userData;
   private UserSignature			userSignature;
   private final Splitter splitter;
   private static final long 		serialVersionUID = -8083183483311283608L;
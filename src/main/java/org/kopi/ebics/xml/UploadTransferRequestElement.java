@@ -18,9 +18,22 @@
 
 package org.kopi.ebics.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.kopi.ebics.exception.EbicsException;
 import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsOrderType;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.io.ByteBufferContentFactory;
 import org.kopi.ebics.io.IOUtils;
 import org.kopi.ebics.schema.h005.DataTransferRequestType;
 import org.kopi.ebics.schema.h005.DataTransferRequestType.OrderData;
@@ -36,6 +49,12 @@ import org.kopi.ebics.session.EbicsSession;
  * The <code>UTransferRequestElement</code> is the root element
  * for all ebics upload transfers.
  *
+ * <p>When the segment is given as a {@link ByteBufferContentFactory}, the
+ * request is built and signed with an empty <code>OrderData</code>, which
+ * is not authenticated, and the segment is base64 encoded straight into
+ * the serialized request. The segment is thus never copied nor held in
+ * memory as a base64 string.
+ *
  *
  */
 public class UploadTransferRequestElement extends TransferRequestElement {
@@ -75,7 +94,11 @@ public class UploadTransferRequestElement extends TransferRequestElement {
     mutable = EbicsXmlFactory.createMutableHeaderType("Transfer", segmentNumber);
     xstatic = EbicsXmlFactory.createStaticHeaderType(session.getBankID(), transactionId);
     header = EbicsXmlFactory.createEbicsRequestHeader(true, mutable, xstatic);
-    orderData = EbicsXmlFactory.createEbicsRequestOrderData(IOUtils.getFactoryContent(content));
+    if (content instanceof ByteBufferContentFactory) {
+      orderData = EbicsXmlFactory.createEbicsRequestOrderData(new byte[0]);
+    } else {
+      orderData = EbicsXmlFactory.createEbicsRequestOrderData(IOUtils.getFactoryContent(content));
+    }
     dataTransfer = EbicsXmlFactory.createDataTransferRequestType(orderData);
     body = EbicsXmlFactory.createEbicsRequestBody(dataTransfer);
     request = EbicsXmlFactory.createEbicsRequest(session.getConfiguration().getRevision(),
@@ -85,10 +108,95 @@ public class UploadTransferRequestElement extends TransferRequestElement {
     document = EbicsXmlFactory.createEbicsRequestDocument(request);
   }
 
+  @Override
+  public void build() throws EbicsException {
+    super.build();
+    if (content instanceof ByteBufferContentFactory) {
+      splice = indexOf(canonicalForm, ORDER_DATA_PLACEHOLDER);
+      if (splice < 0) {
+        throw new EbicsException("Missing OrderData element");
+      }
+      splice += ORDER_DATA_PLACEHOLDER.length - 2;
+    }
+  }
+
+  /**
+   * Returns the serialized request, with the order data.
+   * @return the serialized request
+   */
+  @Override
+  public byte[] prettyPrint() {
+    ByteArrayOutputStream		output;
+
+    if (!(content instanceof ByteBufferContentFactory)) {
+      return super.prettyPrint();
+    }
+    output = new ByteArrayOutputStream(canonicalForm.length + ((ByteBufferContentFactory) content).getEncodedLength());
+    try (InputStream in = toContentFactory().getContent()) {
+      in.transferTo(output);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to serialize the request", e);
+    }
+    return output.toByteArray();
+  }
+
+  @Override
+  public void save(OutputStream out) throws EbicsException {
+    try (InputStream in = toContentFactory().getContent()) {
+      in.transferTo(out);
+      out.flush();
+      out.close();
+    } catch (IOException e) {
+      throw new EbicsException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the serialized request as a content factory. The order data
+   * of a buffer segment is encoded while the request is read.
+   * @return the serialized request
+   */
+  @Override
+  public ContentFactory toContentFactory() {
+    if (!(content instanceof ByteBufferContentFactory)) {
+      return new ByteArrayContentFactory(super.prettyPrint());
+    }
+    ByteBufferContentFactory segment = (ByteBufferContentFactory) content;
+    byte[] request = canonicalForm;
+    int position = splice;
+    return new ContentFactory() {
+
+      @Override
+      public InputStream getContent() {
+        return new SequenceInputStream(Collections.enumeration(List.of(
+          new ByteArrayInputStream(request, 0, position),
+          segment.getEncodedContent(),
+          new ByteArrayInputStream(request, position, request.length - position))));
+      }
+
+      @Override
+      public long getContentLength() {
+        return request.length + segment.getEncodedLength();
+      }
+    };
+  }
+
+  private static int indexOf(byte[] data, byte[] pattern) {
+    for (int i = 0; i <= data.length - pattern.length; i++) {
+      if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
   private final ContentFactory		content;
+  private int				splice;
+
+  private static final byte[]		ORDER_DATA_PLACEHOLDER = "OrderData></".getBytes(StandardCharsets.US_ASCII);
   private static final long 		serialVersionUID = 8465397978597444978L;
 }
@@ -19,12 +19,15 @@
 package org.kopi.ebics.xml;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 
 import org.ebics.s002.OrderSignatureDataType;
 import org.ebics.s002.UserSignatureDataSigBookType;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.ContentFactory;
 import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.io.ByteArrayContentFactory;
 
 
 /**
@@ -47,6 +50,22 @@ public class UserSignature extends DefaultEbicsRootElement {
                        String name,
                        String signatureVersion,
                        byte[] toSign)
+  {
+    this(user, name, signatureVersion, new ByteArrayContentFactory(toSign));
+  }
+
+  /**
+   * Constructs a new <code>UserSignature</code> element for
+   * an Ebics user and a content to sign. The content is read
+   * as a stream when the signature is computed.
+   * @param user the ebics user
+   * @param signatureVersion the signature version
+   * @param toSign the content to be signed
+   */
+  public UserSignature(EbicsUser user,
+                       String name,
+                       String signatureVersion,
+                       ContentFactory toSign)
   {
     this.user = user;
     this.toSign = toSign;
@@ -60,8 +79,8 @@ public class UserSignature extends DefaultEbicsRootElement {
     OrderSignatureDataType orderSignatureData;
     byte[]				signature;
 
-    try {
-      signature = user.sign(toSign);
+    try (InputStream data = toSign.getContent()) {
+      signature = user.sign(data);
     } catch (IOException e) {
       throw new EbicsException(e.getMessage());
     } catch (GeneralSecurityException e) {
@@ -94,7 +113,7 @@ public class UserSignature extends DefaultEbicsRootElement {
 
   private final EbicsUser 			user;
   private final String 			signatureVersion;
-  private final byte[]			toSign;
+  private final ContentFactory		toSign;
   private final String			name;
   private static final long 		serialVersionUID = 2992372604876703738L;
 }
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.Security;
@@ -195,11 +196,27 @@ class CertificateManagerTest {
                 return new byte[0];
             }
 
+            @Override
+            public byte[] sign(InputStream data) throws IOException, GeneralSecurityException {
+                return new byte[0];
+            }
+
             @Override
             public byte[] decrypt(byte[] encryptedKey, byte[] transactionKey)
                 throws GeneralSecurityException, IOException, EbicsException {
                 return new byte[0];
             }
+
+            @Override
+            public boolean supportsTransactionKeyDecryption() {
+                return true;
+            }
+
+            @Override
+            public byte[] decryptTransactionKey(byte[] transactionKey)
+                throws GeneralSecurityException, IOException {
+                return new byte[0];
+            }
         };
     }
 }
@@ -0,0 +1,50 @@
+package org.kopi.ebics.certificate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.Configuration;
+import org.mockito.Mockito;
+
+class KeyPairPoolTest {
+
+    @Test
+    void testTakeUsesPooledPairsThenGeneratesTheRest() throws Exception {
+        try (KeyPairPool pool = new KeyPairPool(1024, 2, 1)) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (pool.size() < 2 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            assertEquals(2, pool.size());
+
+            KeyPair[] keyPairs = pool.take(3);
+
+            assertEquals(3, keyPairs.length);
+            for (KeyPair keyPair : keyPairs) {
+                assertEquals(1024, ((RSAPublicKey) keyPair.getPublic()).getModulus().bitLength());
+            }
+            assertNotEquals(keyPairs[0].getPublic(), keyPairs[1].getPublic());
+            assertNotEquals(keyPairs[1].getPublic(), keyPairs[2].getPublic());
+            assertTrue(pool.size() <= 2);
+        }
+    }
+
+    @Test
+    void testPoolIsCreatedFromTheClientConfiguration() {
+        Configuration conf = Mockito.mock(Configuration.class);
+        assertNull(KeyPairPool.create(conf, 1024));
+
+        Mockito.when(conf.getProperty("key.pool.size")).thenReturn("1");
+        try (KeyPairPool pool = KeyPairPool.create(conf, 1024)) {
+            assertEquals(1024, pool.getKeyLength());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BulkOnboardingTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReadManifestInAnyColumnOrder() throws Exception {
+        File manifest = write("manifest.csv",
+            "userId;hostId;partnerId;bank.url;bank.name;user.name;user.email;user.country;user.org",
+            "USER1;HOST;PARTNER;https://bank.example/ebics;Bank;Jane Doe;jane@example.com;DE;Acme",
+            "",
+            "USER2;HOST;PARTNER;https://bank.example/ebics;Bank;John Doe;john@example.com;DE;Acme");
+
+        List<BulkOnboarding.Subscriber> subscribers = BulkOnboarding.readManifest(manifest);
+
+        assertEquals(2, subscribers.size());
+        assertEquals(new BulkOnboarding.Subscriber(new URL("https://bank.example/ebics"), "Bank",
+            "HOST", "PARTNER", "USER1", "Jane Doe", "jane@example.com", "DE", "Acme"), subscribers.get(0));
+        assertEquals("USER2", subscribers.get(1).userId());
+    }
+
+    @Test
+    void testReadManifestRejectsMissingColumns() throws Exception {
+        File manifest = write("manifest.csv", "hostId,partnerId,userId", "HOST,PARTNER,USER1");
+
+        assertThrows(IOException.class, () -> BulkOnboarding.readManifest(manifest));
+    }
+
+    @Test
+    void testWriteReport() throws Exception {
+        BulkOnboarding.Subscriber subscriber = new BulkOnboarding.Subscriber(
+            new URL("https://bank.example/ebics"), "Bank", "HOST", "PARTNER", "USER1",
+            "Jane Doe", "jane@example.com", "DE", "Acme");
+        File report = dir.resolve("report.csv").toFile();
+
+        BulkOnboarding.writeReport(List.of(
+            new BulkOnboarding.Result(subscriber, BulkOnboarding.Step.HIA, null, 12),
+            new BulkOnboarding.Result(subscriber, BulkOnboarding.Step.INI, "[EBICS_ERROR]; rejected", 7)),
+            report);
+
+        assertEquals(List.of("hostId;partnerId;userId;status;step;elapsed;error",
+                             "HOST;PARTNER;USER1;OK;HIA;12;",
+                             "HOST;PARTNER;USER1;FAILED;INI;7;[EBICS_ERROR], rejected"),
+                     Files.readAllLines(report.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private File write(String name, String... lines) throws IOException {
+        return Files.write(dir.resolve(name), List.of(lines), StandardCharsets.UTF_8).toFile();
+    }
+}
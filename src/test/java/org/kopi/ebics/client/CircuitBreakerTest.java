@@ -0,0 +1,65 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.CircuitOpenException;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.mockito.Mockito;
+
+class CircuitBreakerTest {
+
+    @Test
+    void testOpensOnFailureRateAndFailsFast() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 0, 60_000);
+        EbicsBank bank = bank("https://bank-a.example/ebics");
+        AtomicInteger probes = new AtomicInteger();
+        CircuitBreaker.Probe probe = () -> probes.incrementAndGet() > 0;
+
+        breaker.success(bank, 1_000);
+        breaker.success(bank, 1_000);
+        breaker.failure(bank);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(bank));
+        breaker.failure(bank);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(bank));
+
+        assertThrows(CircuitOpenException.class, () -> breaker.acquire(bank, probe));
+        assertEquals(0, probes.get());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(bank("https://bank-b.example/ebics")));
+    }
+
+    @Test
+    void testProbesWhenHalfOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, 0, 0);
+        EbicsBank bank = bank("https://bank-a.example/ebics");
+        breaker.failure(bank);
+        breaker.failure(bank);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(bank));
+
+        assertThrows(CircuitOpenException.class, () -> breaker.acquire(bank, () -> false));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(bank));
+
+        breaker.acquire(bank, () -> true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(bank));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getStates().get("https://bank-a.example/ebics"));
+    }
+
+    @Test
+    void testSlowAnswersCountAsFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(4, 2, 1, 100, 60_000);
+        EbicsBank bank = bank("https://bank-a.example/ebics");
+        breaker.success(bank, 200_000_000L);
+        breaker.success(bank, 300_000_000L);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(bank));
+    }
+
+    private static EbicsBank bank(String url) throws Exception {
+        EbicsBank bank = Mockito.mock(EbicsBank.class);
+        Mockito.when(bank.getURL()).thenReturn(new URL(url));
+        return bank;
+    }
+}
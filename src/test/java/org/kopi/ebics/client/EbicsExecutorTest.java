@@ -0,0 +1,111 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.mockito.Mockito;
+
+class EbicsExecutorTest {
+
+    @Test
+    void testLimitsTransactionsOverallAndPerBank() throws Exception {
+        List<EbicsBank> banks = List.of(bank("A"), bank("B"), bank("C"));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Map<String, AtomicInteger> perBank = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxPerBank = new ConcurrentHashMap<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+
+        try (EbicsExecutor executor = new EbicsExecutor(4, 2)) {
+            for (int i = 0; i < 60; i++) {
+                EbicsBank bank = banks.get(i % banks.size());
+                int index = i;
+                futures.add(executor.submit(bank, () -> {
+                    String hostId = bank.getHostId();
+                    AtomicInteger bankRunning = perBank.computeIfAbsent(hostId, id -> new AtomicInteger());
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    maxPerBank.computeIfAbsent(hostId, id -> new AtomicInteger())
+                        .accumulateAndGet(bankRunning.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    bankRunning.decrementAndGet();
+                    running.decrementAndGet();
+                    return index;
+                }));
+            }
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get());
+        }
+        assertTrue(maxRunning.get() <= 4);
+        for (AtomicInteger max : maxPerBank.values()) {
+            assertTrue(max.get() <= 2);
+        }
+    }
+
+    @Test
+    void testFailuresCompleteTheFutureAndFreeTheBank() throws Exception {
+        try (EbicsExecutor executor = new EbicsExecutor(2, 1)) {
+            EbicsBank bank = bank("A");
+            CompletableFuture<Object> failed = executor.submit(bank, () -> {
+                throw new IOException("connection reset");
+            });
+            CompletableFuture<String> next = executor.submit(bank, () -> "done");
+
+            ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+            assertInstanceOf(IOException.class, e.getCause());
+            assertEquals("done", next.get());
+        }
+    }
+
+    @Test
+    void testClosedExecutorRejectsTransactions() {
+        EbicsExecutor executor = new EbicsExecutor(1, 1);
+        executor.close();
+        assertThrows(RejectedExecutionException.class, () -> executor.submit(bank("A"), () -> null));
+    }
+
+    @Test
+    void testInterruptedCloseCancelsTheTransactionsNotStarted() throws Exception {
+        EbicsExecutor executor = new EbicsExecutor(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Object> running = executor.submit(bank("A"), () -> {
+            started.countDown();
+            Thread.sleep(60_000);
+            return null;
+        });
+        CompletableFuture<String> queuedInPool = executor.submit(bank("B"), () -> "B");
+        CompletableFuture<String> queuedInLane = executor.submit(bank("A"), () -> "A");
+        started.await();
+
+        Thread.currentThread().interrupt();
+        executor.close();
+        assertTrue(Thread.interrupted());
+
+        assertTrue(queuedInPool.isCancelled());
+        ExecutionException e = assertThrows(ExecutionException.class, queuedInLane::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertThrows(ExecutionException.class, running::get);
+    }
+
+    private static EbicsBank bank(String hostId) {
+        EbicsBank bank = Mockito.mock(EbicsBank.class);
+        Mockito.when(bank.getHostId()).thenReturn(hostId);
+        return bank;
+    }
+}
@@ -0,0 +1,107 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.exception.HttpStatusException;
+import org.kopi.ebics.exception.ReturnCode;
+import org.kopi.ebics.interfaces.EbicsBank;
+import org.mockito.Mockito;
+
+class RetryPolicyTest {
+
+    @Test
+    void testRetriesTransientFailures() throws Exception {
+        RetryPolicy policy = new RetryPolicy(4, 1, 5, 0.2);
+        AtomicInteger calls = new AtomicInteger();
+        String result = policy.call(bank("A"), "Segment 7", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new HttpStatusException(503, "Service unavailable");
+            }
+            return "done";
+        });
+        assertEquals("done", result);
+        assertEquals(3, policy.getAttempts());
+        assertEquals(2, policy.getRetries());
+        assertEquals(0, policy.getFailures());
+    }
+
+    @Test
+    void testFailsPermanentFailuresAtOnce() {
+        RetryPolicy policy = new RetryPolicy(4, 1, 5, 0.2);
+        AtomicInteger calls = new AtomicInteger();
+        EbicsException e = assertThrows(EbicsException.class,
+            () -> policy.call(bank("A"), "Receipt", () -> {
+                calls.incrementAndGet();
+                throw new EbicsException(ReturnCode.EBICS_AUTHENTICATION_FAILED);
+            }));
+        assertEquals(ReturnCode.EBICS_AUTHENTICATION_FAILED, e.getReturnCode());
+        assertEquals(1, calls.get());
+        assertEquals(1, policy.getFailures());
+    }
+
+    @Test
+    void testRetryBudgetIsSharedByTheStepsOfABank() throws Exception {
+        RetryPolicy policy = new RetryPolicy(100, 0, 0, 0);
+        assertThrows(IOException.class, () -> policy.call(bank("A"), "Segment 1", () -> {
+            throw new SocketTimeoutException("Read timed out");
+        }));
+        assertEquals(RetryPolicy.RETRY_RESERVE, policy.getRetries());
+        assertEquals(1, policy.getExhaustedRetries());
+
+        assertThrows(IOException.class, () -> policy.call(bank("A"), "Segment 2", () -> {
+            throw new SocketTimeoutException("Read timed out");
+        }));
+        assertEquals(RetryPolicy.RETRY_RESERVE, policy.getRetries());
+        assertEquals("done", policy.call(bank("B"), "Segment 1", () -> "done"));
+    }
+
+    @Test
+    void testClassifiesFailures() {
+        assertTrue(RetryPolicy.isTransient(new HttpStatusException(502, "Bad gateway")));
+        assertTrue(RetryPolicy.isTransient(new HttpStatusException(429, "Too many requests")));
+        assertFalse(RetryPolicy.isTransient(new HttpStatusException(404, "Not found")));
+        assertTrue(RetryPolicy.isTransient(new EbicsException(ReturnCode.EBICS_INTERNAL_ERROR)));
+        assertTrue(RetryPolicy.isTransient(new EbicsException(ReturnCode.EBICS_TX_RECOVERY_SYNC)));
+        assertFalse(RetryPolicy.isTransient(new EbicsException("Invalid response")));
+        assertTrue(RetryPolicy.isTransient(new SocketTimeoutException("Read timed out")));
+        assertTrue(RetryPolicy.isTransient(new IOException("Connection reset")));
+        assertFalse(RetryPolicy.isTransient(new UnknownHostException("bank.example")));
+        assertFalse(RetryPolicy.isTransient(new EbicsException(ReturnCode.EBICS_TX_SEGMENT_NUMBER_UNDERRUN)));
+    }
+
+    @Test
+    void testSendsUploadSegmentsAgainOnlyOnRecoverySync() throws Exception {
+        RetryPolicy policy = new RetryPolicy(4, 1, 5, 0.2);
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(IOException.class, () -> policy.call(bank("A"), "Segment 2", () -> {
+            calls.incrementAndGet();
+            throw new IOException("Connection reset");
+        }, RetryPolicy::isUploadRecoverable));
+        assertEquals(1, calls.get());
+
+        String result = policy.call(bank("A"), "Segment 3", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new EbicsException(ReturnCode.EBICS_TX_RECOVERY_SYNC);
+            }
+            return "done";
+        }, RetryPolicy::isUploadRecoverable);
+        assertEquals("done", result);
+        assertFalse(RetryPolicy.isUploadRecoverable(new HttpStatusException(503, "Service unavailable")));
+    }
+
+    private static EbicsBank bank(String hostId) {
+        EbicsBank bank = Mockito.mock(EbicsBank.class);
+        Mockito.when(bank.getHostId()).thenReturn(hostId);
+        return bank;
+    }
+}
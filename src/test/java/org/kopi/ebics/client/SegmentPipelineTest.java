@@ -0,0 +1,73 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.EbicsException;
+
+class SegmentPipelineTest {
+
+    @Test
+    void testSegmentsAreReturnedInOrder() throws Exception {
+        List<String> handled = new ArrayList<>();
+        try (var pipeline = new SegmentPipeline<String>((segmentNumber, lastSegment) -> {
+            LockSupport.parkNanos((5 - segmentNumber) * 10_000_000L);
+            return segmentNumber + (lastSegment ? "L" : "");
+        }, 2, 5, 2)) {
+            for (int i = 2; i <= 5; i++) {
+                handled.add(pipeline.next());
+            }
+        }
+        assertEquals(List.of("2", "3", "4", "5L"), handled);
+    }
+
+    @Test
+    void testStageErrorIsReported() throws Exception {
+        try (var pipeline = new SegmentPipeline<String>((segmentNumber, lastSegment) -> {
+            if (segmentNumber == 2) {
+                throw new EbicsException("cannot handle segment");
+            }
+            return "ok";
+        }, 1, 3, 2)) {
+            assertEquals("ok", pipeline.next());
+            EbicsException e = assertThrows(EbicsException.class, pipeline::next);
+            assertEquals("cannot handle segment", e.getMessage());
+        }
+    }
+
+    @Test
+    void testNoSegmentIsHandledAfterAFailure() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        try (var pipeline = new SegmentPipeline<Integer>((segmentNumber, lastSegment) -> {
+            handled.incrementAndGet();
+            if (segmentNumber == 1) {
+                throw new IOException("connection reset");
+            }
+            return segmentNumber;
+        }, 1, 4, 3)) {
+            assertThrows(IOException.class, pipeline::next);
+        }
+        assertEquals(1, handled.get());
+    }
+
+    @Test
+    void testNoSegmentIsHandledAheadOfARefusedOne() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        try (var pipeline = new SegmentPipeline<Integer>((segmentNumber, lastSegment) -> {
+            handled.incrementAndGet();
+            return segmentNumber;
+        }, segmentNumber -> segmentNumber != 2, 1, 4, 3)) {
+            assertEquals(1, pipeline.next());
+            assertEquals(2, pipeline.next());
+            assertThrows(EbicsException.class, pipeline::next);
+        }
+        assertEquals(2, handled.get());
+    }
+}
@@ -0,0 +1,85 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.mockito.Mockito;
+
+class TransactionGovernorTest {
+
+    @Test
+    void testLimitsTransactionsInFlight() throws Exception {
+        TransactionGovernor governor = new TransactionGovernor(2, 0, TransactionGovernor.Scope.BANK);
+        EbicsUser user = user("HOST", "PARTNER", "USER1");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Thread thread = new Thread(() -> {
+                try (TransactionGovernor.Permit permit = governor.acquire(user)) {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void testAdaptsToTheBankAndRecovers() throws Exception {
+        TransactionGovernor governor = new TransactionGovernor(4, 0, TransactionGovernor.Scope.BANK);
+        EbicsUser user = user("HOST", "PARTNER", "USER1");
+        TransactionGovernor.Permit first = governor.acquire(user);
+        TransactionGovernor.Permit second = governor.acquire(user);
+        TransactionGovernor.Permit third = governor.acquire(user);
+        third.exceeded();
+        first.close();
+        second.close();
+        assertEquals(2, governor.getTransactionLimit(user));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < TransactionGovernor.RECOVERY_TRANSACTIONS; i++) {
+            governor.acquire(user).close();
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(3, governor.getTransactionLimit(user));
+    }
+
+    @Test
+    void testScopesAndRequestRate() throws Exception {
+        TransactionGovernor governor = new TransactionGovernor(1, 50, TransactionGovernor.Scope.USER);
+        EbicsUser user1 = user("HOST", "PARTNER", "USER1");
+        EbicsUser user2 = user("HOST", "PARTNER", "USER2");
+        try (TransactionGovernor.Permit permit1 = governor.acquire(user1);
+             TransactionGovernor.Permit permit2 = governor.acquire(user2)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 6; i++) {
+                governor.throttle(user1);
+            }
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        }
+    }
+
+    private static EbicsUser user(String hostId, String partnerId, String userId) {
+        EbicsUser user = Mockito.mock(EbicsUser.class, Mockito.RETURNS_DEEP_STUBS);
+        Mockito.when(user.getPartner().getBank().getHostId()).thenReturn(hostId);
+        Mockito.when(user.getPartner().getPartnerId()).thenReturn(partnerId);
+        Mockito.when(user.getUserId()).thenReturn(userId);
+        return user;
+    }
+}
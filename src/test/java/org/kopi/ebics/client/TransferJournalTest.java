@@ -0,0 +1,76 @@
+package org.kopi.ebics.client;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kopi.ebics.io.IOUtils;
+import org.kopi.ebics.io.Splitter;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.utils.Utils;
+
+class TransferJournalTest {
+
+    @TempDir
+    File workingDirectory;
+
+    @Test
+    void testCheckpointSurvivesReload() throws Exception {
+        TransferState state = new TransferState(3, new byte[] {1, 2, 3});
+        TransferJournal journal = TransferJournal.create(workingDirectory, OrderType.STA, state,
+            new byte[] {9, 9}, new File(workingDirectory, "out.txt"));
+        journal.checkpoint(1, new byte[] {10});
+        journal.checkpoint(2, new byte[] {20, 21});
+
+        List<TransferJournal> pending = TransferJournal.list(workingDirectory);
+        assertEquals(1, pending.size());
+        TransferJournal loaded = pending.get(0);
+        assertEquals(OrderType.STA, loaded.getOrderType());
+        assertEquals(2, loaded.getState().getSegmentNumber());
+        assertEquals(3, loaded.getState().getNumSegments());
+        assertTrue(loaded.getState().hasNext());
+        assertArrayEquals(new byte[] {9, 9}, loaded.getTransactionKey());
+        assertArrayEquals(new byte[] {20, 21}, IOUtils.getFactoryContent(loaded.getSegment(2)));
+        assertEquals(new File(workingDirectory, "out.txt").getAbsoluteFile(), loaded.getOutputFile());
+    }
+
+    @Test
+    void testUploadSegmentsAreAcknowledgedSeparately() throws Exception {
+        Splitter splitter = new Splitter(new byte[1_000_000]);
+        splitter.readInput(false, new SecretKeySpec(Utils.generateKey(), "AES"));
+        byte[] segment = IOUtils.getFactoryContent(splitter.getContent(2));
+        TransferJournal journal = TransferJournal.createUpload(workingDirectory, OrderType.XE2,
+            new TransferState(splitter.getSegmentNumber(), new byte[] {5, 6}), "A001");
+        splitter.moveTo(journal.getContentFile());
+        journal.syncContent();
+        splitter.close();
+        journal.acknowledge(1);
+
+        TransferJournal loaded = TransferJournal.load(journal.getDirectory());
+        assertTrue(loaded.isUpload());
+        assertEquals("A001", loaded.getOrderId());
+        assertEquals(1, loaded.getState().getSegmentNumber());
+        assertEquals(2, loaded.getState().next());
+        assertTrue(loaded.getState().isLastSegment());
+        assertArrayEquals(segment, IOUtils.getFactoryContent(loaded.getSegment(2)));
+    }
+
+    @Test
+    void testDeleteRemovesJournal() throws Exception {
+        TransferJournal journal = TransferJournal.create(workingDirectory, OrderType.STA,
+            new TransferState(1, new byte[] {4}), new byte[0], new File(workingDirectory, "out"));
+        journal.checkpoint(1, new byte[] {1});
+        journal.delete();
+
+        assertFalse(journal.getDirectory().exists());
+        assertTrue(TransferJournal.list(workingDirectory).isEmpty());
+    }
+}
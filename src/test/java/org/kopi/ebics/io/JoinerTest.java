@@ -0,0 +1,83 @@
+package org.kopi.ebics.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.utils.Utils;
+import org.mockito.Mockito;
+
+class JoinerTest {
+
+    private static final Random RANDOM_SEED = new Random(0);
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    void testStreamingJoinRestoresData() throws Exception {
+        byte[] key = Utils.generateKey();
+        byte[] data = compressibleData(3_000_000);
+        byte[] encrypted = Utils.encrypt(Utils.zip(data), new SecretKeySpec(key, "EAS"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (Joiner joiner = new Joiner(user(key), new byte[0], output)) {
+            for (int offset = 0; offset < encrypted.length; offset += 700_000) {
+                joiner.append(Arrays.copyOfRange(encrypted, offset,
+                    Math.min(encrypted.length, offset + 700_000)));
+            }
+        }
+        assertArrayEquals(data, output.toByteArray());
+    }
+
+    @Test
+    void testStreamingJoinRejectsTruncatedData() throws Exception {
+        byte[] key = Utils.generateKey();
+        byte[] encrypted = Utils.encrypt(Utils.zip(compressibleData(100_000)),
+            new SecretKeySpec(key, "EAS"));
+
+        Joiner joiner = new Joiner(user(key), new byte[0], new ByteArrayOutputStream());
+        joiner.append(Arrays.copyOf(encrypted, encrypted.length - 5));
+        assertThrows(IOException.class, joiner::close);
+    }
+
+    @Test
+    void testJoinsInMemoryWhenTheUserCannotDecryptTheKey() throws Exception {
+        byte[] data = compressibleData(100_000);
+        EbicsUser user = Mockito.mock(EbicsUser.class);
+        Mockito.when(user.supportsTransactionKeyDecryption()).thenReturn(false);
+        Mockito.when(user.decrypt(Mockito.any(), Mockito.any())).thenReturn(Utils.zip(data));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (Joiner joiner = new Joiner(user, new byte[0], output)) {
+            joiner.append(new byte[16]);
+        }
+        assertArrayEquals(data, output.toByteArray());
+    }
+
+    private EbicsUser user(byte[] key) throws Exception {
+        EbicsUser user = Mockito.mock(EbicsUser.class);
+        Mockito.when(user.supportsTransactionKeyDecryption()).thenReturn(true);
+        Mockito.when(user.decryptTransactionKey(Mockito.any())).thenReturn(key);
+        return user;
+    }
+
+    private byte[] compressibleData(int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte) ('a' + RANDOM_SEED.nextInt(4));
+        }
+        return b;
+    }
+}
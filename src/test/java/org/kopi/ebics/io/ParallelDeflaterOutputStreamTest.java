@@ -0,0 +1,76 @@
+package org.kopi.ebics.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelDeflaterOutputStreamTest {
+
+    @Test
+    void testBlocksFormOneValidZlibStream() throws Exception {
+        byte[] data = data(100_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int level : new int[] { 1, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION }) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                try (OutputStream out = new ParallelDeflaterOutputStream(output, level, 4096, executor)) {
+                    out.write(data, 0, 10);
+                    out.write(data[10]);
+                    out.write(data, 11, data.length - 11);
+                }
+
+                assertArrayEquals(data, inflate(output.toByteArray(), data.length));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testEmptyAndBlockAlignedInputs() throws Exception {
+        for (int size : new int[] { 0, 8192 }) {
+            byte[] data = data(size);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (OutputStream out = new ParallelDeflaterOutputStream(output, Deflater.BEST_COMPRESSION, 4096,
+                                                                     ForkJoinPool.commonPool())) {
+                out.write(data);
+            }
+
+            assertArrayEquals(data, inflate(output.toByteArray(), data.length));
+        }
+    }
+
+    private static byte[] data(int size) {
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append("<CdtTrfTxInf><Amt>").append(random.nextInt(100000)).append("</Amt></CdtTrfTxInf>");
+        }
+        return builder.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] inflate(byte[] compressed, int size) throws Exception {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] result = new byte[size + 1];
+        int count = inflater.inflate(result);
+        // the inflater only finishes once the Adler-32 trailer is checked
+        assertTrue(inflater.finished());
+        assertEquals(0, inflater.getRemaining());
+        inflater.end();
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -3,6 +3,7 @@ package org.kopi.ebics.io;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.jupiter.api.Test;
 import org.kopi.ebics.exception.EbicsException;
+import org.kopi.ebics.interfaces.CompressionPolicy;
 import org.kopi.ebics.session.EbicsSession;
 import org.kopi.ebics.session.OrderType;
 import org.kopi.ebics.xml.UploadTransferRequestElement;
@@ -12,14 +13,21 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import org.kopi.ebics.utils.Utils;
+
 class SplitterTest {
 
     private static final int ONE_KB = 1000;
@@ -56,6 +64,70 @@ class SplitterTest {
         verifyActualRequestSize(splitter);
     }
 
+    @Test
+    void testStreamingSplitRestoresInput() throws Exception {
+        byte[] b = randomDataArray(3 * ONE_MB);
+        SecretKeySpec keySpec = new SecretKeySpec(secretKey().getEncoded(), "EAS");
+        try (Splitter splitter = new Splitter(new ByteArrayContentFactory(b))) {
+            splitter.readInput(true, keySpec);
+            assertTrue(splitter.getSegmentSize() < SplitterTest.CHUNK_SIZE_LIMIT);
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            for (int i = 1; i <= splitter.getSegmentNumber(); i++) {
+                joined.write(splitter.getContent(i).getContent().readAllBytes());
+            }
+            assertArrayEquals(splitter.getContent(), joined.toByteArray());
+            assertArrayEquals(b, Utils.unzip(Utils.decrypt(joined.toByteArray(), keySpec)));
+        }
+    }
+
+    @Test
+    void testStreamingSplitMatchesInMemorySplit() throws Exception {
+        byte[] b = randomDataArray(2 * ONE_MB);
+        SecretKeySpec keySpec = new SecretKeySpec(secretKey().getEncoded(), "EAS");
+        Splitter inMemory = new Splitter(b);
+        inMemory.readInput(false, keySpec);
+        try (Splitter streaming = new Splitter(new ByteArrayContentFactory(b))) {
+            streaming.readInput(false, keySpec);
+            assertEquals(inMemory.getSegmentNumber(), streaming.getSegmentNumber());
+            assertArrayEquals(Utils.decrypt(inMemory.getContent(), keySpec),
+                Utils.decrypt(streaming.getContent(), keySpec));
+        }
+    }
+
+    @Test
+    void testStreamingSplitGivesTheContentLengthToThePolicy() throws Exception {
+        byte[] b = randomDataArray(3 * ONE_MB);
+        SecretKeySpec keySpec = new SecretKeySpec(secretKey().getEncoded(), "EAS");
+        CompressionPolicy policy = Mockito.mock(CompressionPolicy.class);
+        Mockito.when(policy.getLevel(Mockito.any(), Mockito.anyLong())).thenReturn(1);
+        try (Splitter splitter = new Splitter(new ByteArrayContentFactory(b))) {
+            splitter.readInput(policy, OrderType.CDD, keySpec);
+            assertArrayEquals(b, Utils.unzip(Utils.decrypt(splitter.getContent(), keySpec)));
+        }
+        Mockito.verify(policy).getLevel(OrderType.CDD, b.length);
+    }
+
+    @Test
+    void testSegmentsAreViewsSplicedIntoTheRequest() throws Exception {
+        byte[] b = randomDataArray(2 * ONE_MB);
+        Splitter splitter = new Splitter(b);
+        splitter.readInput(true, new SecretKeySpec(secretKey().getEncoded(), "AES"));
+        ByteBufferContentFactory segment = splitter.getContent(2);
+        assertTrue(segment.getBuffer().isReadOnly());
+        assertEquals(Base64.getEncoder().encodeToString(segment.getContent().readAllBytes()),
+            new String(segment.getEncodedContent().readAllBytes(), StandardCharsets.US_ASCII));
+
+        EbicsSession ebicsSession = Mockito.mock(EbicsSession.class, Mockito.RETURNS_DEEP_STUBS);
+        UploadTransferRequestElement spliced = new UploadTransferRequestElement(ebicsSession,
+                OrderType.CDD, 2, false, "asda".getBytes(), segment);
+        UploadTransferRequestElement embedded = new UploadTransferRequestElement(ebicsSession,
+                OrderType.CDD, 2, false, "asda".getBytes(),
+                new ByteArrayContentFactory(segment.getContent().readAllBytes()));
+        spliced.build();
+        embedded.build();
+        assertArrayEquals(embedded.prettyPrint(), spliced.toContentFactory().getContent().readAllBytes());
+    }
+
     private UploadTransferRequestElement prepareActualRequest(Splitter splitter) throws EbicsException {
         EbicsSession ebicsSession = Mockito.mock(EbicsSession.class, Mockito.RETURNS_DEEP_STUBS);
 
@@ -82,10 +154,13 @@ class SplitterTest {
         int segmentSize = splitter.getSegmentSize();
         int segmentCount = splitter.getSegmentNumber();
         assertTrue(segmentSize < SplitterTest.CHUNK_SIZE_LIMIT);
+        int totalLength = 0;
         for (int i = 1; i <= segmentCount; i++) {
             int contentLength = splitter.getContent(i).getContent().available();
             assertTrue(contentLength < SplitterTest.CHUNK_SIZE_LIMIT);
+            totalLength += contentLength;
         }
+        assertEquals(splitter.getContent().length, totalLength);
         return splitter;
     }
 
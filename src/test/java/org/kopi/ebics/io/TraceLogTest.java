@@ -0,0 +1,74 @@
+package org.kopi.ebics.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TraceLogTest {
+
+    @TempDir
+    File traceDir;
+
+    @Test
+    void testAppendedTracesCanBeReadBack() throws Exception {
+        try (TraceLog log = new TraceLog(traceDir, 200)) {
+            for (int i = 0; i < 10; i++) {
+                log.append("STA" + i, trace("ABCDEF0" + i, "Transfer", "<body>" + "x".repeat(i * 50) + "</body>"));
+            }
+        }
+
+        List<TraceLog.Entry> entries = TraceLog.list(traceDir);
+        assertEquals(10, entries.size());
+        assertTrue(traceDir.listFiles().length > 2, "segments should have been rolled");
+        for (int i = 0; i < 10; i++) {
+            TraceLog.Entry entry = entries.get(i);
+            assertEquals("STA" + i, entry.name());
+            assertEquals("ABCDEF0" + i, entry.transactionId());
+            assertEquals("Transfer", entry.phase());
+            assertArrayEquals(trace("ABCDEF0" + i, "Transfer", "<body>" + "x".repeat(i * 50) + "</body>"),
+                              TraceLog.read(entry));
+        }
+    }
+
+    @Test
+    void testHeaderFields() throws Exception {
+        try (TraceLog log = new TraceLog(traceDir, 1024)) {
+            TraceLog.Entry entry = log.append("HPB", (
+                "<ebicsNoPubKeyDigestsRequest><header><static><OrderDetails>"
+                + "<AdminOrderType>HPB</AdminOrderType></OrderDetails></static></header>"
+                + "</ebicsNoPubKeyDigestsRequest>").getBytes(StandardCharsets.UTF_8));
+
+            assertEquals("HPB", entry.orderType());
+            assertEquals("", entry.transactionId());
+            assertEquals("", entry.phase());
+        }
+    }
+
+    @Test
+    void testDeleteRemovesOwnSegments() throws Exception {
+        try (TraceLog previous = new TraceLog(traceDir, 1024)) {
+            previous.append("kept", new byte[] {1});
+        }
+        TraceLog log = new TraceLog(traceDir, 1024);
+        log.append("dropped", new byte[] {2});
+        log.delete();
+
+        List<TraceLog.Entry> entries = TraceLog.list(traceDir);
+        assertEquals(1, entries.size());
+        assertEquals("kept", entries.get(0).name());
+    }
+
+    private static byte[] trace(String transactionId, String phase, String body) {
+        return ("<ebicsRequest xmlns=\"urn:org:ebics:H005\"><header><static>"
+                + "<TransactionID>" + transactionId + "</TransactionID></static><mutable>"
+                + "<TransactionPhase>" + phase + "</TransactionPhase></mutable></header>"
+                + body + "</ebicsRequest>").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,105 @@
+package org.kopi.ebics.security;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.security.Signature;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.certificate.KeyUtil;
+import org.kopi.ebics.interfaces.CryptoEngine;
+import org.kopi.ebics.utils.Utils;
+
+class PooledCryptoEngineTest {
+
+    private final CryptoEngine engine = new PooledCryptoEngine(PooledCryptoEngine.Providers.of(BouncyCastleProvider.PROVIDER_NAME), 1);
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    void testPooledPrimitivesGiveTheSameResultsOnReuse() throws Exception {
+        byte[] data = "EBICS order data".getBytes(StandardCharsets.US_ASCII);
+        SecretKeySpec keySpec = new SecretKeySpec(Utils.generateKey(), "AES");
+
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), engine.digest(data));
+        assertArrayEquals(engine.digest(data), engine.digest(data));
+
+        byte[] encrypted = engine.crypt(Cipher.ENCRYPT_MODE, data, keySpec);
+        assertArrayEquals(data, engine.crypt(Cipher.DECRYPT_MODE, encrypted, keySpec));
+        assertArrayEquals(data, engine.crypt(Cipher.DECRYPT_MODE, encrypted, keySpec));
+    }
+
+    @Test
+    void testSignerSurvivesFailedContent() throws Exception {
+        KeyPair keyPair = KeyUtil.makeKeyPair(1024);
+        byte[] data = "EBICS order data".getBytes(StandardCharsets.US_ASCII);
+        CryptoEngine.Signer signer = engine.createSigner(keyPair.getPrivate());
+
+        assertThrows(IOException.class, () -> signer.sign(signature -> {
+            signature.update(new byte[] { 1, 2, 3 });
+            throw new IOException("read failed");
+        }));
+        byte[] value = signer.sign(signature -> signature.update(data));
+
+        Signature verifier = Signature.getInstance("SHA256WithRSA");
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(data);
+        assertTrue(verifier.verify(value));
+    }
+
+    @Test
+    void testDecrypterRestoresTransactionKey() throws Exception {
+        KeyPair keyPair = KeyUtil.makeKeyPair(1024);
+        byte[] key = Utils.generateKey();
+        CryptoEngine.Decrypter decrypter = engine.createDecrypter(keyPair.getPrivate());
+
+        assertArrayEquals(key, decrypter.decrypt(engine.encrypt(key, keyPair.getPublic())));
+        assertArrayEquals(key, decrypter.decrypt(engine.encrypt(key, keyPair.getPublic())));
+    }
+
+    @Test
+    void testJdkProvidersConformToBouncyCastle() throws Exception {
+        assertTrue(CryptoProviders.conforms(CryptoProviders.Primitive.DIGEST, "SUN"));
+        assertTrue(CryptoProviders.conforms(CryptoProviders.Primitive.CIPHER, "SunJCE"));
+        assertTrue(CryptoProviders.conforms(CryptoProviders.Primitive.SIGNATURE, "SunRsaSign"));
+        assertTrue(CryptoProviders.conforms(CryptoProviders.Primitive.KEY_CIPHER, "SunJCE"));
+    }
+
+    @Test
+    void testMissingProviderFallsBackToBouncyCastle() {
+        System.setProperty("ebics.crypto.provider.digest", "Missing");
+        try {
+            PooledCryptoEngine.Providers providers = CryptoProviders.select();
+            assertEquals(BouncyCastleProvider.PROVIDER_NAME, providers.digest());
+            assertEquals("SunJCE", providers.cipher());
+        } finally {
+            System.clearProperty("ebics.crypto.provider.digest");
+        }
+    }
+
+    @Test
+    void testMixedProvidersInteroperate() throws Exception {
+        CryptoEngine jdk = new PooledCryptoEngine(new PooledCryptoEngine.Providers("SUN", "SunJCE", "SunRsaSign", "SunJCE"), 1);
+        KeyPair keyPair = KeyUtil.makeKeyPair(1024);
+        byte[] data = "EBICS order data".getBytes(StandardCharsets.US_ASCII);
+        SecretKeySpec keySpec = new SecretKeySpec(Utils.generateKey(), "AES");
+
+        assertArrayEquals(data, engine.crypt(Cipher.DECRYPT_MODE, jdk.crypt(Cipher.ENCRYPT_MODE, data, keySpec), keySpec));
+        assertArrayEquals(jdk.createSigner(keyPair.getPrivate()).sign(signature -> signature.update(data)),
+                          engine.createSigner(keyPair.getPrivate()).sign(signature -> signature.update(data)));
+        assertArrayEquals(data, jdk.createDecrypter(keyPair.getPrivate()).decrypt(engine.encrypt(data, keyPair.getPublic())));
+    }
+}
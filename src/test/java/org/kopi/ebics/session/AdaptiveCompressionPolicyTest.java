@@ -0,0 +1,39 @@
+package org.kopi.ebics.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveCompressionPolicyTest {
+
+    private static final long SIZE = 1_000_000;
+
+    @Test
+    void testUsesFallbackUntilTheLinkIsMeasured() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(new StaticCompressionPolicy(9), new int[] { 1, 9 }, 1000);
+
+        assertEquals(9, policy.getLevel(OrderType.XCT, SIZE));
+        policy.transferred(SIZE, SIZE);
+        assertEquals(9, policy.getLevel(OrderType.XCT, 10));
+        assertEquals(1, policy.getLevel(OrderType.XCT, SIZE));
+    }
+
+    @Test
+    void testChoosesTheFastestEndToEndLevel() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(new StaticCompressionPolicy(9), new int[] { 1, 9 }, 1000);
+        // level 1: 2 ns per byte, ratio 0.3 ; level 9: 20 ns per byte, ratio 0.2
+        policy.compressed(OrderType.XCT, 1, SIZE, SIZE * 3 / 10, 2 * SIZE);
+        policy.compressed(OrderType.XCT, 9, SIZE, SIZE * 2 / 10, 20 * SIZE);
+
+        // a fast link favours the fast compressor
+        policy.transferred(SIZE, SIZE);
+        assertEquals(1, policy.getLevel(OrderType.XCT, SIZE));
+
+        // a slow link favours the small output
+        AdaptiveCompressionPolicy slow = new AdaptiveCompressionPolicy(new StaticCompressionPolicy(9), new int[] { 1, 9 }, 1000);
+        slow.compressed(OrderType.XCT, 1, SIZE, SIZE * 3 / 10, 2 * SIZE);
+        slow.compressed(OrderType.XCT, 9, SIZE, SIZE * 2 / 10, 20 * SIZE);
+        slow.transferred(SIZE, 1000 * SIZE);
+        assertEquals(9, slow.getLevel(OrderType.XCT, SIZE));
+    }
+}
@@ -0,0 +1,97 @@
+package org.kopi.ebics.session;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.mockito.Mockito;
+
+class AsyncTraceManagerTest {
+
+    @TempDir
+    File traceDir;
+
+    @Test
+    void testFlushWritesEveryTrace() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(traceDir, true, 4,
+            AsyncTraceManager.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 20; i++) {
+            manager.trace(element("trace" + i + ".xml", "<trace" + i + "/>"));
+        }
+        manager.flush();
+
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(("<trace" + i + "/>").getBytes(StandardCharsets.UTF_8),
+                Files.readAllBytes(new File(traceDir, "trace" + i + ".xml").toPath()));
+        }
+        assertEquals(0, manager.getDroppedTraces());
+        manager.close();
+    }
+
+    @Test
+    void testClearWaitsForPendingTraces() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(traceDir, true, 16,
+            AsyncTraceManager.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            manager.trace(element("trace" + i + ".xml", "<trace/>"));
+        }
+        manager.clear();
+        manager.close();
+
+        assertEquals(0, traceDir.listFiles().length);
+    }
+
+    @Test
+    void testTraceAfterCloseIsWrittenSynchronously() throws Exception {
+        AsyncTraceManager manager = new AsyncTraceManager(traceDir, true, 1,
+            AsyncTraceManager.OverflowPolicy.DROP);
+        manager.close();
+        manager.trace(element("late.xml", "<late/>"));
+
+        assertArrayEquals("<late/>".getBytes(StandardCharsets.UTF_8),
+            Files.readAllBytes(new File(traceDir, "late.xml").toPath()));
+    }
+
+    @Test
+    void testTracesAreWrittenSynchronouslyOnceTheWriterDied() throws Exception {
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        AsyncTraceManager manager = new AsyncTraceManager(traceDir, true, 1,
+            AsyncTraceManager.OverflowPolicy.BLOCK);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!before.contains(thread) && thread.getName().equals("ebics-trace-writer")) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            manager.trace(element("trace" + i + ".xml", "<trace" + i + "/>"));
+        }
+        manager.flush();
+
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(("<trace" + i + "/>").getBytes(StandardCharsets.UTF_8),
+                Files.readAllBytes(new File(traceDir, "trace" + i + ".xml").toPath()));
+        }
+        manager.close();
+    }
+
+    private static EbicsRootElement element(String name, String content) throws Exception {
+        EbicsRootElement element = Mockito.mock(EbicsRootElement.class);
+        Mockito.when(element.getName()).thenReturn(name);
+        Mockito.doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.close();
+            return null;
+        }).when(element).save(Mockito.any());
+        return element;
+    }
+}
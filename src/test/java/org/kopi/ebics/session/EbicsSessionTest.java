@@ -0,0 +1,82 @@
+package org.kopi.ebics.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.interfaces.TraceManager;
+import org.mockito.Mockito;
+
+class EbicsSessionTest {
+
+    @TempDir
+    File root;
+
+    @Test
+    void testConcurrentSessionsTraceIntoTheirOwnDirectories() throws Exception {
+        TraceManager shared = new DefaultTraceManager(new File(root, "default"), true);
+        Configuration configuration = Mockito.mock(Configuration.class);
+        Mockito.when(configuration.getTraceManager()).thenReturn(shared);
+        int users = 8;
+        int elements = 50;
+        CyclicBarrier start = new CyclicBarrier(users);
+        ExecutorService executor = Executors.newFixedThreadPool(users);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int u = 0; u < users; u++) {
+                File directory = new File(root, "user" + u);
+                directory.mkdirs();
+                futures.add(executor.submit(() -> {
+                    EbicsSession session = new EbicsSession(Mockito.mock(EbicsUser.class), configuration);
+                    session.setTraceDirectory(directory);
+                    start.await();
+                    for (int i = 0; i < elements; i++) {
+                        session.getTraceManager().trace(element(directory.getName() + "-" + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int u = 0; u < users; u++) {
+            File[] traces = new File(root, "user" + u).listFiles();
+            assertEquals(elements, traces.length);
+            for (File trace : traces) {
+                assertTrue(trace.getName().startsWith("user" + u + "-"));
+            }
+        }
+        assertFalse(new File(root, "default").exists());
+    }
+
+    private static EbicsRootElement element(String name) throws Exception {
+        EbicsRootElement element = Mockito.mock(EbicsRootElement.class);
+        Mockito.when(element.getName()).thenReturn(name);
+        Mockito.doAnswer(invocation -> {
+            try (OutputStream out = invocation.getArgument(0)) {
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }).when(element).save(Mockito.any());
+        return element;
+    }
+}
@@ -0,0 +1,120 @@
+package org.kopi.ebics.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.interfaces.TraceManager;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.mockito.Mockito;
+
+class PolicyTraceManagerTest {
+
+    private final List<EbicsRootElement> traced = new ArrayList<>();
+    private int elements;
+    private final TraceManager store = Mockito.mock(TraceManager.class);
+
+    PolicyTraceManagerTest() throws Exception {
+        Mockito.doAnswer(invocation -> traced.add(invocation.getArgument(0)))
+            .when(store).trace(Mockito.any());
+    }
+
+    @Test
+    void testOffNeverTraces() throws Exception {
+        PolicyTraceManager manager = new PolicyTraceManager(store, PolicyTraceManager.Policy.OFF, 1, 4, Long.MAX_VALUE);
+        manager.beginTransaction();
+        manager.trace(element());
+        manager.failTransaction();
+        manager.endTransaction();
+
+        assertEquals(0, traced.size());
+    }
+
+    @Test
+    void testErrorsKeepsTheLastElementsOfFailedTransactions() throws Exception {
+        PolicyTraceManager manager = new PolicyTraceManager(store, PolicyTraceManager.Policy.ERRORS, 1, 2, Long.MAX_VALUE);
+        manager.beginTransaction();
+        manager.trace(element());
+        manager.endTransaction();
+        assertEquals(0, traced.size());
+
+        EbicsRootElement second = element();
+        EbicsRootElement third = element();
+        EbicsRootElement afterFailure = element();
+        manager.beginTransaction();
+        manager.trace(element());
+        manager.beginTransaction();
+        manager.trace(second);
+        manager.endTransaction();
+        manager.trace(third);
+        manager.failTransaction();
+        manager.trace(afterFailure);
+        manager.endTransaction();
+
+        assertEquals(List.of(second.getName(), third.getName(), afterFailure.getName()),
+            traced.stream().map(EbicsRootElement::getName).toList());
+        assertEquals("<" + third.getName() + "/>", new String(traced.get(1).toByteArray()));
+    }
+
+    @Test
+    void testErrorsSerializesElementsOnlyWhenTheTransactionFails() throws Exception {
+        PolicyTraceManager manager = new PolicyTraceManager(store, PolicyTraceManager.Policy.ERRORS, 1, 2, Long.MAX_VALUE);
+        EbicsRootElement element = element();
+        Mockito.when(element.toContentFactory()).thenReturn(null);
+
+        manager.beginTransaction();
+        manager.trace(element);
+        Mockito.verify(element, Mockito.never()).save(Mockito.any());
+        manager.failTransaction();
+        manager.endTransaction();
+
+        assertEquals(List.of(element), traced);
+    }
+
+    @Test
+    void testErrorsBoundsTheKeptBytes() throws Exception {
+        PolicyTraceManager manager = new PolicyTraceManager(store, PolicyTraceManager.Policy.ERRORS, 1, 4, 25);
+        List<String> names = new ArrayList<>();
+
+        manager.beginTransaction();
+        for (int i = 0; i < 4; i++) {
+            EbicsRootElement element = element();
+            names.add(element.getName());
+            manager.trace(element);
+        }
+        manager.failTransaction();
+        manager.endTransaction();
+
+        assertEquals(names.subList(2, 4), traced.stream().map(EbicsRootElement::getName).toList());
+    }
+
+    @Test
+    void testSampledTracesWholeTransactions() throws Exception {
+        PolicyTraceManager manager = new PolicyTraceManager(store, PolicyTraceManager.Policy.SAMPLED, 3, 4, Long.MAX_VALUE);
+        for (int i = 0; i < 6; i++) {
+            manager.beginTransaction();
+            manager.trace(element());
+            manager.trace(element());
+            manager.endTransaction();
+        }
+
+        assertEquals(4, traced.size());
+    }
+
+    private EbicsRootElement element() throws Exception {
+        EbicsRootElement element = Mockito.mock(EbicsRootElement.class);
+        String name = "element" + elements++;
+        Mockito.when(element.getName()).thenReturn(name);
+        Mockito.doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(("<" + name + "/>").getBytes());
+            return null;
+        }).when(element).save(Mockito.any());
+        Mockito.when(element.toContentFactory())
+            .thenReturn(new ByteArrayContentFactory(("<" + name + "/>").getBytes()));
+        return element;
+    }
+}
@@ -0,0 +1,45 @@
+package org.kopi.ebics.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kopi.ebics.interfaces.EbicsRootElement;
+import org.kopi.ebics.io.TraceLog;
+import org.mockito.Mockito;
+
+class SegmentedTraceManagerTest {
+
+    @TempDir
+    File root;
+
+    @Test
+    void testIdleLogsAreClosedAndStartANewSegment() throws Exception {
+        SegmentedTraceManager manager = new SegmentedTraceManager(root, true, Long.MAX_VALUE);
+        File first = new File(root, "dir0");
+
+        manager.trace(element(), first);
+        manager.trace(element(), first);
+        for (int i = 1; i <= 16; i++) {
+            manager.trace(element(), new File(root, "dir" + i));
+        }
+        manager.trace(element(), first);
+        manager.close();
+
+        assertEquals(3, TraceLog.list(first).size());
+        assertEquals(2, TraceLog.list(first).stream().map(TraceLog.Entry::segment).distinct().count());
+    }
+
+    private EbicsRootElement element() throws Exception {
+        EbicsRootElement element = Mockito.mock(EbicsRootElement.class);
+        Mockito.when(element.getName()).thenReturn("element");
+        Mockito.doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write("<element/>".getBytes());
+            return null;
+        }).when(element).save(Mockito.any());
+        return element;
+    }
+}
@@ -0,0 +1,26 @@
+package org.kopi.ebics.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class StaticCompressionPolicyTest {
+
+    @Test
+    void testOrderTypeRulesWinOverSizeBands() {
+        StaticCompressionPolicy policy = StaticCompressionPolicy.parse("*=9; *@1000=6; XCT=3; XCT@5000=1");
+
+        assertEquals(9, policy.getLevel(OrderType.CCT, 10));
+        assertEquals(6, policy.getLevel(OrderType.CCT, 1000));
+        assertEquals(3, policy.getLevel(OrderType.XCT, 1000));
+        assertEquals(1, policy.getLevel(OrderType.XCT, 5000));
+        assertEquals(6, policy.getLevel(null, 5000));
+    }
+
+    @Test
+    void testDefaultsToBestCompression() {
+        assertEquals(9, StaticCompressionPolicy.parse("XCT=1").getLevel(OrderType.CCT, 0));
+        assertThrows(IllegalArgumentException.class, () -> StaticCompressionPolicy.parse("*=10"));
+    }
+}
@@ -0,0 +1,40 @@
+package org.kopi.ebics.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class XmlToolkitTest {
+
+    private static final byte[] REQUEST = ("<ebicsRequest xmlns=\"urn:org:ebics:H005\">\n"
+        + "  <header authenticate=\"true\"><static/></header>\n"
+        + "  <body><DataTransfer authenticate=\"true\">data</DataTransfer></body>\n"
+        + "</ebicsRequest>").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void testCanonizeIsStableAcrossThreads() throws Exception {
+        byte[] expected = Utils.canonize(REQUEST);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> Utils.canonize(REQUEST)));
+            }
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(("<header xmlns=\"urn:org:ebics:H005\" authenticate=\"true\"><static></static></header>"
+            + "<DataTransfer xmlns=\"urn:org:ebics:H005\" authenticate=\"true\">data</DataTransfer>")
+            .getBytes(StandardCharsets.UTF_8), expected);
+    }
+}
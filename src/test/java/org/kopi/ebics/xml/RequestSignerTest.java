@@ -0,0 +1,107 @@
+package org.kopi.ebics.xml;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.security.Signature;
+
+import org.apache.xml.security.Init;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.interfaces.Configuration;
+import org.kopi.ebics.interfaces.EbicsUser;
+import org.kopi.ebics.schema.h005.EbicsRequestDocument;
+import org.kopi.ebics.session.EbicsSession;
+import org.kopi.ebics.session.OrderType;
+import org.kopi.ebics.session.Product;
+import org.kopi.ebics.utils.Utils;
+import org.mockito.Mockito;
+
+class RequestSignerTest {
+
+    static {
+        Init.init();
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private final KeyPair keyPair;
+    private final EbicsUser user;
+    private final EbicsSession session;
+
+    RequestSignerTest() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+
+        user = Mockito.mock(EbicsUser.class, Mockito.RETURNS_DEEP_STUBS);
+        Mockito.when(user.getPartner().getBank().getHostId()).thenReturn("EBIXHOST");
+        Mockito.when(user.getPartner().getBank().getX002Digest()).thenReturn(DIGEST_HEX.getBytes());
+        Mockito.when(user.getPartner().getBank().getE002Digest()).thenReturn(DIGEST_HEX.getBytes());
+        Mockito.when(user.getPartner().getPartnerId()).thenReturn("PARTNER");
+        Mockito.when(user.getUserId()).thenReturn("USER");
+        Mockito.when(user.getSecurityMedium()).thenReturn("0000");
+        Mockito.when(user.authenticate(Mockito.any())).thenAnswer(invocation -> {
+            Signature signature = Signature.getInstance("SHA256WithRSA", "BC");
+            signature.initSign(keyPair.getPrivate());
+            signature.update((byte[]) invocation.getArgument(0));
+            return signature.sign();
+        });
+        Configuration configuration = Mockito.mock(Configuration.class);
+        Mockito.when(configuration.getRevision()).thenReturn(1);
+        Mockito.when(configuration.getVersion()).thenReturn("H005");
+        Mockito.when(configuration.getAuthenticationVersion()).thenReturn("X002");
+        Mockito.when(configuration.getEncryptionVersion()).thenReturn("E002");
+        session = new EbicsSession(user, configuration);
+        session.setProduct(new Product("ebics-java-client", "en", null));
+    }
+
+    @Test
+    void testSinglePassSigningMatchesSeparatePasses() throws Exception {
+        ReceiptRequestElement receipt = new ReceiptRequestElement(session, new byte[16], "receipt");
+        receipt.build();
+        receipt.validate();
+        assertSignedLikeSeparatePasses(receipt);
+    }
+
+    @Test
+    void testInitializationAndTransferDigestsMatchTheCanonicalForm() throws Exception {
+        DownloadInitializationRequestElement initialization =
+            new DownloadInitializationRequestElement(session, OrderType.HTD);
+        initialization.build();
+        assertSignedLikeSeparatePasses(initialization);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(initialization.toByteArray())),
+            initialization.getDigest());
+
+        DownloadTransferRequestElement transfer =
+            new DownloadTransferRequestElement(session, OrderType.HTD, 2, true, new byte[16]);
+        transfer.build();
+        transfer.validate();
+        assertSignedLikeSeparatePasses(transfer);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(transfer.toByteArray())),
+            transfer.getDigest());
+    }
+
+    private void assertSignedLikeSeparatePasses(DefaultEbicsRootElement element) throws Exception {
+        byte[] wire = element.prettyPrint();
+
+        ByteArrayOutputStream canonical = new ByteArrayOutputStream();
+        Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_OMIT_COMMENTS)
+            .canonicalize(element.toByteArray(), canonical, true);
+        assertArrayEquals(canonical.toByteArray(), wire);
+
+        var authSignature = EbicsRequestDocument.Factory.parse(new String(wire, "UTF-8"))
+            .getEbicsRequest().getAuthSignature();
+        byte[] digest = MessageDigest.getInstance("SHA-256", "BC").digest(Utils.canonize(wire));
+        assertArrayEquals(digest, authSignature.getSignedInfo().getReferenceArray(0).getDigestValue());
+        assertArrayEquals(new SignedInfo(user, digest).sign(wire),
+            authSignature.getSignatureValue().getByteArrayValue());
+    }
+
+    private static final String DIGEST_HEX =
+        "0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF0123456789ABCDEF";
+}
@@ -0,0 +1,131 @@
+package org.kopi.ebics.xml;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.kopi.ebics.exception.NoDownloadDataAvailableException;
+import org.kopi.ebics.exception.ReturnCode;
+import org.kopi.ebics.io.ByteArrayContentFactory;
+import org.kopi.ebics.schema.h005.EbicsResponseDocument;
+
+class ResponseReaderTest {
+
+    private static final byte[] TRANSACTION_ID = {
+        0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+        0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF };
+
+    @Test
+    void testInitializationResponseMatchesXmlBeans() throws Exception {
+        byte[] orderData = randomBytes(50_000);
+        byte[] transactionKey = randomBytes(256);
+        byte[] xml = response("000000", "000000", 3, 1, false, transactionKey, orderData);
+
+        var element = new DownloadInitializationResponseElement(
+            new ByteArrayContentFactory(xml), null, "download");
+        element.build();
+
+        var expected = EbicsResponseDocument.Factory.parse(new String(xml, StandardCharsets.UTF_8))
+            .getEbicsResponse();
+        assertArrayEquals(expected.getHeader().getStatic().getTransactionID(), element.getTransactionId());
+        assertArrayEquals(TRANSACTION_ID, element.getTransactionId());
+        assertEquals(expected.getHeader().getStatic().getNumSegments(), element.getSegmentsNumber());
+        assertEquals(1, element.getSegmentNumber());
+        assertEquals(false, element.isLastSegment());
+        assertArrayEquals(transactionKey, element.getTransactionKey());
+        assertArrayEquals(expected.getBody().getDataTransfer().getOrderData().getByteArrayValue(),
+                          element.getOrderData());
+        assertArrayEquals(orderData, element.getOrderData());
+        assertArrayEquals(xml, element.prettyPrint());
+    }
+
+    @Test
+    void testTransferResponseStreamsOrderData() throws Exception {
+        byte[] orderData = randomBytes(12_345);
+        byte[] xml = response("000000", "000000", 3, 3, true, null, orderData);
+
+        var element = new DownloadTransferResponseElement(
+            new ByteArrayContentFactory(xml), null, "download");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        element.build(output);
+
+        assertArrayEquals(orderData, output.toByteArray());
+    }
+
+    @Test
+    void testReturnCodeIsReadFromTheHeaderOnly() throws Exception {
+        String xml = new String(response("091002", "000000", 3, 2, false, null, randomBytes(1_000)),
+                                StandardCharsets.UTF_8);
+        byte[] header = xml.substring(0, xml.indexOf("<body>")).getBytes(StandardCharsets.UTF_8);
+
+        ReturnCode returnCode = DownloadTransferResponseElement.readReturnCode(new ByteArrayContentFactory(header));
+
+        assertEquals(ReturnCode.EBICS_INVALID_USER_OR_USER_STATE, returnCode);
+        assertFalse(returnCode.isOk());
+    }
+
+    @Test
+    void testNoDownloadDataAvailable() throws Exception {
+        byte[] xml = response("000000", "090005", 0, 0, true, null, null);
+
+        var element = new DownloadInitializationResponseElement(
+            new ByteArrayContentFactory(xml), null, "download");
+        assertThrows(NoDownloadDataAvailableException.class, element::build);
+    }
+
+    private static byte[] response(String returnCode, String bodyReturnCode, int numSegments,
+                                   int segmentNumber, boolean lastSegment,
+                                   byte[] transactionKey, byte[] orderData) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+           .append("<ebicsResponse xmlns=\"urn:org:ebics:H005\" ")
+           .append("xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\" Version=\"H005\" Revision=\"1\">\n")
+           .append("  <header authenticate=\"true\">\n    <static>\n")
+           .append("      <TransactionID>0123456789ABCDEF0123456789ABCDEF</TransactionID>\n");
+        if (numSegments > 0) {
+            xml.append("      <NumSegments>").append(numSegments).append("</NumSegments>\n");
+        }
+        xml.append("    </static>\n    <mutable>\n")
+           .append("      <TransactionPhase>Initialisation</TransactionPhase>\n");
+        if (segmentNumber > 0) {
+            xml.append("      <SegmentNumber lastSegment=\"").append(lastSegment).append("\">")
+               .append(segmentNumber).append("</SegmentNumber>\n");
+        }
+        xml.append("      <ReturnCode>").append(returnCode).append("</ReturnCode>\n")
+           .append("      <ReportText>[EBICS_OK] OK</ReportText>\n")
+           .append("    </mutable>\n  </header>\n")
+           .append("  <AuthSignature/>\n  <body>\n");
+        if (orderData != null) {
+            xml.append("    <DataTransfer>\n");
+            if (transactionKey != null) {
+                xml.append("      <DataEncryptionInfo authenticate=\"true\">\n")
+                   .append("        <EncryptionPubKeyDigest Version=\"E002\" ")
+                   .append("Algorithm=\"http://www.w3.org/2001/04/xmlenc#sha256\">")
+                   .append(Base64.getEncoder().encodeToString(new byte[32]))
+                   .append("</EncryptionPubKeyDigest>\n")
+                   .append("        <TransactionKey>")
+                   .append(Base64.getEncoder().encodeToString(transactionKey))
+                   .append("</TransactionKey>\n      </DataEncryptionInfo>\n");
+            }
+            xml.append("      <OrderData>")
+               .append(Base64.getMimeEncoder().encodeToString(orderData))
+               .append("</OrderData>\n    </DataTransfer>\n");
+        }
+        xml.append("    <ReturnCode authenticate=\"true\">").append(bodyReturnCode)
+           .append("</ReturnCode>\n  </body>\n</ebicsResponse>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}